@@ -0,0 +1,102 @@
+package uk.co.oliwali.HawkEye.entry;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.co.oliwali.HawkEye.DataType;
+
+import java.lang.reflect.Constructor;
+import java.sql.Timestamp;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building entries through their reflective constructor with building them through an {@link EntryFactory},
+ * over a million synthetic rows with a mix of entry classes like a block heavy search returns.
+ *
+ * The DataType of each row is left null, as the enum reads the plugin config when it is loaded
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class EntryFactoryBenchmark {
+
+    private static final int ROWS = 1000000;
+
+    /**
+     * Entry classes with the share of rows they get
+     */
+    private static final Class<?>[] CLASSES = {BlockEntry.class, BlockChangeEntry.class, DataEntry.class, SimpleRollbackEntry.class, EntityEntry.class};
+    private static final int[] SHARES = {45, 35, 12, 5, 3};
+
+    private Constructor<?>[] constructors;
+    private EntryFactory[] factories;
+
+    private String[] players;
+    private Timestamp[] times;
+    private String[] data;
+    private String[] worlds;
+    private int[] x;
+    private int[] y;
+    private int[] z;
+
+    @Setup
+    public void setup() throws Exception {
+        Random random = new Random(42);
+
+        constructors = new Constructor<?>[ROWS];
+        factories = new EntryFactory[ROWS];
+        players = new String[ROWS];
+        times = new Timestamp[ROWS];
+        data = new String[ROWS];
+        worlds = new String[ROWS];
+        x = new int[ROWS];
+        y = new int[ROWS];
+        z = new int[ROWS];
+
+        Constructor<?>[] classConstructors = new Constructor<?>[CLASSES.length];
+        EntryFactory[] classFactories = new EntryFactory[CLASSES.length];
+
+        for (int i = 0; i < CLASSES.length; i++) {
+            classConstructors[i] = CLASSES[i].getConstructor(String.class, Timestamp.class, int.class, DataType.class, String.class, String.class, int.class, int.class, int.class);
+            classFactories[i] = EntryFactory.of(CLASSES[i]);
+        }
+
+        String[] names = new String[200];
+        for (int i = 0; i < names.length; i++) names[i] = "player" + i;
+
+        long now = System.currentTimeMillis();
+
+        for (int row = 0; row < ROWS; row++) {
+            int pick = random.nextInt(100);
+            int c = 0;
+
+            while (pick >= SHARES[c]) pick -= SHARES[c++];
+
+            constructors[row] = classConstructors[c];
+            factories[row] = classFactories[c];
+            players[row] = names[random.nextInt(names.length)];
+            times[row] = new Timestamp(now - random.nextInt(86400000));
+            data[row] = CLASSES[c] == BlockChangeEntry.class ? random.nextInt(180) + "-" + random.nextInt(180) : Integer.toString(random.nextInt(180));
+            worlds[row] = random.nextInt(10) == 0 ? "world_nether" : "world";
+            x[row] = random.nextInt(20000) - 10000;
+            y[row] = random.nextInt(256);
+            z[row] = random.nextInt(20000) - 10000;
+        }
+    }
+
+    @Benchmark
+    public void reflective(Blackhole blackhole) throws Exception {
+        for (int row = 0; row < ROWS; row++)
+            blackhole.consume(constructors[row].newInstance(players[row], times[row], row + 1, null, data[row], worlds[row], x[row], y[row], z[row]));
+    }
+
+    @Benchmark
+    public void factory(Blackhole blackhole) {
+        for (int row = 0; row < ROWS; row++)
+            blackhole.consume(factories[row].create(players[row], times[row], row + 1, null, data[row], worlds[row], x[row], y[row], z[row]));
+    }
+
+}
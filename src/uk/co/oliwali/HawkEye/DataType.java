@@ -77,6 +77,7 @@ public enum DataType {
     private boolean isLogged;
     private Class<?> entryClass;
     private Constructor<?> entryConstructor;
+    private EntryFactory entryFactory;
 
     private static final Map<String, DataType> nameMapping = new HashMap<>();
     private static final DataType[] idTable;
@@ -109,6 +110,8 @@ public enum DataType {
         } catch (Exception e) {
             e.printStackTrace();
         }
+
+        this.entryFactory = EntryFactory.of(entryClass);
     }
 
     /**
@@ -180,6 +183,15 @@ public enum DataType {
         return entryConstructor;
     }
 
+    /**
+     * Get the factory that creates entries of this DataType without reflection
+     *
+     * @return {@link EntryFactory}
+     */
+    public EntryFactory getEntryFactory() {
+        return entryFactory;
+    }
+
     public boolean isLogged() {
         return isLogged;
     }
@@ -1,5 +1,6 @@
 package uk.co.oliwali.HawkEye;
 
+import uk.co.oliwali.HawkEye.database.SearchCursor;
 import uk.co.oliwali.HawkEye.entry.DataEntry;
 import uk.co.oliwali.HawkEye.util.Util;
 
@@ -12,6 +13,11 @@ import java.util.List;
  */
 public class DisplayManager {
 
+    /**
+     * Number of results shown on a page
+     */
+    public static final int PAGE_LINES = 6;
+
     /**
      * Displays a page of data from the specified {@link PlayerSession} search results.
      * Contains appropriate methods for detecing errors e.g. no results
@@ -29,14 +35,18 @@ public class DisplayManager {
         }
 
         //Work out max pages. Return if page is higher than max pages
-        int maxLines = 6;
-        int maxPages = (int) Math.ceil((double) results.size() / 6);
+        int maxLines = PAGE_LINES;
+        int maxPages = (int) Math.ceil((double) results.size() / PAGE_LINES);
 
         if (page > maxPages || page < 1)
             return;
 
+        //Paged searches only know how many pages they have read so far
+        SearchCursor cursor = session.getSearchCursor();
+        String pages = maxPages + (cursor != null && cursor.hasMore() ? "+" : "");
+
         //Calculates how many pixels we should fill in with '-'. 255 = max, 42 = other characters
-        int fillPixels = (255 - (42 + (Integer.toString(page).length() * 5) + (Integer.toString(maxPages).length() * 5))) / 2;
+        int fillPixels = (255 - (42 + (Integer.toString(page).length() * 5) + (pages.length() * 5))) / 2;
 
         StringBuilder lineBuilder = new StringBuilder();
 
@@ -47,7 +57,7 @@ public class DisplayManager {
         String line = lineBuilder.toString();
 
         //Begin displaying page
-        Util.sendMessage(session.getSender(), "&8" + line + " &7Page (&c" + page + "&7/&c" + maxPages + "&7) &8" + line);
+        Util.sendMessage(session.getSender(), "&8" + line + " &7Page (&c" + page + "&7/&c" + pages + "&7) &8" + line);
 
         for (int i = (page - 1) * maxLines; i < ((page - 1) * maxLines) + maxLines; i++) {
             if (i == results.size())
@@ -32,6 +32,9 @@ public class HawkCommand implements CommandExecutor {
             new RebuildCommand(),
             new DeleteCommand(),
             new InfoCommand(),
+            new PerfCommand(),
+            new StatsCommand(),
+            new CancelCommand(),
             new WriteLogCommand(),
             new ReloadCommand()
     };
@@ -82,7 +82,7 @@ public class HawkEye extends JavaPlugin {
         //Initiate database connection
         try {
             this.dbmanager = new DataManager(this);
-            getServer().getScheduler().runTaskTimerAsynchronously(this, dbmanager, Config.LogDelay * 20, Config.LogDelay * 20);
+            dbmanager.start();
         } catch (Exception e) {
             Util.severe("Error initiating HawkEye database connection, disabling plugin");
             pm.disablePlugin(this);
@@ -29,6 +29,10 @@ public class LogManager {
 			return;
 		}
 		
+		//Paged searches only write the results read so far
+		if (session.getSearchCursor() != null && session.getSearchCursor().hasMore())
+			Util.sendMessage(sender, "&7Only the results up to the last page read are written, read further pages to include more");
+
 		String t = new SimpleDateFormat("MM-dd_HH-mm-ss").format(Calendar.getInstance().getTime());
 		String name = "Log-" + t + ".txt";
 		Util.sendMessage(sender, "&7Attempting to write &c" + results.size() + " &7results to &c" + name + "&7!");
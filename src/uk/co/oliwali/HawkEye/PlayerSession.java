@@ -5,6 +5,7 @@ import java.util.List;
 import org.bukkit.command.CommandSender;
 
 import uk.co.oliwali.HawkEye.Rollback.RollbackType;
+import uk.co.oliwali.HawkEye.database.SearchCursor;
 import uk.co.oliwali.HawkEye.entry.DataEntry;
 import uk.co.oliwali.HawkEye.util.Config;
 
@@ -17,6 +18,7 @@ public class PlayerSession {
 
 	private CommandSender sender;
 	private List<DataEntry> searchResults = null;
+	private SearchCursor searchCursor = null;
 	private List<DataEntry> rollbackResults = null;
 	private RollbackType rollbackType = null;
 	private boolean usingTool = false;
@@ -44,6 +46,16 @@ public class PlayerSession {
 		this.searchResults = searchResults;
 	}
 
+	/**
+	 * Gets the cursor further pages of the last search are read from, or null if all its results were read up front
+	 */
+	public SearchCursor getSearchCursor() {
+		return searchCursor;
+	}
+	public void setSearchCursor(SearchCursor searchCursor) {
+		this.searchCursor = searchCursor;
+	}
+
 	public List<DataEntry> getRollbackResults() {
 		return rollbackResults;
 	}
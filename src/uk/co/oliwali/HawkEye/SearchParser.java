@@ -54,6 +54,7 @@ public class SearchParser {
 		String lastParam = "";
 		boolean paramSet = false;
 		boolean worldedit = false;
+		boolean chunks = false;
 
 		for (int i = 0; i < args.length; i++) {
 			String arg = args[i];
@@ -173,6 +174,44 @@ public class SearchParser {
 							throw new IllegalArgumentException("Radius too small");
 					}
 				}
+				// Chunks and regions
+				else if (lastParam.equals("c")) {
+					int fromX, fromZ, toX, toZ;
+
+					if (values[0].equalsIgnoreCase("here")) {
+						if (!(player instanceof Entity))
+							throw new IllegalArgumentException("Invalid chunk: &7here");
+						Vector here = ((Entity) player).getLocation().toVector();
+						fromX = toX = here.getBlockX() >> 4;
+						fromZ = toZ = here.getBlockZ() >> 4;
+					} else if (values.length == 2 && values[0].toLowerCase().startsWith("r")) {
+						// Region files are 32x32 chunks
+						fromX = Integer.parseInt(values[0].substring(1)) << 5;
+						fromZ = Integer.parseInt(values[1]) << 5;
+						toX = fromX + 31;
+						toZ = fromZ + 31;
+					} else if (values.length == 2) {
+						fromX = toX = Integer.parseInt(values[0]);
+						fromZ = toZ = Integer.parseInt(values[1]);
+					} else if (values.length == 4) {
+						fromX = Math.min(Integer.parseInt(values[0]), Integer.parseInt(values[2]));
+						fromZ = Math.min(Integer.parseInt(values[1]), Integer.parseInt(values[3]));
+						toX = Math.max(Integer.parseInt(values[0]), Integer.parseInt(values[2]));
+						toZ = Math.max(Integer.parseInt(values[1]), Integer.parseInt(values[3]));
+					} else {
+						throw new IllegalArgumentException("Invalid chunk: &7" + arg);
+					}
+
+					int lRadius = (toX - fromX + 1) * 8;
+					int wRadius = (toZ - fromZ + 1) * 8;
+
+					if (Config.MaxRadius != 0 && (lRadius > Config.MaxRadius || wRadius > Config.MaxRadius) && !player.hasPermission("hawkeye.override"))
+						throw new IllegalArgumentException("Area too large, max radius: &7" + Config.MaxRadius);
+
+					chunks = true;
+					minLoc = new Vector(fromX << 4, 0, fromZ << 4);
+					maxLoc = new Vector((toX << 4) + 15, 255, (toZ << 4) + 15);
+				}
 				//Time
 				else if (lastParam.equals("t")) {
 
@@ -257,7 +296,12 @@ public class SearchParser {
 		}
 
 		//Sort out locations
-		if (!worldedit) parseLocations();
+		if (chunks) {
+			// The area is already set, only default the world
+			if (worlds == null && player instanceof Player)
+				worlds = new String[]{ ((Player) player).getWorld().getName() };
+		}
+		else if (!worldedit) parseLocations();
 	}
 
 	/**
@@ -9,6 +9,7 @@ import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.util.Vector;
 import uk.co.oliwali.HawkEye.callbacks.SearchCallback;
+import uk.co.oliwali.HawkEye.database.SearchExecutor.Priority;
 import uk.co.oliwali.HawkEye.database.SearchQuery;
 import uk.co.oliwali.HawkEye.database.SearchQuery.SearchDir;
 import uk.co.oliwali.HawkEye.util.BlockUtil;
@@ -108,7 +109,7 @@ public class ToolManager {
 		}
 
 		parser.worlds = new String[]{ loc.getWorld().getName() };
-		new SearchQuery(new SearchCallback(SessionManager.getSession(player)), parser, SearchDir.DESC);
+		new SearchQuery(new SearchCallback(SessionManager.getSession(player)), parser, SearchDir.DESC, Priority.HIGH);
 
 	}
 
@@ -66,10 +66,10 @@ public class Undo implements Runnable {
                 DataManager.getDeleteManager().removeDeleteQueue(dq);
 
                 if (dq.getSize() < results.size()) { //true = deletions have been made and must be restored
-                    DataManager.getQueue().addAll(results);
+                    DataManager.requeue(results);
                 }
             } else {
-                DataManager.getQueue().addAll(results);
+                DataManager.requeue(results);
             }
         }
 
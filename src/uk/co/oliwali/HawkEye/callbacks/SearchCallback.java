@@ -4,6 +4,8 @@ import org.bukkit.command.CommandSender;
 
 import uk.co.oliwali.HawkEye.DisplayManager;
 import uk.co.oliwali.HawkEye.PlayerSession;
+import uk.co.oliwali.HawkEye.database.SearchCursor;
+import uk.co.oliwali.HawkEye.database.SearchQuery;
 import uk.co.oliwali.HawkEye.database.SearchQuery.SearchError;
 import uk.co.oliwali.HawkEye.util.Util;
 
@@ -15,17 +17,38 @@ public class SearchCallback extends BaseCallback {
 
 	private final PlayerSession session;
 	private final CommandSender sender;
+	private final int page;
+
+	/**
+	 * Cursor of a paged search, set by the {@link SearchQuery}
+	 */
+	public SearchCursor cursor = null;
 
 	public SearchCallback(PlayerSession session) {
 		this.session = session;
 		sender = session.getSender();
+		page = 1;
 		Util.sendMessage(sender, "&cSearching for matching results...");
 	}
 
+	/**
+	 * Shows a page of a paged search once its results have been read
+	 */
+	public SearchCallback(PlayerSession session, SearchCursor cursor, int page) {
+		this.session = session;
+		this.cursor = cursor;
+		this.page = page;
+		sender = session.getSender();
+	}
+
 	@Override
 	public void execute() {
+		//A newer search has been made while this page was read
+		if (page > 1 && session.getSearchCursor() != cursor)
+			return;
+		session.setSearchCursor(cursor);
 		session.setSearchResults(results);
-		DisplayManager.displayPage(session, 1);
+		DisplayManager.displayPage(session, page);
 	}
 
 	@Override
@@ -0,0 +1,73 @@
+package uk.co.oliwali.HawkEye.callbacks;
+
+import org.bukkit.command.CommandSender;
+
+import uk.co.oliwali.HawkEye.PlayerSession;
+import uk.co.oliwali.HawkEye.database.SearchQuery.SearchError;
+import uk.co.oliwali.HawkEye.database.SearchQuery.StatsGroup;
+import uk.co.oliwali.HawkEye.util.Util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implementation of BaseCallback for use in the stats command, showing the largest groups of matching rows
+ */
+public class StatsCallback extends BaseCallback {
+
+	private static final int MAX_GROUPS = 10;
+
+	private final CommandSender sender;
+	private final StatsGroup group;
+	public Map<String, Integer> counts;
+
+	public StatsCallback(PlayerSession session, StatsGroup group) {
+		sender = session.getSender();
+		this.group = group;
+		Util.sendMessage(sender, "&cCounting matching results...");
+	}
+
+	public StatsGroup getGroup() {
+		return group;
+	}
+
+	@Override
+	public void execute() {
+		if (counts == null || counts.isEmpty()) {
+			Util.sendMessage(sender, "&cNo results found");
+			return;
+		}
+
+		List<Map.Entry<String, Integer>> groups = new ArrayList<>(counts.entrySet());
+
+		Collections.sort(groups, new Comparator<Map.Entry<String, Integer>>() {
+			@Override
+			public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+				return Integer.compare(b.getValue(), a.getValue());
+			}
+		});
+
+		int total = 0;
+		for (Map.Entry<String, Integer> entry : groups) total += entry.getValue();
+
+		Util.sendMessage(sender, "&c---------------------&8[ &7HawkEye &8]&c---------------------");
+		Util.sendMessage(sender, "&7" + total + " results by " + group.name().toLowerCase() + ":");
+
+		for (Map.Entry<String, Integer> entry : groups.subList(0, Math.min(MAX_GROUPS, groups.size())))
+			Util.sendMessage(sender, "&8  - &c" + entry.getValue() + " &7" + entry.getKey());
+
+		if (groups.size() > MAX_GROUPS)
+			Util.sendMessage(sender, "&8  ... " + (groups.size() - MAX_GROUPS) + " more");
+
+		Util.sendMessage(sender, "&c----------------------------------------------------");
+	}
+
+	@Override
+	public void error(SearchError error, String message) {
+		Util.sendMessage(sender, message);
+	}
+
+}
@@ -0,0 +1,37 @@
+package uk.co.oliwali.HawkEye.commands;
+
+import org.bukkit.command.CommandSender;
+import uk.co.oliwali.HawkEye.database.DataManager;
+import uk.co.oliwali.HawkEye.util.Util;
+
+/**
+ * Cancels the searches the player has queued or running
+ */
+public class CancelCommand extends BaseCommand {
+
+    public CancelCommand() {
+        name = "cancel";
+        argLength = 0;
+        permission = "search";
+        usage = " <- cancel your running searches";
+    }
+
+    @Override
+    public boolean execute(CommandSender sender, String[] args) {
+        int cancelled = DataManager.getSearchExecutor().cancel(sender.getName());
+
+        if (cancelled == 0)
+            Util.sendMessage(sender, "&cYou have no searches running");
+        else
+            Util.sendMessage(sender, "&7Cancelled &c" + cancelled + " &7search(es)");
+
+        return true;
+    }
+
+    @Override
+    public void moreHelp(CommandSender sender) {
+        Util.sendMessage(sender, "&cStops your queued and running searches, rollbacks and lookups");
+        Util.sendMessage(sender, "&cDeletes that have already started are left to finish");
+    }
+
+}
@@ -6,6 +6,7 @@ import uk.co.oliwali.HawkEye.DataType;
 import uk.co.oliwali.HawkEye.SearchParser;
 import uk.co.oliwali.HawkEye.SessionManager;
 import uk.co.oliwali.HawkEye.callbacks.SearchCallback;
+import uk.co.oliwali.HawkEye.database.SearchExecutor.Priority;
 import uk.co.oliwali.HawkEye.database.SearchQuery;
 import uk.co.oliwali.HawkEye.database.SearchQuery.SearchDir;
 import uk.co.oliwali.HawkEye.util.Config;
@@ -60,7 +61,7 @@ public class HereCommand extends BaseCommand {
 		}
 
 		//Run the search query
-		new SearchQuery(new SearchCallback(SessionManager.getSession(player)), parser, SearchDir.DESC);
+		new SearchQuery(new SearchCallback(SessionManager.getSession(player)), parser, SearchDir.DESC, Priority.HIGH);
 		return true;
 
 	}
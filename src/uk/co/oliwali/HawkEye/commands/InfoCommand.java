@@ -4,6 +4,7 @@ import org.bukkit.command.CommandSender;
 import uk.co.oliwali.HawkEye.DataType;
 import uk.co.oliwali.HawkEye.HawkEye;
 import uk.co.oliwali.HawkEye.database.DataManager;
+import uk.co.oliwali.HawkEye.database.IngestQueue;
 import uk.co.oliwali.HawkEye.util.Util;
 
 import java.util.ArrayList;
@@ -25,8 +26,11 @@ public class InfoCommand extends BaseCommand {
         for (DataType type : DataType.values())
             if (type.isLogged()) acs.add(type.getConfigName());
 
+        IngestQueue queue = DataManager.getQueue();
+
         Util.sendMessage(sender, "&c---------------------&8[ &7HawkEye &8]&c---------------------");
-        Util.sendMessage(sender, "&8  - &cQueue-load: &7" + DataManager.getQueue().size());
+        Util.sendMessage(sender, "&8  - &cQueue-load: &7" + queue.size() + "/" + queue.getCapacity() + " &8(" + queue.getPolicy().name().toLowerCase() + ")");
+        Util.sendMessage(sender, "&8  - &cOverflow: &7" + queue.getSpilledPending() + " spilled, " + queue.getSpilled() + " total spilled, " + queue.getDropped() + " dropped, " + queue.getBlocked() + " blocked");
         Util.sendMessage(sender, "&8  - &cVersion: &7" + HawkEye.instance.getDescription().getVersion());
         Util.sendMessage(sender, "&8  - &cLogged: &7" + Util.join(acs, " "));
         Util.sendMessage(sender, "&c----------------------------------------------------");
@@ -2,7 +2,11 @@ package uk.co.oliwali.HawkEye.commands;
 
 import org.bukkit.command.CommandSender;
 import uk.co.oliwali.HawkEye.DisplayManager;
+import uk.co.oliwali.HawkEye.PlayerSession;
 import uk.co.oliwali.HawkEye.SessionManager;
+import uk.co.oliwali.HawkEye.callbacks.SearchCallback;
+import uk.co.oliwali.HawkEye.database.SearchCursor;
+import uk.co.oliwali.HawkEye.database.SearchQuery;
 import uk.co.oliwali.HawkEye.util.Util;
 
 /**
@@ -25,7 +29,21 @@ public class PageCommand extends BaseCommand {
             Util.sendMessage(sender, "&cInvalid argument format: &7" + args[0]);
             return true;
         }
-        DisplayManager.displayPage(SessionManager.getSession(sender), Integer.parseInt(args[0]));
+        PlayerSession session = SessionManager.getSession(sender);
+        int page = Integer.parseInt(args[0]);
+
+        //Pages past those read so far are read when they are first asked for
+        SearchCursor cursor = session.getSearchCursor();
+        if (cursor != null && page > 0 && page * DisplayManager.PAGE_LINES > cursor.getEntries().size() && cursor.hasMore()) {
+            if (!cursor.startFetch()) {
+                Util.sendMessage(sender, "&cStill reading results, please wait");
+                return true;
+            }
+            new SearchQuery(new SearchCallback(session, cursor, page), cursor, page * DisplayManager.PAGE_LINES, sender);
+            return true;
+        }
+
+        DisplayManager.displayPage(session, page);
         return true;
     }
 
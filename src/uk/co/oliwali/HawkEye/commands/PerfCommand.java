@@ -0,0 +1,49 @@
+package uk.co.oliwali.HawkEye.commands;
+
+import org.bukkit.command.CommandSender;
+import uk.co.oliwali.HawkEye.database.DataManager;
+import uk.co.oliwali.HawkEye.database.IngestQueue;
+import uk.co.oliwali.HawkEye.database.SearchCache;
+import uk.co.oliwali.HawkEye.util.Histogram;
+import uk.co.oliwali.HawkEye.util.Metrics;
+import uk.co.oliwali.HawkEye.util.Util;
+
+public class PerfCommand extends BaseCommand {
+
+    public PerfCommand() {
+        name = "perf";
+        argLength = 0;
+        permission = "perf";
+        usage = " <- displays writer and search performance";
+    }
+
+    @Override
+    public boolean execute(CommandSender sender, String[] args) {
+        IngestQueue queue = DataManager.getQueue();
+
+        Util.sendMessage(sender, "&c---------------------&8[ &7HawkEye &8]&c---------------------");
+        Util.sendMessage(sender, "&8  - &cEvents: &7" + String.format("%.1f", Metrics.getEventRate()) + "/s &8(" + Metrics.eventsQueued.get() + " queued, " + Metrics.eventsFiltered.get() + " filtered, " + queue.getDropped() + " dropped)");
+        Util.sendMessage(sender, "&8  - &cRows: &7" + String.format("%.1f", Metrics.getRowRate()) + "/s &8(" + Metrics.rowsWritten.get() + " written, " + Metrics.writeFailures.get() + " failed)");
+        Util.sendMessage(sender, "&8  - &cQueue: &7" + queue.size() + "/" + queue.getCapacity() + " &8(batch target " + DataManager.getBatchTuner().getBatchRows() + ")");
+        Util.sendMessage(sender, "&8  - &cBatch rows: &7" + format(Metrics.batchRows, ""));
+        Util.sendMessage(sender, "&8  - &cCommit: &7" + format(Metrics.commitLatency, "us"));
+        Util.sendMessage(sender, "&8  - &cId lookups: &7" + format(Metrics.resolveLatency, "us") + " &8(" + Metrics.idMisses.get() + " misses)");
+        Util.sendMessage(sender, "&8  - &cDeletes: &7" + format(Metrics.deleteLatency, "us") + " &8(" + Metrics.rowsDeleted.get() + " rows)");
+        Util.sendMessage(sender, "&8  - &cSearches: &7" + format(Metrics.searchLatency, "us") + " &8(" + Metrics.searches.get() + " run, " + DataManager.getSearchExecutor().getRunning() + " running, " + DataManager.getSearchExecutor().getQueued() + " queued)");
+        Util.sendMessage(sender, "&8  - &cSearch cache: &7" + String.format("%.1f", Metrics.getCacheHitRatio() * 100) + "% hits &8(" + SearchCache.size() + " cached, " + Metrics.cacheHits.get() + " hits, " + Metrics.cacheMisses.get() + " misses, " + Metrics.cacheEvictions.get() + " evicted, " + Metrics.cacheInvalidations.get() + " invalidated)");
+        Util.sendMessage(sender, "&c----------------------------------------------------");
+
+        return true;
+    }
+
+    private String format(Histogram histogram, String unit) {
+        return "p50 " + histogram.getPercentile(50) + unit + ", p99 " + histogram.getPercentile(99) + unit + ", max " + histogram.getMax() + unit;
+    }
+
+    @Override
+    public void moreHelp(CommandSender sender) {
+        Util.sendMessage(sender, "&cDisplays ingest rates, queue depth and latency percentiles");
+        Util.sendMessage(sender, "&cThe same figures are available over JMX");
+    }
+
+}
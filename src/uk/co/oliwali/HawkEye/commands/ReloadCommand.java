@@ -4,6 +4,7 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.event.HandlerList;
 import uk.co.oliwali.HawkEye.DataType;
 import uk.co.oliwali.HawkEye.HawkEye;
+import uk.co.oliwali.HawkEye.database.SearchCache;
 import uk.co.oliwali.HawkEye.listeners.HawkEyeListener;
 import uk.co.oliwali.HawkEye.util.Config;
 import uk.co.oliwali.HawkEye.util.Util;
@@ -29,6 +30,9 @@ public class ReloadCommand extends BaseCommand {
             dt.reload();
         }
 
+        //Cached results may have been cut down to the old max lines
+        SearchCache.clear();
+
         Util.sendMessage(sender, "&8|  &7- &cConfig has been reloaded..");
 
         for (HawkEyeListener listener : hawk.getLoggingListeners()) {
@@ -0,0 +1,59 @@
+package uk.co.oliwali.HawkEye.commands;
+
+import org.bukkit.command.CommandSender;
+import uk.co.oliwali.HawkEye.SearchParser;
+import uk.co.oliwali.HawkEye.SessionManager;
+import uk.co.oliwali.HawkEye.callbacks.StatsCallback;
+import uk.co.oliwali.HawkEye.database.SearchQuery;
+import uk.co.oliwali.HawkEye.database.SearchQuery.SearchDir;
+import uk.co.oliwali.HawkEye.database.SearchQuery.StatsGroup;
+import uk.co.oliwali.HawkEye.util.Util;
+
+import java.util.Arrays;
+
+/**
+ * Counts the rows matching a search, grouped by player, action, world, chunk or time
+ */
+public class StatsCommand extends BaseCommand {
+
+    public StatsCommand() {
+        name = "stats";
+        argLength = 2;
+        permission = "stats";
+        usage = "<group> <parameters> <- count matching results by group";
+    }
+
+    @Override
+    public boolean execute(CommandSender sender, String[] args) {
+        StatsGroup group;
+
+        try {
+            group = StatsGroup.valueOf(args[0].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            Util.sendMessage(sender, "&cInvalid group: &7" + args[0]);
+            return true;
+        }
+
+        //Parse arguments
+        SearchParser parser;
+        try {
+            parser = new SearchParser(sender, Arrays.copyOfRange(args, 1, args.length));
+        } catch (IllegalArgumentException e) {
+            Util.sendMessage(sender, "&c" + e.getMessage());
+            return true;
+        }
+
+        new SearchQuery(new StatsCallback(SessionManager.getSession(sender), group), parser, SearchDir.DESC);
+
+        return true;
+    }
+
+    @Override
+    public void moreHelp(CommandSender sender) {
+        Util.sendMessage(sender, "&cCounts the results of a search without reading them, largest groups first");
+        Util.sendMessage(sender, "&7Groups: &cplayer action world chunk hour day");
+        Util.sendMessage(sender, "&7Takes the same parameters as &c/hawk search");
+        Util.sendMessage(sender, "&7e.g. &c/hawk stats player a:block-break t:1d r:20");
+    }
+
+}
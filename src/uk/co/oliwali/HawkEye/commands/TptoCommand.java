@@ -1,17 +1,13 @@
 package uk.co.oliwali.HawkEye.commands;
 
-import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import uk.co.oliwali.HawkEye.database.DataManager;
-import uk.co.oliwali.HawkEye.util.Config;
+import uk.co.oliwali.HawkEye.database.SearchExecutor;
+import uk.co.oliwali.HawkEye.database.SearchExecutor.Priority;
 import uk.co.oliwali.HawkEye.util.Util;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-
 /**
  * Teleports player to location of specified data entry
  *
@@ -33,9 +29,9 @@ public class TptoCommand extends BaseCommand {
             Util.sendMessage(sender, "&cPlease supply a entry id!");
         } else {
 
-            new Thread(new Runnable() {
+            boolean queued = DataManager.getSearchExecutor().submit(new SearchExecutor.Task(Priority.HIGH, sender.getName()) {
                 @Override
-                public void run() {
+                protected void execute() {
 
                     final Location loc = searchForEntryLocation(Integer.parseInt(args[0]));
 
@@ -54,7 +50,10 @@ public class TptoCommand extends BaseCommand {
                         });
                     }
                 }
-            }, "HawkEye - TpTo Thread").start();
+            });
+
+            if (!queued)
+                Util.sendMessage(sender, "&cYou already have searches running, wait for them or use &7/hawk cancel");
 
         }
 
@@ -74,21 +73,10 @@ public class TptoCommand extends BaseCommand {
      * @return The location of the searched Entry
      */
     private Location searchForEntryLocation(int id) {
-        try (Connection conn = DataManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement("SELECT world_id,x,y,z FROM `" + Config.DbHawkEyeTable + "` WHERE `data_id` = ?")) {
-
-            stmt.setInt(1, id);
-
-            try (ResultSet res = stmt.executeQuery()) {
-
-                if (res.next()) {
-                    return new Location(Bukkit.getWorld(DataManager.getWorldDb().get(res.getInt(1))), res.getInt(2), res.getInt(3), res.getInt(4));
-                }
-
-            }
-
+        try {
+            return DataManager.getBackend().locate(id);
         } catch (Exception ex) {
-            Util.severe("Unable to retrieve data entry from MySQL Server: " + ex);
+            Util.severe("Unable to retrieve data entry from the database: " + ex);
         }
         return null;
     }
@@ -44,11 +44,12 @@ public class WriteLogCommand extends BaseCommand {
     public void moreHelp(CommandSender sender) {
         List<String> acs = new ArrayList<>();
         for (DataType type : DataType.values()) acs.add(type.getConfigName());
-        Util.sendMessage(sender, "&7There are 7 parameters you can use - &ca: p: w: r: f: t:");
+        Util.sendMessage(sender, "&7There are 8 parameters you can use - &ca: p: w: r: c: f: t:");
         Util.sendMessage(sender, "&6Action &ca:&7 - list of actions separated by commas. Select from the following: &8" + Util.join(acs, " "));
         Util.sendMessage(sender, "&6Player &cp:&7 - list of players. &6World &cw:&7 - list of worlds");
         Util.sendMessage(sender, "&6Filter &cf:&7 - list of keywords. &6Location &cl:&7 - x,y,z location");
         Util.sendMessage(sender, "&6Radius &cr:&7 - radius to search around given location");
+        Util.sendMessage(sender, "&6Chunk &cc:&7 - chunk x,z, corners x,z,x,z, region r<x>,<z> or here");
         Util.sendMessage(sender, "&6Time &ct:&7 - time bracket in the following format:");
         Util.sendMessage(sender, "&7  -&c Date format: yyyy-MM-dd");
         Util.sendMessage(sender, "&7  -&c t:10h45m10s &7-back specified amount of time");
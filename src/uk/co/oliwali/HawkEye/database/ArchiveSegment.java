@@ -0,0 +1,376 @@
+package uk.co.oliwali.HawkEye.database;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * An immutable file of archived rows, stored a column at a time with each column deflated on its own.
+ * The header carries a min/max index on time and chunk, and the worlds in the file, so searches can
+ * rule a segment out without inflating any of it.
+ *
+ * Layout: [header][player names][world names] then one [int length][deflated bytes] block per column
+ */
+public class ArchiveSegment {
+
+    public static final String SUFFIX = ".seg";
+
+    private static final int MAGIC = 0x484B4152;
+    private static final int VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final int rows;
+    private final long minTime;
+    private final long maxTime;
+    private final int minChunkX;
+    private final int maxChunkX;
+    private final int minChunkZ;
+    private final int maxChunkZ;
+    private final Set<String> worlds;
+
+    private ArchiveSegment(File file, int rows, long minTime, long maxTime, int minChunkX, int maxChunkX, int minChunkZ, int maxChunkZ, Set<String> worlds) {
+        this.file = file;
+        this.rows = rows;
+        this.minTime = minTime;
+        this.maxTime = maxTime;
+        this.minChunkX = minChunkX;
+        this.maxChunkX = maxChunkX;
+        this.minChunkZ = minChunkZ;
+        this.maxChunkZ = maxChunkZ;
+        this.worlds = worlds;
+    }
+
+    /**
+     * Writes rows to a new segment. The file only appears under its name once it is complete
+     *
+     * @param file segment file to create
+     * @param rows rows to write, at least one
+     */
+    public static ArchiveSegment write(File file, List<Row> rows) throws IOException {
+        long minTime = Long.MAX_VALUE, maxTime = Long.MIN_VALUE;
+        int minChunkX = Integer.MAX_VALUE, maxChunkX = Integer.MIN_VALUE;
+        int minChunkZ = Integer.MAX_VALUE, maxChunkZ = Integer.MIN_VALUE;
+
+        Map<String, Integer> players = new LinkedHashMap<>();
+        Map<String, Integer> worlds = new LinkedHashMap<>();
+
+        for (Row row : rows) {
+            minTime = Math.min(minTime, row.time);
+            maxTime = Math.max(maxTime, row.time);
+            minChunkX = Math.min(minChunkX, row.x >> 4);
+            maxChunkX = Math.max(maxChunkX, row.x >> 4);
+            minChunkZ = Math.min(minChunkZ, row.z >> 4);
+            maxChunkZ = Math.max(maxChunkZ, row.z >> 4);
+
+            if (!players.containsKey(row.player)) players.put(row.player, players.size());
+            if (!worlds.containsKey(row.world)) worlds.put(row.world, worlds.size());
+        }
+
+        Column ids = new Column(), times = new Column(), actions = new Column(), playerCol = new Column(), worldCol = new Column();
+        Column xs = new Column(), ys = new Column(), zs = new Column(), data = new Column();
+
+        long lastId = 0, lastTime = minTime;
+        int lastX = 0, lastZ = 0;
+
+        for (Row row : rows) {
+            ids.writeSigned(row.dataId - lastId);
+            times.writeSigned(row.time - lastTime);
+            actions.writeUnsigned(row.action);
+            playerCol.writeUnsigned(players.get(row.player));
+            worldCol.writeUnsigned(worlds.get(row.world));
+            xs.writeSigned(row.x - lastX);
+            ys.writeSigned(row.y);
+            zs.writeSigned(row.z - lastZ);
+
+            if (row.data == null) {
+                data.writeUnsigned(0);
+            } else {
+                byte[] bytes = row.data.getBytes(UTF8);
+                data.writeUnsigned(bytes.length + 1);
+                data.write(bytes, 0, bytes.length);
+            }
+
+            lastId = row.dataId;
+            lastTime = row.time;
+            lastX = row.x;
+            lastZ = row.z;
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(rows.size());
+            out.writeLong(minTime);
+            out.writeLong(maxTime);
+            out.writeInt(minChunkX);
+            out.writeInt(maxChunkX);
+            out.writeInt(minChunkZ);
+            out.writeInt(maxChunkZ);
+
+            writeNames(out, players.keySet());
+            writeNames(out, worlds.keySet());
+
+            for (Column column : new Column[]{ids, times, actions, playerCol, worldCol, xs, ys, zs, data})
+                column.deflateTo(out);
+
+            out.flush();
+            fos.getFD().sync();
+        }
+
+        if (!tmp.renameTo(file))
+            throw new IOException("Unable to rename " + tmp.getName() + " to " + file.getName());
+
+        return new ArchiveSegment(file, rows.size(), minTime, maxTime, minChunkX, maxChunkX, minChunkZ, maxChunkZ, lowerCase(worlds.keySet()));
+    }
+
+    /**
+     * Reads the index of an existing segment
+     */
+    public static ArchiveSegment open(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION)
+                throw new IOException("Not a segment file");
+
+            int rows = in.readInt();
+            long minTime = in.readLong();
+            long maxTime = in.readLong();
+            int minChunkX = in.readInt();
+            int maxChunkX = in.readInt();
+            int minChunkZ = in.readInt();
+            int maxChunkZ = in.readInt();
+
+            readNames(in);
+
+            return new ArchiveSegment(file, rows, minTime, maxTime, minChunkX, maxChunkX, minChunkZ, maxChunkZ, lowerCase(readNames(in)));
+        }
+    }
+
+    /**
+     * Checks the index to see if the segment may hold rows matching a search
+     *
+     * @param from   earliest time wanted, or null
+     * @param to     latest time wanted, or null
+     * @param worlds lower-cased worlds wanted, or null for any
+     * @param minX   lowest block x wanted, or null for anywhere
+     */
+    public boolean overlaps(Long from, Long to, Collection<String> worlds, Integer minX, Integer minZ, Integer maxX, Integer maxZ) {
+        if (from != null && maxTime < from) return false;
+        if (to != null && minTime > to) return false;
+
+        if (worlds != null && Collections.disjoint(this.worlds, worlds)) return false;
+
+        return minX == null || ((minX >> 4) <= maxChunkX && (maxX >> 4) >= minChunkX && (minZ >> 4) <= maxChunkZ && (maxZ >> 4) >= minChunkZ);
+    }
+
+    /**
+     * Inflates every row in the segment
+     */
+    public List<Row> read() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            in.skipBytes(4 + 1 + 4 + 8 + 8 + 4 * 4);
+
+            List<String> players = readNames(in);
+            List<String> worldNames = readNames(in);
+
+            DataInputStream ids = inflate(in), times = inflate(in), actions = inflate(in), playerCol = inflate(in), worldCol = inflate(in);
+            DataInputStream xs = inflate(in), ys = inflate(in), zs = inflate(in), data = inflate(in);
+
+            List<Row> result = new ArrayList<>(rows);
+
+            long id = 0, time = minTime;
+            int x = 0, z = 0;
+
+            for (int i = 0; i < rows; i++) {
+                id += readSigned(ids);
+                time += readSigned(times);
+                x += (int) readSigned(xs);
+                z += (int) readSigned(zs);
+
+                int action = (int) readUnsigned(actions);
+                String player = players.get((int) readUnsigned(playerCol));
+                String world = worldNames.get((int) readUnsigned(worldCol));
+                int y = (int) readSigned(ys);
+
+                String value = null;
+                int length = (int) readUnsigned(data);
+
+                if (length > 0) {
+                    byte[] bytes = new byte[length - 1];
+                    data.readFully(bytes);
+                    value = new String(bytes, UTF8);
+                }
+
+                result.add(new Row(id, time, player, action, world, x, y, z, value));
+            }
+            return result;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public long getMinTime() {
+        return minTime;
+    }
+
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    private static void writeNames(DataOutputStream out, Collection<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String name : names)
+            out.writeUTF(name);
+    }
+
+    private static List<String> readNames(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            names.add(in.readUTF());
+        return names;
+    }
+
+    private static Set<String> lowerCase(Collection<String> names) {
+        Set<String> lower = new HashSet<>();
+        for (String name : names)
+            lower.add(name.toLowerCase());
+        return lower;
+    }
+
+    private static DataInputStream inflate(DataInputStream in) throws IOException {
+        byte[] block = new byte[in.readInt()];
+        in.readFully(block);
+        return new DataInputStream(new BufferedInputStream(new InflaterInputStream(new ByteArrayInputStream(block))));
+    }
+
+    private static long readUnsigned(DataInputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+
+        do {
+            b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+
+    private static long readSigned(DataInputStream in) throws IOException {
+        long value = readUnsigned(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * A column being built up as varints
+     */
+    private static class Column extends ByteArrayOutputStream {
+
+        private void writeUnsigned(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        private void writeSigned(long value) {
+            writeUnsigned((value << 1) ^ (value >> 63));
+        }
+
+        private void deflateTo(DataOutputStream out) throws IOException {
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream(size() / 4 + 64);
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+
+            try (DeflaterOutputStream stream = new DeflaterOutputStream(deflated, deflater)) {
+                writeTo(stream);
+            } finally {
+                deflater.end();
+            }
+
+            out.writeInt(deflated.size());
+            deflated.writeTo(out);
+        }
+    }
+
+    /**
+     * One archived row, with names in place of ids
+     */
+    public static class Row {
+
+        private final long dataId;
+        private final long time;
+        private final String player;
+        private final int action;
+        private final String world;
+        private final int x;
+        private final int y;
+        private final int z;
+        private final String data;
+
+        public Row(long dataId, long time, String player, int action, String world, int x, int y, int z, String data) {
+            this.dataId = dataId;
+            this.time = time;
+            this.player = player;
+            this.action = action;
+            this.world = world;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.data = data;
+        }
+
+        public long getDataId() {
+            return dataId;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public String getPlayer() {
+            return player;
+        }
+
+        public int getAction() {
+            return action;
+        }
+
+        public String getWorld() {
+            return world;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        public int getZ() {
+            return z;
+        }
+
+        public String getData() {
+            return data;
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+package uk.co.oliwali.HawkEye.database;
+
+import uk.co.oliwali.HawkEye.util.Config;
+import uk.co.oliwali.HawkEye.util.Util;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Moves rows older than the archive age out of the hawkeye table into {@link ArchiveSegment}s in the plugin folder.
+ * Each run writes segments of up to {@link Config#ArchiveSegmentRows} rows, oldest first, and deletes the rows once
+ * their segment is safely on disk. {@link SearchQuery} reads the segments back when a search reaches that far
+ */
+public class Archiver implements Runnable {
+
+    private static final List<ArchiveSegment> segments = new CopyOnWriteArrayList<>();
+
+    private final File dir;
+    private volatile boolean running = true;
+
+    /**
+     * Newest segment when the plugin started, its rows may not have been deleted before it stopped
+     */
+    private ArchiveSegment unfinished = null;
+
+    public Archiver(File dir) {
+        this.dir = dir;
+
+        segments.clear();
+
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(ArchiveSegment.SUFFIX);
+            }
+        });
+
+        if (files == null) return;
+
+        Arrays.sort(files);
+
+        for (File file : files) {
+            try {
+                segments.add(ArchiveSegment.open(file));
+            } catch (IOException ex) {
+                Util.warning("Unable to read archive segment " + file.getName() + ": " + ex.getMessage());
+            }
+        }
+
+        if (!segments.isEmpty()) {
+            unfinished = segments.get(segments.size() - 1);
+            Util.info("Loaded " + segments.size() + " archive segment(s)");
+        }
+    }
+
+    /**
+     * Gets every archived segment, oldest first
+     */
+    public static List<ArchiveSegment> getSegments() {
+        return segments;
+    }
+
+    @Override
+    public void run() {
+        long age = Util.parseSeconds(Config.ArchiveAge);
+
+        if (age <= 0) return;
+
+        Timestamp cutoff = new Timestamp(System.currentTimeMillis() - age * 1000);
+
+        try (Connection conn = DataManager.getConnection()) {
+
+            if (unfinished != null) {
+                List<Integer> ids = new ArrayList<>();
+                for (ArchiveSegment.Row row : unfinished.read())
+                    ids.add((int) row.getDataId());
+                DataManager.getBackend().deleteByIds(conn, ids);
+                unfinished = null;
+            }
+
+            int archived = 0;
+
+            while (running) {
+                int rows = archive(conn, cutoff);
+                if (rows == 0) break;
+                archived += rows;
+            }
+
+            if (archived > 0)
+                Util.info("Archived " + archived + " row(s) older than " + cutoff);
+
+        } catch (Exception ex) {
+            Util.warning("Unable to archive old rows: " + ex);
+        }
+    }
+
+    /**
+     * Writes the oldest rows before the cutoff to a segment, then deletes them
+     *
+     * @return number of rows archived
+     */
+    private int archive(Connection conn, Timestamp cutoff) throws SQLException, IOException {
+        List<SearchQuery.DatabaseRow> read = new ArrayList<>();
+
+        try (PreparedStatement stmnt = conn.prepareStatement("SELECT *" + PayloadTable.select() + " FROM `" + Config.DbHawkEyeTable + "` WHERE `timestamp` < ? ORDER BY `timestamp`, `data_id` LIMIT " + Config.ArchiveSegmentRows)) {
+            DataManager.getBackend().setTimestamp(stmnt, 1, cutoff.getTime());
+
+            try (ResultSet res = stmnt.executeQuery()) {
+                while (res.next())
+                    read.add(new SearchQuery.DatabaseRow(res, SearchQuery.readData(res)));
+            }
+        }
+
+        if (read.isEmpty()) return 0;
+
+        //Players that haven't been seen in a while are likely not cached, look them up together
+        SearchQuery.DatabaseRow.preload(read);
+
+        List<ArchiveSegment.Row> rows = new ArrayList<>(read.size());
+        List<Integer> ids = new ArrayList<>(read.size());
+
+        for (SearchQuery.DatabaseRow row : read) {
+            String player = DataManager.getPlayerDb().get(row.playerId);
+            String world = DataManager.getWorldDb().get(row.worldId);
+
+            rows.add(new ArchiveSegment.Row(row.dataId, row.timestamp.getTime(), player == null ? "" : player, row.action,
+                    world == null ? "" : world, row.x, row.y, row.z, row.data));
+            ids.add(row.dataId);
+        }
+
+        ArchiveSegment.Row first = rows.get(0);
+        File file = new File(dir, String.format("%013d-%010d", first.getTime(), first.getDataId()) + ArchiveSegment.SUFFIX);
+
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Unable to create archive directory " + dir);
+
+        segments.add(ArchiveSegment.write(file, rows));
+
+        DataManager.getBackend().deleteByIds(conn, ids);
+
+        return rows.size();
+    }
+
+    /**
+     * Deletes segments that only hold rows older than the cutoff
+     *
+     * @return number of segments deleted
+     */
+    public static int cleanse(java.util.Date cutoff) {
+        int deleted = 0;
+
+        for (ArchiveSegment segment : segments) {
+            if (segment.getMaxTime() >= cutoff.getTime()) continue;
+
+            segments.remove(segment);
+
+            if (segment.getFile().delete())
+                deleted++;
+            else
+                Util.warning("Unable to delete archive segment " + segment.getFile().getName());
+        }
+        return deleted;
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+}
@@ -0,0 +1,78 @@
+package uk.co.oliwali.HawkEye.database;
+
+import uk.co.oliwali.HawkEye.util.Config;
+import uk.co.oliwali.HawkEye.util.Util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the writer should flush and how many rows go in a batch.
+ * A flush happens once enough rows or bytes are waiting, or the oldest entry has waited long enough.
+ * The row target grows while commits stay under the latency target and shrinks when they don't
+ */
+public class BatchTuner {
+
+    private final int minRows;
+    private final int maxRows;
+    private final long maxBytes;
+    private final long maxAgeNanos;
+    private final long targetLatencyNanos;
+
+    private volatile int batchRows;
+
+    public BatchTuner() {
+        this.minRows = Math.max(1, Config.BatchMinRows);
+        this.maxRows = Math.max(minRows, Config.BatchMaxRows);
+        this.maxBytes = Config.BatchMaxBytes;
+        this.maxAgeNanos = TimeUnit.SECONDS.toNanos(Math.max(1, Config.LogDelay));
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(Config.BatchTargetLatency);
+        this.batchRows = minRows;
+    }
+
+    /**
+     * Checks if a flush is due
+     *
+     * @param rows  rows waiting
+     * @param bytes estimated bytes waiting
+     * @param age   nanos the oldest waiting row has been queued for
+     */
+    public boolean shouldFlush(int rows, long bytes, long age) {
+        return rows >= batchRows || bytes >= maxBytes || (rows > 0 && age >= maxAgeNanos);
+    }
+
+    /**
+     * Checks if producers should wake the writer early
+     */
+    public boolean isOverThreshold(int rows, long bytes) {
+        return rows >= batchRows || bytes >= maxBytes;
+    }
+
+    /**
+     * Feeds a finished batch back in to tune the row target
+     *
+     * @param rows    rows in the batch
+     * @param latency nanos it took to write and commit
+     */
+    public void record(int rows, long latency) {
+        int current = batchRows;
+
+        if (latency > targetLatencyNanos) {
+            batchRows = Math.max(minRows, (int) (current * 0.75));
+        } else if (rows >= current && latency < targetLatencyNanos / 2) {
+            //Only grow on full batches, a small batch being fast tells us nothing
+            batchRows = Math.min(maxRows, (int) (current * 1.25) + 1);
+        }
+
+        if (batchRows != current)
+            Util.debug(Util.DebugLevel.HIGH, "Batch size " + current + " -> " + batchRows + " (" + rows + " rows in " + TimeUnit.NANOSECONDS.toMillis(latency) + "ms)");
+    }
+
+    public int getBatchRows() {
+        return batchRows;
+    }
+
+    public long getMaxAgeNanos() {
+        return maxAgeNanos;
+    }
+
+}
@@ -0,0 +1,240 @@
+package uk.co.oliwali.HawkEye.database;
+
+import uk.co.oliwali.HawkEye.util.Config;
+import uk.co.oliwali.HawkEye.util.Util;
+
+import java.io.File;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a chunk key next to every row so area searches can seek straight to the chunks they cover.
+ * The key is the chunk x in the high bits and the chunk z in the low bits, both offset to be positive,
+ * so the chunks of one x column are a single contiguous range of keys.
+ * Tables created before the column existed get it with online DDL, after which existing rows are filled in
+ * a chunk at a time and the index is added. Searches only use the key once all of that is done, which is recorded as
+ * version 2 in {@link SchemaVersion}
+ */
+public class ChunkKeys implements Runnable {
+
+    public static final String COLUMN = "chunk_key";
+    public static final String DEFINITION = "`" + COLUMN + "` BIGINT UNSIGNED DEFAULT NULL";
+
+    public static final String INDEX = "world_chunk_time";
+    public static final String INDEX_DEFINITION = "KEY `" + INDEX + "` (`world_id`,`" + COLUMN + "`,`timestamp`)";
+
+    /**
+     * Chunk coordinates of a 30 million block world fit in 22 bits once offset
+     */
+    static final int BITS = 22;
+    static final long OFFSET = 1L << (BITS - 1);
+
+    /**
+     * Same as {@link #key(int, int)}, for filling in existing rows
+     */
+    static final String EXPRESSION = "((FLOOR(x / 16) + " + OFFSET + ") << " + BITS + ") | (FLOOR(z / 16) + " + OFFSET + ")";
+
+    /**
+     * Most key ranges a search will send, wider areas are covered by merging neighbouring columns
+     */
+    private static final int MAX_RANGES = 32;
+
+    private static final int CHUNK_SIZE = 10000;
+
+    /**
+     * What older versions wrote to their progress file once every row had a key
+     */
+    private static final long DONE = Long.MAX_VALUE;
+
+    private static volatile boolean columnPresent = false;
+    private static volatile boolean searchable = false;
+
+    /**
+     * Where older versions kept their progress
+     */
+    private final File progressFile;
+    private volatile boolean running = true;
+
+    public ChunkKeys(File progressFile) {
+        this.progressFile = progressFile;
+    }
+
+    /**
+     * Gets the key of the chunk holding a block
+     */
+    public static long key(int x, int z) {
+        return chunkKey(x >> 4, z >> 4);
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return ((chunkX + OFFSET) << BITS) | (chunkZ + OFFSET);
+    }
+
+    /**
+     * Checks if new rows should be written with a key. Once the column exists it is always kept up to date
+     */
+    public static boolean isWriting() {
+        return columnPresent;
+    }
+
+    /**
+     * Checks if every row has a key and the index is in place
+     */
+    public static boolean isSearchable() {
+        return searchable;
+    }
+
+    /**
+     * Checks for the column, only looking at the table if its version hasn't been recorded yet
+     */
+    public static void checkColumn(Connection conn) throws SQLException {
+        if (!SchemaVersion.has(COLUMN))
+            SchemaVersion.set(conn, COLUMN, JDBCUtil.columnExists(conn.getMetaData(), Config.DbHawkEyeTable, COLUMN) ? 1 : 0);
+
+        columnPresent = SchemaVersion.get(COLUMN) > 0;
+    }
+
+    /**
+     * Builds the key ranges covering every chunk touched by a block area
+     *
+     * @return pairs of inclusive bounds, as {from, to}
+     */
+    public static List<long[]> ranges(int minX, int minZ, int maxX, int maxZ) {
+        int fromX = minX >> 4, toX = maxX >> 4;
+        int fromZ = minZ >> 4, toZ = maxZ >> 4;
+
+        int columns = toX - fromX + 1;
+        int step = (columns + MAX_RANGES - 1) / MAX_RANGES;
+
+        List<long[]> ranges = new ArrayList<>();
+
+        for (int x = fromX; x <= toX; x += step) {
+            int last = Math.min(toX, x + step - 1);
+            ranges.add(new long[]{chunkKey(x, fromZ), chunkKey(last, toZ)});
+        }
+        return ranges;
+    }
+
+    /**
+     * Builds the SQL condition for {@link #ranges(int, int, int, int)}
+     */
+    public static String condition(int minX, int minZ, int maxX, int maxZ) {
+        List<String> parts = new ArrayList<>();
+
+        for (long[] range : ranges(minX, minZ, maxX, maxZ))
+            parts.add(range[0] == range[1] ? COLUMN + " = " + range[0] : COLUMN + " BETWEEN " + range[0] + " AND " + range[1]);
+
+        return "(" + Util.join(parts, " OR ") + ")";
+    }
+
+    @Override
+    public void run() {
+        //Embedded tables fill in keys and add the index when they are checked
+        if (DataManager.getBackend().isEmbedded()) {
+            searchable = columnPresent;
+            return;
+        }
+
+        if (SchemaVersion.get(COLUMN) >= 2) {
+            searchable = true;
+            return;
+        }
+
+        try (Connection conn = DataManager.getConnection()) {
+
+            if (!columnPresent) {
+                if (!Config.ChunkKeys) return;
+
+                Util.info("Adding column `" + COLUMN + "` to `" + Config.DbHawkEyeTable + "`, this may take a while on large tables...");
+
+                alter(conn, "ADD COLUMN " + DEFINITION);
+                SchemaVersion.set(conn, COLUMN, 1);
+                columnPresent = true;
+
+                //Rows already on their way to the database when the column appeared won't have a key, let them land first
+                Thread.sleep(1000L * (Config.LogDelay + 5));
+            }
+
+            if (!fill(conn)) return;
+
+            if (!hasIndex(conn)) {
+                Util.info("Adding index `" + INDEX + "` to `" + Config.DbHawkEyeTable + "`, this may take a while on large tables...");
+                alter(conn, "ADD " + INDEX_DEFINITION);
+            }
+
+            SchemaVersion.set(conn, COLUMN, 2);
+            searchable = true;
+
+        } catch (SQLException ex) {
+            Util.warning("Unable to set up chunk keys: " + ex);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * Fills in the key of rows that don't have one yet
+     *
+     * @return true once every row has a key
+     */
+    private boolean fill(Connection conn) throws SQLException, InterruptedException {
+        long last = Math.max(SchemaVersion.getProgress(COLUMN), SchemaVersion.importProgress(progressFile));
+
+        if (last == DONE) return true;
+
+        long end;
+
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(data_id) FROM `" + Config.DbHawkEyeTable + "`")) {
+            end = rs.next() ? rs.getLong(1) : 0;
+        }
+
+        if (last < end)
+            Util.info("Filling in chunk keys of `" + Config.DbHawkEyeTable + "`, searches will use them once done");
+
+        try (PreparedStatement update = conn.prepareStatement("UPDATE `" + Config.DbHawkEyeTable + "` SET " + COLUMN + " = " + EXPRESSION +
+                " WHERE data_id > ? AND data_id <= ? AND " + COLUMN + " IS NULL")) {
+
+            while (last < end) {
+                if (!running) return false;
+
+                update.setLong(1, last);
+                update.setLong(2, last + CHUNK_SIZE);
+                update.executeUpdate();
+
+                //Commits the keys and the progress together
+                last += CHUNK_SIZE;
+                SchemaVersion.set(conn, COLUMN, 1, last);
+
+                //Leave the database some room for the writer
+                Thread.sleep(50);
+            }
+        }
+
+        return true;
+    }
+
+    private boolean hasIndex(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SHOW INDEX FROM `" + Config.DbHawkEyeTable + "`")) {
+
+            while (rs.next())
+                if (INDEX.equals(rs.getString("Key_name"))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Runs an ALTER that leaves the table readable and writable while it runs
+     */
+    private void alter(Connection conn, String change) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE `" + Config.DbHawkEyeTable + "` " + change + ", ALGORITHM=INPLACE, LOCK=NONE");
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+}
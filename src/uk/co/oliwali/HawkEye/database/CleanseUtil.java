@@ -7,12 +7,14 @@ import uk.co.oliwali.HawkEye.util.Config;
 import uk.co.oliwali.HawkEye.util.Util;
 
 import java.sql.Connection;
-import java.sql.PreparedStatement;
+import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * DataBase cleansing utility.
@@ -23,7 +25,10 @@ import java.util.List;
 public class CleanseUtil implements Runnable {
 
 	private String date = null;
+	private Date cutoff = null;
+	private long age = 0;
 	private String actions = "";
+	private Set<Integer> actionIds = null;
 
 	/**
 	 * Initiates utility.
@@ -39,30 +44,14 @@ public class CleanseUtil implements Runnable {
 		}
 
 		//Parse cleanse age
+		age = Util.parseSeconds(Config.CleanseAge);
+		if (age <= 0) throw new Exception("Invalid cleanse age: " + Config.CleanseAge);
+
 		ageToDate();
 
 		//Parse interval
-        int temp = 0;
-		String nums = "";
-		for (int i = 0; i < Config.CleansePeriod.length(); i++) {
-			String c = Config.CleansePeriod.substring(i, i+1);
-			if (Util.isInteger(c)) {
-				nums += c;
-				continue;
-			}
-			int num = Integer.parseInt(nums);
-			if (c.equals("w")) temp += 604800*num;
-			else if (c.equals("d")) temp += 86400*num;
-			else if (c.equals("h")) temp += 3600*num;
-			else if (c.equals("m")) temp += 60*num;
-			else if (c.equals("s")) temp += num;
-			else throw new Exception();
-			nums = "";
-		}
-
-		int interval = 1200;
-
-		if (temp > 0) interval = temp;
+		long interval = Util.parseSeconds(Config.CleansePeriod);
+		if (interval <= 0) throw new Exception("Invalid cleanse period: " + Config.CleansePeriod);
 
 		if (!Config.CleanseActions.isEmpty()) {
 			List<Integer> acs = new ArrayList<Integer>();
@@ -70,7 +59,10 @@ public class CleanseUtil implements Runnable {
 				DataType dt = DataType.fromName(st);
 				if (dt != null) acs.add(dt.getId());
 			}
-			if (acs.size() >= 1) actions = " AND action IN (" + Util.join(acs, ",") + ");";
+			if (acs.size() >= 1) {
+				actions = " AND action IN (" + Util.join(acs, ",") + ")";
+				actionIds = new HashSet<Integer>(acs);
+			}
 		}
 
 		//Start timer
@@ -90,14 +82,39 @@ public class CleanseUtil implements Runnable {
 		try (Connection conn = DataManager.getConnection()) {
 			ageToDate();
 
-			try (PreparedStatement stmnt = conn.prepareStatement("DELETE FROM `" + Config.DbHawkEyeTable + "` WHERE `timestamp` < '" + date + "'" + actions)) {
+			PartitionManager partitions = DataManager.getPartitionManager();
+
+			//Whole partitions can only go when every action is being cleansed
+			if (partitions != null && actions.isEmpty()) {
+				int dropped = partitions.dropBefore(conn, cutoff);
 
-				Util.debug("DELETE FROM `" + Config.DbHawkEyeTable + "` WHERE `timestamp` < '" + date + "'");
+				if (dropped > 0)
+					Util.info("Dropped " + dropped + " partition(s) from database");
+			}
 
-				Util.info("Deleted " + stmnt.executeUpdate() + " row(s) from database");
+			//Segments hold every action, so they can't be cleansed of only some
+			if (actions.isEmpty()) {
+				int removed = Archiver.cleanse(cutoff);
 
-				conn.commit();
+				if (removed > 0)
+					Util.info("Deleted " + removed + " archive segment(s)");
 			}
+
+			//Anything left is deleted in chunks, with partitioning this only touches the oldest partition
+			int deleted = DataManager.getBackend().cleanse(conn, new Timestamp(cutoff.getTime()), actions);
+
+			Util.info("Deleted " + deleted + " row(s) from database");
+
+			PayloadTable.sweep(conn);
+
+			if (NativeStore.get() != null) {
+				int removed = NativeStore.get().cleanse(cutoff, actionIds);
+
+				if (removed > 0)
+					Util.info("Deleted " + removed + " entries from native store");
+			}
+
+			SearchCache.clear();
 		} catch (Exception ex) {
 			Util.severe("Unable to execute cleanse utility: " + ex);
 		}
@@ -106,39 +123,11 @@ public class CleanseUtil implements Runnable {
 	/**
 	 * Converts the cleanse age into date string
 	 */
-	private void ageToDate() throws Exception {
-
-		int weeks = 0;
-		int days = 0;
-		int hours = 0;
-		int mins = 0;
-		int secs = 0;
-
-		String nums = "";
-		for (int i = 0; i < Config.CleanseAge.length(); i++) {
-			String c = Config.CleanseAge.substring(i, i+1);
-			if (Util.isInteger(c)) {
-				nums += c;
-				continue;
-			}
-			int num = Integer.parseInt(nums);
-			if (c.equals("w")) weeks = num;
-			else if (c.equals("d")) days = num;
-			else if (c.equals("h")) hours = num;
-			else if (c.equals("m")) mins = num;
-			else if (c.equals("s")) secs = num;
-			else throw new Exception();
-			nums = "";
-		}
+	private void ageToDate() {
 
-		Calendar cal = Calendar.getInstance();
-		cal.add(Calendar.WEEK_OF_YEAR, -1 * weeks);
-		cal.add(Calendar.DAY_OF_MONTH, -1 * days);
-		cal.add(Calendar.HOUR, -1 * hours);
-		cal.add(Calendar.MINUTE, -1 * mins);
-		cal.add(Calendar.SECOND, -1 * secs);
 		SimpleDateFormat form = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-		date = form.format(cal.getTime());
+		cutoff = new Date(System.currentTimeMillis() - age * 1000);
+		date = form.format(cutoff);
 
 	}
 
@@ -0,0 +1,285 @@
+package uk.co.oliwali.HawkEye.database;
+
+import uk.co.oliwali.HawkEye.entry.BlockChangeEntry;
+import uk.co.oliwali.HawkEye.entry.PackedEntry;
+import uk.co.oliwali.HawkEye.util.Config;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Folds repeated environmental changes to the same block into one entry before they reach the queue.
+ * An entry waits in the coalescer for up to the configured window; later events of the same type and actor at that block are folded into it.
+ *
+ * Only changes that follow on from each other are merged, and anything else happening at the block first releases
+ * the waiting entry, so the rows written still roll back to the state before the first change.
+ *
+ * Entries are passed to the {@link Sink} outside the coalescer's lock, as it may wait for room in the queue.
+ * Released entries are lined up and handed on by one thread at a time, so they still reach the queue in order.
+ * Waiting entries aren't journaled yet, so a crash loses up to the window of them
+ */
+public class Coalescer {
+
+    public enum Mode {
+        /**
+         * Drops a change identical to the one waiting at the block
+         */
+        DEDUPE,
+        /**
+         * Block changes are merged into one change from the first state to the last one, other entries keep the first
+         */
+        MERGE
+    }
+
+    /**
+     * Where entries go once the coalescer is done with them
+     */
+    public interface Sink {
+        void accept(PackedEntry entry);
+    }
+
+    private final Sink sink;
+    private final long windowNanos;
+
+    /**
+     * Waiting entries by block, in the order they arrived
+     */
+    private final LinkedHashMap<BlockKey, Pending> pending = new LinkedHashMap<>();
+
+    /**
+     * Released entries waiting to be passed to the sink, in order
+     */
+    private final ArrayDeque<PackedEntry> released = new ArrayDeque<>();
+
+    /**
+     * Set while a thread is passing released entries to the sink
+     */
+    private final AtomicBoolean releasing = new AtomicBoolean();
+
+    private long coalesced = 0;
+
+    public Coalescer(Sink sink) {
+        this.sink = sink;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Config.CoalesceWindow);
+    }
+
+    /**
+     * Adds an entry, passing it on straight away if it isn't coalesced
+     */
+    public void add(PackedEntry entry) {
+        synchronized (this) {
+            coalesce(entry);
+        }
+        release();
+    }
+
+    private void coalesce(PackedEntry entry) {
+        Mode mode = Config.CoalesceRules.get(entry.getType());
+
+        //Nothing waiting at all is the common case for player actions
+        if (mode == null && pending.isEmpty()) {
+            released.add(entry);
+            return;
+        }
+
+        BlockKey key = new BlockKey(entry);
+        Pending waiting = pending.get(key);
+
+        if (waiting != null) {
+            if (mode != null && fold(waiting, entry, mode)) {
+                coalesced++;
+
+                //A change that was undone within the window is no change at all
+                if (waiting.isNoop()) {
+                    pending.remove(key);
+                    coalesced++;
+                }
+                return;
+            }
+
+            pending.remove(key);
+            released.add(waiting.entry);
+        }
+
+        if (mode == null)
+            released.add(entry);
+        else
+            pending.put(key, new Pending(entry));
+    }
+
+    /**
+     * Tries to fold the new entry into the waiting one
+     *
+     * @return false if they can't be folded and the waiting entry has to be released
+     */
+    private boolean fold(Pending waiting, PackedEntry entry, Mode mode) {
+        PackedEntry first = waiting.entry;
+
+        if (first.getType() != entry.getType() || !samePlayer(first, entry))
+            return false;
+
+        //Short payloads share one array, so equal ones are usually the same array
+        if (mode == Mode.DEDUPE)
+            return first.getData() == entry.getData() || Arrays.equals(first.getData(), entry.getData());
+
+        if (first.getType().getEntryClass() == BlockChangeEntry.class && first.getData() != null && entry.getData() != null) {
+            //Block changes are stored as from-to
+            String[] a = first.getSqlData().split("-");
+            String[] b = entry.getSqlData().split("-");
+
+            //Only merge changes that follow on from each other
+            if (a.length != 2 || b.length != 2 || !a[1].equals(b[0]))
+                return false;
+
+            waiting.entry = first.withData(PackedEntry.encode(a[0] + "-" + b[1]));
+            return true;
+        }
+
+        //The first entry holds the state a rollback has to restore
+        return true;
+    }
+
+    /**
+     * Passes on every entry that has waited longer than the window
+     */
+    public void expire() {
+        long cutoff = System.nanoTime() - windowNanos;
+
+        synchronized (this) {
+            Iterator<Pending> iter = pending.values().iterator();
+
+            while (iter.hasNext()) {
+                Pending waiting = iter.next();
+
+                if (waiting.added > cutoff) break;
+
+                iter.remove();
+                released.add(waiting.entry);
+            }
+        }
+        release();
+    }
+
+    /**
+     * Passes on everything still waiting
+     */
+    public void flush() {
+        synchronized (this) {
+            for (Pending waiting : pending.values())
+                released.add(waiting.entry);
+
+            pending.clear();
+        }
+        release();
+    }
+
+    /**
+     * Passes released entries to the sink. If another thread already is, it picks ours up too
+     */
+    private void release() {
+        while (releasing.compareAndSet(false, true)) {
+            try {
+                while (true) {
+                    PackedEntry entry;
+
+                    synchronized (this) {
+                        entry = released.poll();
+                    }
+
+                    if (entry == null) break;
+
+                    sink.accept(entry);
+                }
+            } finally {
+                releasing.set(false);
+            }
+
+            //Entries released after our last poll but before we let go would otherwise wait for the next call
+            synchronized (this) {
+                if (released.isEmpty()) return;
+            }
+        }
+    }
+
+    public synchronized int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * Number of entries folded into another one or dropped
+     */
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    public long getWindowNanos() {
+        return windowNanos;
+    }
+
+    private static boolean samePlayer(PackedEntry a, PackedEntry b) {
+        if (a.getPlayerId() != 0 && b.getPlayerId() != 0)
+            return a.getPlayerId() == b.getPlayerId();
+
+        //One of them was packed before the player had an id
+        return name(a).equals(name(b));
+    }
+
+    private static String name(PackedEntry entry) {
+        String name = entry.getPlayerName() != null ? entry.getPlayerName() : DataManager.getPlayerDb().getCached(entry.getPlayerId());
+        return name == null ? "" : name;
+    }
+
+    private static class Pending {
+
+        private PackedEntry entry;
+        private final long added = System.nanoTime();
+
+        private Pending(PackedEntry entry) {
+            this.entry = entry;
+        }
+
+        private boolean isNoop() {
+            if (entry.getType().getEntryClass() != BlockChangeEntry.class || entry.getData() == null) return false;
+
+            String[] change = entry.getSqlData().split("-");
+            return change.length == 2 && change[0].equals(change[1]);
+        }
+    }
+
+    private static class BlockKey {
+
+        private final String world;
+        private final int x;
+        private final int y;
+        private final int z;
+
+        private BlockKey(PackedEntry entry) {
+            this.world = DataManager.getWorld(entry);
+            this.x = entry.getX();
+            this.y = entry.getY();
+            this.z = entry.getZ();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BlockKey)) return false;
+
+            BlockKey other = (BlockKey) o;
+            return x == other.x && y == other.y && z == other.z && world.equals(other.world);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = world.hashCode();
+            hash = 31 * hash + x;
+            hash = 31 * hash + y;
+            hash = 31 * hash + z;
+            return hash;
+        }
+    }
+
+}
@@ -0,0 +1,310 @@
+package uk.co.oliwali.HawkEye.database;
+
+import uk.co.oliwali.HawkEye.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary encoding of the sql data strings entries produce, stored in the data_bin column.
+ * The first byte says how the rest is encoded; decoding always gives back exactly the string that was encoded,
+ * anything that doesn't fit one of the compact forms is stored as text
+ *
+ * <ul>
+ *     <li>{@link #TEXT}: UTF-8</li>
+ *     <li>{@link #DEFLATED}: varint length followed by deflated UTF-8, used for long values such as item records</li>
+ *     <li>{@link #BLOCK}: varint id and data of an "id:data" block string</li>
+ *     <li>{@link #BLOCK_CHANGE}: two blocks, for "from-to" block changes</li>
+ *     <li>{@link #SIGN}: wall sign flag, facing and the four raw lines instead of base64</li>
+ * </ul>
+ */
+public class DataCodec {
+
+    public static final byte TEXT = 0;
+    public static final byte DEFLATED = 1;
+    public static final byte BLOCK = 2;
+    public static final byte BLOCK_CHANGE = 3;
+    public static final byte SIGN = 4;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Below this many bytes deflate doesn't pay for itself
+     */
+    private static final int DEFLATE_THRESHOLD = 96;
+
+    public static byte[] encode(String data) {
+        if (data == null) return null;
+
+        byte[] encoded = encodeBlockChange(data);
+
+        if (encoded == null) encoded = encodeBlock(data);
+        if (encoded == null) encoded = encodeSign(data);
+        if (encoded == null) encoded = encodeText(data);
+
+        return encoded;
+    }
+
+    public static String decode(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) return null;
+
+        Reader in = new Reader(bytes);
+
+        switch (in.readByte()) {
+            case BLOCK:
+                return in.readBlock();
+            case BLOCK_CHANGE:
+                return in.readBlock() + "-" + in.readBlock();
+            case SIGN:
+                return in.readSign();
+            case DEFLATED:
+                return in.readDeflated();
+            default:
+                return new String(bytes, 1, bytes.length - 1, UTF8);
+        }
+    }
+
+    private static byte[] encodeText(String data) {
+        byte[] utf = data.getBytes(UTF8);
+
+        if (utf.length >= DEFLATE_THRESHOLD) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            deflater.setInput(utf);
+            deflater.finish();
+
+            byte[] buffer = new byte[utf.length];
+            int length = deflater.deflate(buffer);
+            boolean done = deflater.finished();
+            deflater.end();
+
+            if (done && length + 6 < utf.length) {
+                Writer out = new Writer(length + 6);
+                out.writeByte(DEFLATED);
+                out.writeVarInt(utf.length);
+                out.write(buffer, 0, length);
+                return out.toByteArray();
+            }
+        }
+
+        byte[] text = new byte[utf.length + 1];
+        text[0] = TEXT;
+        System.arraycopy(utf, 0, text, 1, utf.length);
+        return text;
+    }
+
+    private static byte[] encodeBlock(String data) {
+        long block = parseBlock(data);
+
+        if (block < 0) return null;
+
+        Writer out = new Writer(6);
+        out.writeByte(BLOCK);
+        out.writeBlock(block);
+        return out.toByteArray();
+    }
+
+    private static byte[] encodeBlockChange(String data) {
+        int split = data.indexOf('-');
+
+        if (split < 0) return null;
+
+        long from = parseBlock(data.substring(0, split));
+        long to = parseBlock(data.substring(split + 1));
+
+        if (from < 0 || to < 0) return null;
+
+        Writer out = new Writer(11);
+        out.writeByte(BLOCK_CHANGE);
+        out.writeBlock(from);
+        out.writeBlock(to);
+        return out.toByteArray();
+    }
+
+    /**
+     * Sign data is "wallsign@FACING@line,line,line,line" with base64 lines
+     */
+    private static byte[] encodeSign(String data) {
+        String[] parts = data.split("@", -1);
+
+        if (parts.length != 3 || !(parts[0].equals("true") || parts[0].equals("false"))) return null;
+
+        String[] lines = parts[2].split(",", -1);
+
+        if (lines.length != 4) return null;
+
+        Writer out = new Writer(data.length());
+        out.writeByte(SIGN);
+        out.writeByte(parts[0].equals("true") ? 1 : 0);
+        out.writeString(parts[1]);
+
+        for (String line : lines) {
+            byte[] raw;
+
+            try {
+                raw = line.isEmpty() ? new byte[0] : Base64.decode(line);
+            } catch (Exception ex) {
+                return null;
+            }
+
+            out.writeVarInt(raw.length);
+            out.write(raw, 0, raw.length);
+        }
+
+        byte[] encoded = out.toByteArray();
+
+        //Only use it if it comes back exactly the same
+        return data.equals(decode(encoded)) ? encoded : null;
+    }
+
+    /**
+     * Checks if data is a block or block change string, which only come in a few thousand distinct values
+     */
+    public static boolean isBlock(String data) {
+        if (data == null) return false;
+
+        int split = data.indexOf('-');
+
+        if (split < 0) return parseBlock(data) >= 0;
+
+        return parseBlock(data.substring(0, split)) >= 0 && parseBlock(data.substring(split + 1)) >= 0;
+    }
+
+    /**
+     * Parses a canonical "id" or "id:data" string
+     *
+     * @return id and data packed in a long, or -1 if it isn't a block string this codec can give back unchanged
+     */
+    private static long parseBlock(String block) {
+        int colon = block.indexOf(':');
+
+        int id = parseNumber(colon < 0 ? block : block.substring(0, colon));
+        int data = colon < 0 ? 0 : parseNumber(block.substring(colon + 1));
+
+        //"1:0" wouldn't come back the same
+        if (id < 0 || data < 0 || (colon >= 0 && data == 0)) return -1;
+
+        return ((long) id << 32) | data;
+    }
+
+    private static int parseNumber(String number) {
+        if (number.isEmpty() || number.length() > 9 || (number.length() > 1 && number.charAt(0) == '0')) return -1;
+
+        int value = 0;
+
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+
+            if (c < '0' || c > '9') return -1;
+
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static class Writer extends ByteArrayOutputStream {
+
+        private Writer(int size) {
+            super(size);
+        }
+
+        private void writeByte(int b) {
+            write(b);
+        }
+
+        private void writeVarInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        private void writeBlock(long block) {
+            writeVarInt((int) (block >>> 32));
+            writeVarInt((int) block);
+        }
+
+        private void writeString(String str) {
+            byte[] utf = str.getBytes(UTF8);
+            writeVarInt(utf.length);
+            write(utf, 0, utf.length);
+        }
+    }
+
+    private static class Reader {
+
+        private final byte[] bytes;
+        private int pos = 0;
+
+        private Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private byte readByte() {
+            return bytes[pos++];
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+
+            do {
+                b = bytes[pos++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            return value;
+        }
+
+        private String readBlock() {
+            int id = readVarInt();
+            int data = readVarInt();
+            return data > 0 ? id + ":" + data : Integer.toString(id);
+        }
+
+        private byte[] readBytes() {
+            int length = readVarInt();
+            byte[] raw = Arrays.copyOfRange(bytes, pos, pos + length);
+            pos += length;
+            return raw;
+        }
+
+        private String readSign() {
+            StringBuilder sb = new StringBuilder();
+
+            sb.append(readByte() == 1 ? "true" : "false").append('@');
+            sb.append(new String(readBytes(), UTF8)).append('@');
+
+            for (int i = 0; i < 4; i++) {
+                byte[] raw = readBytes();
+
+                if (i > 0) sb.append(',');
+                if (raw.length > 0) sb.append(Base64.encode(raw));
+            }
+            return sb.toString();
+        }
+
+        private String readDeflated() {
+            byte[] utf = new byte[readVarInt()];
+
+            Inflater inflater = new Inflater();
+            inflater.setInput(bytes, pos, bytes.length - pos);
+
+            try {
+                inflater.inflate(utf);
+            } catch (DataFormatException ex) {
+                throw new IllegalArgumentException("Corrupt data payload", ex);
+            } finally {
+                inflater.end();
+            }
+            return new String(utf, UTF8);
+        }
+    }
+
+}
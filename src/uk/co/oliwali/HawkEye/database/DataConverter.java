@@ -0,0 +1,131 @@
+package uk.co.oliwali.HawkEye.database;
+
+import uk.co.oliwali.HawkEye.util.Config;
+import uk.co.oliwali.HawkEye.util.Util;
+
+import java.io.File;
+import java.sql.*;
+
+/**
+ * Moves the data column over to the binary data_bin column in the background.
+ * The column is added with online DDL, then existing rows are re-encoded with the {@link DataCodec} a chunk at a time.
+ * Progress is kept in {@link SchemaVersion} so a restart picks up where it left off
+ */
+public class DataConverter implements Runnable {
+
+    public static final String COLUMN = "data_bin";
+    public static final String DEFINITION = "`" + COLUMN + "` VARBINARY(1500) DEFAULT NULL";
+
+    private static final int CHUNK_SIZE = 5000;
+
+    private static volatile boolean columnPresent = false;
+
+    /**
+     * Where older versions kept their progress
+     */
+    private final File progressFile;
+    private volatile boolean running = true;
+
+    public DataConverter(File progressFile) {
+        this.progressFile = progressFile;
+    }
+
+    /**
+     * Checks if the hawkeye table has the binary column, which may hold data even if binary data has been turned off since
+     */
+    public static boolean isColumnPresent() {
+        return columnPresent;
+    }
+
+    /**
+     * Checks if new rows should be written to the binary column
+     */
+    public static boolean isWriting() {
+        return columnPresent && Config.BinaryData;
+    }
+
+    /**
+     * Checks for the column, only looking at the table if its version hasn't been recorded yet
+     */
+    public static void checkColumn(Connection conn) throws SQLException {
+        if (!SchemaVersion.has(COLUMN))
+            SchemaVersion.set(conn, COLUMN, JDBCUtil.columnExists(conn.getMetaData(), Config.DbHawkEyeTable, COLUMN) ? 1 : 0);
+
+        columnPresent = SchemaVersion.get(COLUMN) > 0;
+    }
+
+    @Override
+    public void run() {
+        //Embedded tables add the column when they are checked, old rows keep their text data
+        if (!Config.BinaryData || DataManager.getBackend().isEmbedded()) return;
+
+        try (Connection conn = DataManager.getConnection()) {
+
+            if (!columnPresent) {
+                Util.info("Adding column `" + COLUMN + "` to `" + Config.DbHawkEyeTable + "`, this may take a while on large tables...");
+
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("ALTER TABLE `" + Config.DbHawkEyeTable + "` ADD COLUMN " + DEFINITION + ", ALGORITHM=INPLACE, LOCK=NONE");
+                }
+
+                SchemaVersion.set(conn, COLUMN, 1);
+                columnPresent = true;
+            }
+
+            convert(conn);
+
+        } catch (SQLException ex) {
+            Util.warning("Unable to convert data to binary: " + ex);
+        }
+    }
+
+    private void convert(Connection conn) throws SQLException {
+        long last = Math.max(SchemaVersion.getProgress(COLUMN), SchemaVersion.importProgress(progressFile));
+        long converted = 0;
+
+        try (PreparedStatement select = conn.prepareStatement("SELECT data_id, data FROM `" + Config.DbHawkEyeTable + "` WHERE data_id > ? AND data IS NOT NULL ORDER BY data_id LIMIT " + CHUNK_SIZE);
+             PreparedStatement update = conn.prepareStatement("UPDATE `" + Config.DbHawkEyeTable + "` SET " + COLUMN + " = ?, data = NULL WHERE data_id = ?")) {
+
+            while (running) {
+                select.setLong(1, last);
+
+                int rows = 0;
+
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        last = rs.getLong(1);
+
+                        update.setBytes(1, DataCodec.encode(rs.getString(2)));
+                        update.setLong(2, last);
+                        update.addBatch();
+                        rows++;
+                    }
+                }
+
+                if (rows == 0) {
+                    if (converted > 0)
+                        Util.info("Finished converting data to binary, " + converted + " rows converted");
+                    return;
+                }
+
+                update.executeBatch();
+
+                //Commits the rows and the progress together
+                SchemaVersion.set(conn, COLUMN, 1, last);
+                converted += rows;
+
+                //Leave the database some room for the writer
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+}
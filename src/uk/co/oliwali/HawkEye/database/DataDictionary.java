@@ -0,0 +1,127 @@
+package uk.co.oliwali.HawkEye.database;
+
+import uk.co.oliwali.HawkEye.util.Config;
+import uk.co.oliwali.HawkEye.util.Util;
+
+import java.sql.*;
+
+/**
+ * Stores block payloads once in the data table, rows referring to them by id in the payload_id column.
+ * Block and block change strings only come in a few thousand distinct values, so the whole dictionary is kept
+ * in memory both ways like the player and world lists. The writer interns values and searches resolve them to the
+ * cached string. Anything else, or anything new once the dictionary is full, is stored inline as before.
+ * Tables created before the column existed get it with online DDL, old rows keep their inline data
+ */
+public class DataDictionary implements Runnable {
+
+    public static final String COLUMN = "payload_id";
+    public static final String DEFINITION = "`" + COLUMN + "` INT UNSIGNED DEFAULT NULL";
+
+    /**
+     * {@link SchemaVersion} part of the data table
+     */
+    public static final String TABLE_PART = "data_table";
+
+    private static final IdMapCache cache = new IdMapCache();
+
+    private static volatile boolean columnPresent = false;
+
+    public static IdMapCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Checks if the hawkeye table has the payload column, which may hold ids even if the dictionary has been turned off since
+     */
+    public static boolean isColumnPresent() {
+        return columnPresent;
+    }
+
+    /**
+     * Checks if new rows should refer to the dictionary
+     */
+    public static boolean isWriting() {
+        return columnPresent && Config.DataDictionary;
+    }
+
+    /**
+     * Checks for the column, only looking at the table if its version hasn't been recorded yet
+     */
+    public static void checkColumn(Connection conn) throws SQLException {
+        if (!SchemaVersion.has(COLUMN))
+            SchemaVersion.set(conn, COLUMN, JDBCUtil.columnExists(conn.getMetaData(), Config.DbHawkEyeTable, COLUMN) ? 1 : 0);
+
+        columnPresent = SchemaVersion.get(COLUMN) > 0;
+    }
+
+    /**
+     * Checks if a payload should be added to the dictionary
+     */
+    public static boolean shouldIntern(String data) {
+        return isWriting() && cache.size() < Config.DictionaryMaxPayloads && !cache.containsKey(data) && DataCodec.isBlock(data);
+    }
+
+    /**
+     * Gets the id of a payload, or null if it isn't in the dictionary
+     */
+    public static Integer ref(String data) {
+        return data == null || !isWriting() ? null : cache.get(data);
+    }
+
+    /**
+     * Gets the payload an id refers to, reading it from the table if another server added it
+     */
+    public static String get(int ref) {
+        String data = cache.get(ref);
+
+        if (data != null) return data;
+
+        try (Connection conn = DataManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT `payload` FROM `" + Config.DbDataTable + "` WHERE `" + COLUMN + "` = ?")) {
+
+            stmt.setInt(1, ref);
+
+            try (ResultSet res = stmt.executeQuery()) {
+                if (!res.next()) return null;
+
+                data = res.getString(1);
+                cache.put(ref, data);
+                return data;
+            }
+        } catch (SQLException ex) {
+            Util.warning("Unable to load payload from database: " + ex);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the whole dictionary into memory
+     */
+    public static void load(Statement stmnt) throws SQLException {
+        try (ResultSet res = stmnt.executeQuery("SELECT `" + COLUMN + "`, `payload` FROM `" + Config.DbDataTable + "`")) {
+            while (res.next())
+                cache.put(res.getInt(1), res.getString(2));
+        }
+    }
+
+    @Override
+    public void run() {
+        //Embedded tables add the column when they are checked
+        if (!Config.DataDictionary || columnPresent || DataManager.getBackend().isEmbedded()) return;
+
+        try (Connection conn = DataManager.getConnection()) {
+            Util.info("Adding column `" + COLUMN + "` to `" + Config.DbHawkEyeTable + "`, this may take a while on large tables...");
+
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("ALTER TABLE `" + Config.DbHawkEyeTable + "` ADD COLUMN " + DEFINITION + ", ALGORITHM=INPLACE, LOCK=NONE");
+            }
+
+            SchemaVersion.set(conn, COLUMN, 1);
+            columnPresent = true;
+
+        } catch (SQLException ex) {
+            Util.warning("Unable to add payload column: " + ex);
+        }
+    }
+
+}
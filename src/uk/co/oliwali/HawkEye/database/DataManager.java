@@ -1,13 +1,24 @@
 package uk.co.oliwali.HawkEye.database;
 
 import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.block.Block;
+import uk.co.oliwali.HawkEye.DataType;
 import uk.co.oliwali.HawkEye.HawkEye;
 import uk.co.oliwali.HawkEye.entry.DataEntry;
+import uk.co.oliwali.HawkEye.entry.PackedEntry;
 import uk.co.oliwali.HawkEye.util.Config;
+import uk.co.oliwali.HawkEye.util.Metrics;
 import uk.co.oliwali.HawkEye.util.Util;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.*;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Handler for everything to do with the database.
@@ -18,15 +29,67 @@ import java.util.concurrent.LinkedBlockingQueue;
 
 public class DataManager implements Runnable, AutoCloseable {
 
-    private static final LinkedBlockingQueue<DataEntry> queue = new LinkedBlockingQueue<>();
-    private static ConnectionManager connectionManager;
+    private static IngestQueue queue;
+    private static StorageBackend backend;
 
-    private static final IdMapCache playerDb = new IdMapCache();
+    private static IdMapCache playerDb = new IdMapCache();
     private static final IdMapCache worldDb = new IdMapCache();
 
+    /**
+     * Most names sent to the database in one statement when adding players or worlds
+     */
+    private static final int KEY_CHUNK = 500;
+
     private static DeleteManager deleteManager = new DeleteManager();
 
-    private boolean threadbusy = false;
+    private static SearchExecutor searchExecutor;
+
+    private InsertWriter writer;
+
+    private final AtomicBoolean threadbusy = new AtomicBoolean();
+
+    private static BatchTuner tuner;
+
+    private static Thread flusher;
+    private volatile boolean running = false;
+
+    /**
+     * Estimated bytes and enqueue time of the oldest entry waiting, used to decide when to flush
+     */
+    private static final AtomicLong pendingBytes = new AtomicLong();
+    private static final AtomicLong oldestPending = new AtomicLong();
+
+    private static Coalescer coalescer = null;
+
+    private DataConverter converter = null;
+    private ChunkKeys chunkKeys = null;
+    private TableMigration migration = null;
+    private Archiver archiver = null;
+    private NativeStore nativeStore = null;
+
+    private static Journal journal = null;
+    private static final Object journalLock = new Object();
+
+    /**
+     * Entries whose insert failed, retried before anything new is taken from the queue
+     */
+    private List<PackedEntry> retryBatch = null;
+    private int retries = 0;
+
+    /**
+     * Entries taken from the queue that haven't been committed yet, the journal checkpoint is moved past them once they are
+     */
+    private long uncommitted = 0;
+
+    /**
+     * Entries recovered from the journal, written ahead of the queue so its capacity doesn't apply to them
+     */
+    private List<PackedEntry> recovered = null;
+
+    /**
+     * Journal sequence the checkpoint moves to once every recovered entry has been written, or -1
+     */
+    private long recoveredUntil = -1;
 
     /**
      * Initiates database connection pool, checks tables, starts cleansing utility
@@ -37,10 +100,37 @@ public class DataManager implements Runnable, AutoCloseable {
      */
     public DataManager(HawkEye instance) throws Exception {
 
-        connectionManager = new ConnectionManager();
+        queue = new IngestQueue(Config.QueueCapacity, Config.QueueOverflowPolicy, new File(instance.getDataFolder(), "overflow.dat"));
+
+        tuner = new BatchTuner();
+
+        if (Config.JournalEnabled)
+            openJournal(new File(instance.getDataFolder(), "journal"));
+
+        if (!Config.CoalesceRules.isEmpty()) {
+            coalescer = new Coalescer(new Coalescer.Sink() {
+                @Override
+                public void accept(PackedEntry entry) {
+                    enqueue(entry);
+                }
+            });
+        }
+
+        if (Config.Storage.equals("sqlite"))
+            backend = new SqliteBackend(new File(instance.getDataFolder(), Config.StorageFile));
+        else
+            backend = new MySqlBackend();
+
+        //SQLite only has one writer at a time, more threads would just wait on its lock
+        int writers = backend.isEmbedded() ? 1 : Math.min(Config.WriterThreads, Config.PoolSize - 1);
+        writer = new InsertWriter(writers);
+
+        //Searches share what the writers leave of the pool, keeping one back for the flusher and background tasks
+        searchExecutor = new SearchExecutor(backend.isEmbedded() ? Math.min(Config.SearchThreads, 2) :
+                Math.max(1, Math.min(Config.SearchThreads, Config.PoolSize - writers - 1)));
 
         //Check tables and update player/world lists
-        if (!checkTables())
+        if (!backend.checkTables())
             throw new Exception();
 
         if (!updateDbLists())
@@ -48,6 +138,41 @@ public class DataManager implements Runnable, AutoCloseable {
 
         Bukkit.getScheduler().runTaskTimerAsynchronously(instance, deleteManager, 20 * 15, 20 * 5);
 
+        migration = new TableMigration();
+        Bukkit.getScheduler().runTaskAsynchronously(instance, migration);
+
+        Bukkit.getScheduler().runTaskAsynchronously(instance, new IndexManager());
+
+        Bukkit.getScheduler().runTaskAsynchronously(instance, new DataDictionary());
+
+        converter = new DataConverter(new File(instance.getDataFolder(), "convert.dat"));
+        Bukkit.getScheduler().runTaskAsynchronously(instance, converter);
+
+        chunkKeys = new ChunkKeys(new File(instance.getDataFolder(), "chunkkeys.dat"));
+        Bukkit.getScheduler().runTaskAsynchronously(instance, chunkKeys);
+
+        if (backend.getPartitionManager() != null)
+            Bukkit.getScheduler().runTaskTimerAsynchronously(instance, backend.getPartitionManager(), 20 * 60 * 60, 20 * 60 * 60);
+
+        //Segments are loaded even with archiving turned off, so what was archived stays searchable
+        archiver = new Archiver(new File(instance.getDataFolder(), "archive"));
+
+        if (Config.ArchiveEnabled) {
+            long period = Math.max(60, Util.parseSeconds(Config.ArchivePeriod));
+            Bukkit.getScheduler().runTaskTimerAsynchronously(instance, archiver, 20 * 60, period * 20);
+        }
+
+        nativeStore = new NativeStore(new File(instance.getDataFolder(), "native"));
+
+        if (Config.NativeEnabled) {
+            long period = Math.max(60, Util.parseSeconds(Config.NativeCompactPeriod));
+            Bukkit.getScheduler().runTaskTimerAsynchronously(instance, nativeStore, period * 20, period * 20);
+        }
+
+        Metrics metrics = new Metrics();
+        metrics.register();
+        Bukkit.getScheduler().runTaskTimerAsynchronously(instance, metrics, 20 * 5, 20 * 5);
+
         //Start cleansing utility
         try {
             new CleanseUtil(instance);
@@ -61,26 +186,103 @@ public class DataManager implements Runnable, AutoCloseable {
         return deleteManager;
     }
 
+    public static SearchExecutor getSearchExecutor() {
+        return searchExecutor;
+    }
+
     /**
      * Returns current queue
      */
-    public static LinkedBlockingQueue<DataEntry> getQueue() {
+    public static IngestQueue getQueue() {
         return queue;
     }
 
     /**
-     * Closes down all connections
+     * Writes out whatever is left in the queue, then closes down the writers and all connections
      */
     public void close() throws Exception {
-        if (connectionManager != null) {
+        if (searchExecutor != null)
+            searchExecutor.close();
+
+        if (backend != null) {
+
+            if (migration != null)
+                migration.stop();
+
+            if (converter != null)
+                converter.stop();
+
+            if (chunkKeys != null)
+                chunkKeys.stop();
 
-            while (!queue.isEmpty()) {
-                threadbusy = false;
-                run();
+            if (archiver != null)
+                archiver.stop();
+
+            if (nativeStore != null)
+                nativeStore.stop();
+
+            //Stop the writer thread, letting a flush that is already running finish first
+            running = false;
+
+            if (flusher != null) {
+                LockSupport.unpark(flusher);
+                flusher.join();
             }
 
-            connectionManager.close();
+            if (coalescer != null)
+                coalescer.flush();
+
+            //Anything that still can't be written stays in the journal for next time
+            while ((!queue.isEmpty() || retryBatch != null || recovered != null) && flush(Integer.MAX_VALUE)) ;
+
+            writer.close();
+
+            if (nativeStore != null)
+                nativeStore.close();
+
+            backend.close();
         }
+
+        if (queue != null)
+            queue.close();
+
+        if (journal != null)
+            journal.close();
+
+        Metrics.unregister();
+    }
+
+    /**
+     * Opens the journal and picks up anything a previous session didn't get to commit.
+     * Those entries stay in their old segments until the flusher has written them, ahead of anything queued since
+     */
+    private void openJournal(File dir) throws Exception {
+        journal = new Journal(dir, Config.JournalSegmentSize, Config.JournalSyncInterval);
+
+        List<PackedEntry> entries = journal.recover();
+
+        //Spilled entries from a journaled session are in the journal as well
+        List<PackedEntry> spilled = new ArrayList<>();
+        PackedEntry entry;
+
+        while ((entry = queue.poll()) != null)
+            spilled.add(entry);
+
+        if (entries.isEmpty()) {
+            for (PackedEntry spill : spilled)
+                journal.append(spill);
+
+            entries = spilled;
+        }
+
+        journal.start();
+
+        if (entries.isEmpty()) return;
+
+        recovered = new ArrayList<>(entries);
+        recoveredUntil = journal.getNextSeq();
+
+        Util.info("Recovered " + entries.size() + " uncommitted entries from the journal");
     }
 
     /**
@@ -92,11 +294,135 @@ public class DataManager implements Runnable, AutoCloseable {
      */
     public static void addEntry(DataEntry entry) {
 
-        if (!entry.getType().isLogged()) return;
+        if (!entry.getType().isLogged() || Config.IgnoreWorlds.contains(entry.getWorld())) {
+            Metrics.eventsFiltered.incrementAndGet();
+            return;
+        }
+
+        add(pack(entry));
+    }
+
+    /**
+     * Adds an entry straight from an event's values, without building a {@link DataEntry} first.
+     * Used by the listeners for the most frequent events
+     *
+     * @param data sql data of the entry, as {@link DataEntry#getSqlData()} would give it
+     */
+    public static void addEntry(String player, DataType type, Location loc, String data) {
+        addEntry(player, type, loc.getWorld().getName(), loc.getBlockX(), loc.getBlockY(), loc.getBlockZ(), data);
+    }
+
+    /**
+     * See {@link #addEntry(String, DataType, Location, String)}
+     */
+    public static void addEntry(String player, DataType type, Block block, String data) {
+        addEntry(player, type, block.getWorld().getName(), block.getX(), block.getY(), block.getZ(), data);
+    }
+
+    private static void addEntry(String player, DataType type, String world, int x, int y, int z, String data) {
+
+        if (!type.isLogged() || Config.IgnoreWorlds.contains(world)) {
+            Metrics.eventsFiltered.incrementAndGet();
+            return;
+        }
+
+        add(pack(System.currentTimeMillis(), player, world, x, y, z, type, 0, data));
+    }
+
+    private static void add(PackedEntry entry) {
+        if (coalescer != null)
+            coalescer.add(entry);
+        else
+            enqueue(entry);
+    }
+
+    /**
+     * Puts entries back in the queue without checking filters, used to restore entries deleted by a rollback
+     */
+    public static void requeue(Collection<DataEntry> entries) {
+        for (DataEntry entry : entries)
+            enqueue(pack(entry));
+    }
+
+    private static PackedEntry pack(DataEntry entry) {
+        return pack(entry.getTimestamp().getTime(), entry.getPlayer(), entry.getWorld(), (int) entry.getX(), (int) entry.getY(), (int) entry.getZ(),
+                entry.getType(), entry.getDataId(), entry.getSqlData());
+    }
+
+    /**
+     * Packs an entry, storing the player and world as their ids when the caches already know them.
+     * This runs on the server thread, so names that aren't cached are left for the writer to look up
+     */
+    private static PackedEntry pack(long time, String player, String world, int x, int y, int z, DataType type, int dataId, String data) {
+        Integer playerId = playerDb.getCached(player);
+        Integer worldId = worldDb.getCached(world);
+
+        return new PackedEntry(time, playerId == null ? 0 : playerId, player, worldId == null ? 0 : worldId, world, x, y, z, type, dataId, PackedEntry.encode(data));
+    }
+
+    /**
+     * Gets the name of the world an entry was logged in
+     */
+    public static String getWorld(PackedEntry entry) {
+        return entry.getWorldName() != null ? entry.getWorldName() : worldDb.get(entry.getWorldId());
+    }
+
+    /**
+     * Offers an entry to the queue and journals it.
+     * Both happen under one lock so the journal holds entries in the same order the writer takes them.
+     * Waiting for room under the BLOCK policy happens outside the lock, so other producers aren't held up behind it
+     */
+    private static void enqueue(PackedEntry entry) {
+        if (journal == null) {
+            if (!queue.offer(entry)) return;
+        } else {
+            long deadline = 0;
+
+            while (true) {
+                synchronized (journalLock) {
+                    if (journal == null) {
+                        if (!queue.offer(entry)) return;
+                        break;
+                    }
+
+                    if (queue.offer(entry, false)) {
+                        try {
+                            journal.append(entry);
+                        } catch (IOException ex) {
+                            Util.severe("Unable to write to the journal, disabling it: " + ex);
+                            closeJournal();
+                        }
+                        break;
+                    }
+                }
+
+                //Dropped by the policy, or full under the BLOCK policy and out of time to wait
+                if (queue.getPolicy() != IngestQueue.OverflowPolicy.BLOCK) return;
+                if (deadline == 0) deadline = queue.startBlock();
+                if (!queue.awaitRoom(deadline)) return;
+            }
+        }
+
+        Metrics.eventsQueued.incrementAndGet();
+
+        oldestPending.compareAndSet(0, System.nanoTime());
+
+        long bytes = pendingBytes.addAndGet(estimateSize(entry));
+
+        //Wake the writer as soon as a full batch is waiting instead of leaving it until the next timeout
+        if (flusher != null && tuner.isOverThreshold(queue.size(), bytes))
+            LockSupport.unpark(flusher);
+    }
 
-        if (Config.IgnoreWorlds.contains(entry.getWorld())) return;
+    private static void closeJournal() {
+        Journal old = journal;
+        journal = null;
 
-        queue.add(entry);
+        try {
+            old.close();
+        } catch (Exception ex) {
+            Util.warning("Unable to close journal: " + ex.getMessage());
+        }
     }
 
     /**
@@ -119,38 +445,69 @@ public class DataManager implements Runnable, AutoCloseable {
      * @return {JDCConnection}
      */
     public static Connection getConnection() throws SQLException {
-        return connectionManager.getConnection();
+        return backend.getConnection();
+    }
+
+    /**
+     * Returns the database engine in use
+     */
+    public static StorageBackend getBackend() {
+        return backend;
     }
 
 
     /**
-     * Adds an identifier to the database and updates the provided map
+     * Adds any names the cache doesn't know about to the database and reads their ids back.
+     * All of the names go in one multi-row upsert followed by one select, in chunks of {@link #KEY_CHUNK}
      */
-    private boolean addKey(String table, String column, IdMapCache cache, String value) {
-        Util.debug("Attempting to add " + column + " '" + value + "' to database");
+    private void addKeys(String table, String column, IdMapCache cache, Set<String> values) throws SQLException {
+        if (values.isEmpty()) return;
 
-        String sql = "INSERT INTO `" + table + "` (" + column + ") VALUES (?) ON DUPLICATE KEY UPDATE " + column + "=VALUES(" + column + ");";
+        Util.debug("Attempting to add " + values.size() + " " + column + "(s) to database");
 
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        List<String> names = new ArrayList<>(values);
+
+        try (Connection conn = getConnection()) {
+            for (int from = 0; from < names.size(); from += KEY_CHUNK) {
+                List<String> chunk = names.subList(from, Math.min(names.size(), from + KEY_CHUNK));
+                String params = placeholders(chunk.size());
 
-            stmt.setString(1, value);
+                backend.insertKeys(conn, table, column, chunk);
+                conn.commit();
 
-            stmt.executeUpdate();
+                //The column collation may be case insensitive, so match the names we asked for the same way
+                Map<String, Integer> ids = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
 
-            conn.commit();
+                try (PreparedStatement stmt = conn.prepareStatement("SELECT " + column + "_id, " + column + " FROM `" + table + "` WHERE " + column + " IN " + params + ";")) {
+                    for (int i = 0; i < chunk.size(); i++)
+                        stmt.setString(i + 1, chunk.get(i));
 
-            try (ResultSet rs = stmt.getGeneratedKeys()) {
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next())
+                            ids.put(rs.getString(2), rs.getInt(1));
+                    }
+                }
 
-                if (rs.next())
-                    cache.put(rs.getInt(1), value);
+                for (String name : chunk) {
+                    Integer id = ids.get(name);
 
+                    if (id != null)
+                        cache.put(id, name);
+                }
             }
-        } catch (SQLException ex) {
-            Util.severe("Unable to add " + column + " to database: " + ex);
-            return false;
         }
-        return true;
+    }
+
+    /**
+     * Builds a parameter list of the form (?,?,?)
+     */
+    static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder(count * 2 + 1).append('(');
+
+        for (int i = 0; i < count; i++)
+            sb.append(i == 0 ? "?" : ",?");
+
+        return sb.append(')').toString();
     }
 
     /**
@@ -162,9 +519,18 @@ public class DataManager implements Runnable, AutoCloseable {
         try (Connection conn = getConnection();
              Statement stmnt = conn.createStatement()) {
 
-            try (ResultSet res = stmnt.executeQuery("SELECT * FROM `" + Config.DbPlayerTable + "`;")) {
-                while (res.next())
-                    playerDb.put(res.getInt("player_id"), res.getString("player"));
+            //Lazy mode only warms up recently active players, the rest are loaded as they are needed
+            if (Config.LazyPlayerDictionary) {
+                LazyIdMapCache cache = new LazyIdMapCache(Config.DbPlayerTable, "player", Config.DictionaryMaxPlayers);
+                cache.warm(conn, Config.DictionaryWarmDays);
+                playerDb = cache;
+
+                Util.debug("Loaded " + cache.size() + " recently active players");
+            } else {
+                try (ResultSet res = stmnt.executeQuery("SELECT * FROM `" + Config.DbPlayerTable + "`;")) {
+                    while (res.next())
+                        playerDb.put(res.getInt("player_id"), res.getString("player"));
+                }
             }
 
             try (ResultSet res = stmnt.executeQuery("SELECT * FROM `" + Config.DbWorldTable + "`;")) {
@@ -172,6 +538,8 @@ public class DataManager implements Runnable, AutoCloseable {
                     worldDb.put(res.getInt("world_id"), res.getString("world"));
             }
 
+            DataDictionary.load(stmnt);
+
         } catch (SQLException ex) {
             Util.severe("Unable to update local data lists from database: " + ex);
             return false;
@@ -180,188 +548,311 @@ public class DataManager implements Runnable, AutoCloseable {
     }
 
     /**
-     * Updates a table based on params - Only use on mass changes
+     * Starts the writer thread
      */
-    private void updateTables(String table, String columns, Statement stmnt, String sql) {
-        try {
-            stmnt.execute(sql);//This is where you create the table - use new + tablename!
-            stmnt.execute("INSERT INTO `new" + table + "` (" + columns + ") SELECT " + columns + " FROM `" + table + "`;");
-            stmnt.execute("RENAME TABLE `" + table + "` TO `old" + table + "`, `new" + table + "` TO `" + table + "`;");
-            stmnt.execute("DROP TABLE `old" + table + "`;");
-        } catch (SQLException e) {
-            e.printStackTrace();
+    public void start() {
+        running = true;
+        flusher = new Thread(this, "HawkEye - Flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Writer thread loop. Sleeps until {@link BatchTuner} says a flush is due,
+     * producers wake it early once a batch worth of rows or bytes is waiting
+     */
+    @Override
+    public void run() {
+        while (running) {
+            if (coalescer != null)
+                coalescer.expire();
+
+            long first = oldestPending.get();
+            long age = (first == 0) ? 0 : System.nanoTime() - first;
+
+            if (retryBatch == null && recovered == null && !tuner.shouldFlush(queue.size(), pendingBytes.get(), age)) {
+                long wait = (first == 0) ? tuner.getMaxAgeNanos() : tuner.getMaxAgeNanos() - age;
+
+                //Wake up in time to release entries the coalescer is holding
+                if (coalescer != null)
+                    wait = Math.min(wait, coalescer.getWindowNanos());
+
+                LockSupport.parkNanos(this, Math.max(wait, 1000000L));
+                continue;
+            }
+
+            //Give the database a moment before retrying
+            if (!flush(tuner.getBatchRows()))
+                LockSupport.parkNanos(this, TimeUnit.SECONDS.toNanos(1));
         }
     }
 
     /**
-     * Checks that all tables are up to date and exist
+     * Writes up to maxRows entries from the queue into the database.
+     * If part of the last batch failed, that part is retried on its own first
      *
-     * @return true on success, false on failure
+     * @return false if the flush failed
      */
-    private boolean checkTables() {
-
-        try (Connection conn = getConnection();
-             Statement stmnt = conn.createStatement()) {
+    private boolean flush(int maxRows) {
+        if ((queue.isEmpty() && retryBatch == null && recovered == null) || !threadbusy.compareAndSet(false, true)) return true;
 
-            String playerTable = "CREATE TABLE IF NOT EXISTS `" + Config.DbPlayerTable + "` (" +
-                    "`player_id` SMALLINT(6) UNSIGNED NOT NULL AUTO_INCREMENT, " +
-                    "`player` varchar(40) CHARACTER SET latin1 COLLATE latin1_general_ci NOT NULL, " +
-                    "PRIMARY KEY (`player_id`), " +
-                    "UNIQUE KEY `player` (`player`)" +
-                    ") COLLATE latin1_general_ci, ENGINE = INNODB;";
-
-            String worldTable = "CREATE TABLE IF NOT EXISTS `" + Config.DbWorldTable + "` (" +
-                    "`world_id` TINYINT(3) UNSIGNED NOT NULL AUTO_INCREMENT, " +
-                    "`world` varchar(40) CHARACTER SET latin1 COLLATE latin1_general_ci NOT NULL, " +
-                    "PRIMARY KEY (`world_id`), " +
-                    "UNIQUE KEY `world` (`world`)" +
-                    ") COLLATE latin1_general_ci, ENGINE = INNODB;";
-
-            String dataTable = "CREATE TABLE `" + Config.DbHawkEyeTable + "` (" +
-                    "`data_id` int(10) UNSIGNED NOT NULL AUTO_INCREMENT," +
-                    "`timestamp` datetime NOT NULL," +
-                    "`player_id` SMALLINT(6) UNSIGNED NOT NULL," +
-                    "`action` TINYINT(3) UNSIGNED NOT NULL," +
-                    "`world_id` TINYINT(3) UNSIGNED NOT NULL," +
-                    "`x` int(11) NOT NULL," +
-                    "`y` int(11) NOT NULL," +
-                    "`z` int(11) NOT NULL," +
-                    "`data` varchar(500) CHARACTER SET latin1 COLLATE latin1_general_ci DEFAULT NULL," +
-                    "PRIMARY KEY (`data_id`)," +
-                    "KEY `timestamp` (`timestamp`)," +
-                    "KEY `player` (`player_id`)," +
-                    "KEY `action` (`action`)," +
-                    "KEY `world_id` (`world_id`)," +
-                    "KEY `x_y_z` (`x`,`y`,`z`)" +
-                    ") COLLATE latin1_general_ci, ENGINE = INNODB;";
-
-            DatabaseMetaData dbm = conn.getMetaData();
-
-            //Check if tables exist
-            if (!JDBCUtil.tableExists(dbm, Config.DbPlayerTable)) {
-                Util.info("Table `" + Config.DbPlayerTable + "` not found, creating...");
-                stmnt.execute(playerTable);
+        try {
+            List<PackedEntry> batch;
+
+            if (retryBatch != null) {
+                batch = retryBatch;
+            } else if (recovered != null) {
+                batch = takeRecovered(maxRows);
+            } else {
+                batch = drain(maxRows);
             }
 
-            if (!JDBCUtil.tableExists(dbm, Config.DbWorldTable)) {
-                Util.info("Table `" + Config.DbWorldTable + "` not found, creating...");
-                stmnt.execute(worldTable);
+            long start = System.nanoTime();
+
+            List<PackedEntry> failed;
+
+            try {
+                batch = resolve(batch);
+                Metrics.resolveLatency.record(Metrics.since(start));
+
+                long writeStart = System.nanoTime();
+                failed = write(batch);
+                SearchCache.written(batch);
+
+                Metrics.commitLatency.record(Metrics.since(writeStart));
+                Metrics.batchRows.record(batch.size());
+                Metrics.rowsWritten.addAndGet(batch.size() - failed.size());
+            } catch (SQLException ex) {
+                Util.warning("Unable to resolve player and world ids: " + ex);
+                failed = batch;
+            } catch (Exception ex) {
+                //The batch has been counted towards the checkpoint, so it must not be lost here
+                Util.warning("Unable to write batch: " + ex);
+                ex.printStackTrace();
+                failed = batch;
             }
 
-            if (!JDBCUtil.tableExists(dbm, Config.DbHawkEyeTable)) {
-                Util.info("Table `" + Config.DbHawkEyeTable + "` not found, creating...");
-                stmnt.execute(dataTable);
+            if (failed.isEmpty()) {
+                tuner.record(batch.size(), System.nanoTime() - start);
+
+                retryBatch = null;
+                retries = 0;
+                commitJournal();
+                return true;
             }
 
-            //This will print an error if the user does not have SUPER privilege
-            try {
-                stmnt.execute("SET GLOBAL innodb_flush_log_at_trx_commit = 2");
-                stmnt.execute("SET GLOBAL sync_binlog = 0");
-            } catch (Exception e) {
-                Util.debug("HawkEye does not have enough privileges for setting global settings");
+            Metrics.writeFailures.addAndGet(failed.size());
+
+            if (++retries < 3) {
+                Util.warning("Failed to write " + failed.size() + " entries, retrying");
+                retryBatch = failed;
+            } else {
+                Util.severe("Giving up on " + failed.size() + " entries after " + retries + " attempts");
+                retryBatch = null;
+                retries = 0;
+                commitJournal();
             }
 
-            //Here is were the table alterations take place (Aside from alters from making tables)
+        } catch (Exception ex) {
+            Util.warning(ex.getMessage());
+            ex.printStackTrace();
+        } finally {
+            threadbusy.set(false);
+        }
 
-            ResultSet rs = stmnt.executeQuery("SHOW FIELDS FROM `" + Config.DbHawkEyeTable + "` where Field ='action'");
+        return false;
+    }
 
-            //Older hawkeye versions x = double, and contains the column "plugin"
-            if (rs.next() && !rs.getString(2).contains("tinyint") || JDBCUtil.columnExists(dbm, Config.DbHawkEyeTable, "plugin")) {
+    /**
+     * Writes a resolved batch, entries from native worlds going to the {@link NativeStore} and the rest to the database
+     *
+     * @return entries that couldn't be written
+     */
+    private List<PackedEntry> write(List<PackedEntry> batch) throws InterruptedException {
+        List<PackedEntry> local = new ArrayList<>();
+        List<PackedEntry> remote = new ArrayList<>(batch.size());
+
+        for (PackedEntry entry : batch) {
+            if (NativeStore.handles(getWorld(entry)))
+                local.add(entry);
+            else
+                remote.add(entry);
+        }
 
-                Util.info("Updating " + Config.DbPlayerTable + "...");
+        if (local.isEmpty()) return writer.write(batch);
 
-                updateTables(Config.DbPlayerTable, "`player_id`,`player`", stmnt, playerTable.replace(Config.DbPlayerTable, "new" + Config.DbPlayerTable));
+        List<PackedEntry> failed = new ArrayList<>(nativeStore.append(local));
 
+        if (!remote.isEmpty())
+            failed.addAll(writer.write(remote));
 
-                Util.info("Updating " + Config.DbWorldTable + "...");
+        return failed;
+    }
 
-                updateTables(Config.DbWorldTable, "`world_id`,`world`", stmnt, worldTable.replace(Config.DbWorldTable, "new" + Config.DbWorldTable));
+    /**
+     * Takes up to maxRows of the entries recovered from the journal
+     */
+    private List<PackedEntry> takeRecovered(int maxRows) {
+        if (recovered.size() <= maxRows) {
+            List<PackedEntry> batch = recovered;
+            recovered = null;
+            return batch;
+        }
 
-                Util.info("Updating " + Config.DbHawkEyeTable + "...");
+        List<PackedEntry> part = recovered.subList(0, maxRows);
+        List<PackedEntry> batch = new ArrayList<>(part);
+        part.clear();
 
-                updateTables(Config.DbHawkEyeTable, "`data_id`,`timestamp`,`player_id`,`action`,`world_id`,`x`,`y`,`z`,`data`", stmnt,
-                        dataTable.replace(Config.DbHawkEyeTable, "new" + Config.DbHawkEyeTable));
+        return batch;
+    }
 
-                Util.info("Finished!");
+    /**
+     * Takes up to maxRows entries from the queue
+     */
+    private List<PackedEntry> drain(int maxRows) {
+        int size = queue.size();
 
-            }
+        if (size > queue.getCapacity() * 0.7)
+            Util.info("HawkEye can't keep up! Current Queue: " + size + "/" + queue.getCapacity());
 
-            conn.commit();
+        long flushStart = System.nanoTime();
+        long bytes = 0;
+        int taken = 0;
 
-        } catch (SQLException ex) {
-            Util.severe("Error checking HawkEye tables: " + ex);
-            return false;
+        List<PackedEntry> batch = new ArrayList<>(Math.min(size, maxRows));
+
+        while (taken < maxRows) {
+            PackedEntry entry = queue.poll();
+
+            if (entry == null) break;
+
+            taken++;
+            bytes += estimateSize(entry);
+
+            batch.add(entry);
         }
 
-        return true;
+        uncommitted += taken;
+
+        //Whatever is left arrived after we started draining
+        oldestPending.set(queue.isEmpty() ? 0 : flushStart);
+        pendingBytes.set(queue.isEmpty() ? 0 : Math.max(0, pendingBytes.get() - bytes));
+
+        return batch;
     }
 
     /**
-     * Empty the {@link DataEntry} queue into the database
+     * Looks up the player and world ids of a batch, adding every unknown name in one go before any rows are bound.
+     * Entries whose ids still can't be found are skipped
      */
-    @Override
-    public void run() {
-        if (threadbusy || queue.isEmpty()) return;
+    private List<PackedEntry> resolve(List<PackedEntry> batch) throws SQLException {
+        if (playerDb instanceof LazyIdMapCache)
+            ((LazyIdMapCache) playerDb).trim();
 
-        threadbusy = true;
+        Set<String> players = new LinkedHashSet<>();
+        Set<String> worlds = new LinkedHashSet<>();
+        Set<String> payloads = new LinkedHashSet<>();
 
-        if (queue.size() > 70000)
-            Util.info("HawkEye can't keep up! Current Queue: " + queue.size());
+        boolean unresolved = false;
 
-        try (Connection conn = getConnection();
-             PreparedStatement stmnt = conn.prepareStatement("INSERT IGNORE into `" + Config.DbHawkEyeTable + "` (timestamp, player_id, action, world_id, x, y, z, data, data_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+        for (PackedEntry entry : batch) {
+            //Most entries were packed with their ids, only names new at the time are left to look up
+            if (!entry.isResolved()) {
+                unresolved = true;
+
+                //Names missing from the cache are loaded along with the new ones by addKeys
+                if (entry.getPlayerId() == 0 && playerDb.getCached(entry.getPlayerName()) == null) players.add(entry.getPlayerName());
+                if (entry.getWorldId() == 0 && worldDb.getCached(entry.getWorldName()) == null) worlds.add(entry.getWorldName());
+            }
+
+            //Native worlds keep their own data
+            if (DataDictionary.isWriting() && !NativeStore.handles(getWorld(entry))) {
+                String data = entry.getSqlData();
+                if (DataDictionary.shouldIntern(data)) payloads.add(data);
+            }
+        }
+
+        //Anything that doesn't make it into the dictionary is stored inline
+        if (!payloads.isEmpty())
+            addKeys(Config.DbDataTable, "payload", DataDictionary.getCache(), payloads);
 
-            for (int i = 0; i < queue.size(); i++) {
-                DataEntry entry = queue.poll();
+        if (!unresolved) return batch;
 
-                if (!playerDb.containsKey(entry.getPlayer()) && !addKey(Config.DbPlayerTable, "player", playerDb, entry.getPlayer())) {
-                    Util.debug("Player '" + entry.getPlayer() + "' not found, skipping entry");
+        if (!players.isEmpty() || !worlds.isEmpty()) {
+            Metrics.idMisses.addAndGet(players.size() + worlds.size());
+
+            addKeys(Config.DbPlayerTable, "player", playerDb, players);
+            addKeys(Config.DbWorldTable, "world", worldDb, worlds);
+        }
+
+        List<PackedEntry> resolved = new ArrayList<>(batch.size());
+
+        for (PackedEntry entry : batch) {
+            if (!entry.isResolved()) {
+                Integer playerId = entry.getPlayerId() != 0 ? entry.getPlayerId() : playerDb.getCached(entry.getPlayerName());
+                Integer worldId = entry.getWorldId() != 0 ? entry.getWorldId() : worldDb.getCached(entry.getWorldName());
+
+                if (playerId == null) {
+                    Util.debug("Player '" + entry.getPlayerName() + "' not found, skipping entry");
                     continue;
                 }
-                if (!worldDb.containsKey(entry.getWorld()) && !addKey(Config.DbWorldTable, "world", worldDb, entry.getWorld())) {
-                    Util.debug("World '" + entry.getWorld() + "' not found, skipping entry");
+                if (worldId == null) {
+                    Util.debug("World '" + entry.getWorldName() + "' not found, skipping entry");
                     continue;
                 }
 
-                Integer player = playerDb.get(entry.getPlayer());
+                entry.resolve(playerId, worldId);
+            }
 
-                //If player ID is unable to be found, continue
-                if (player == null) {
-                    Util.debug("No player found, skipping entry");
-                    continue;
-                }
+            resolved.add(entry);
+        }
 
-                stmnt.setTimestamp(1, entry.getTimestamp());
-                stmnt.setInt(2, player);
-                stmnt.setInt(3, entry.getType().getId());
-                stmnt.setInt(4, worldDb.get(entry.getWorld()));
-                stmnt.setDouble(5, entry.getX());
-                stmnt.setDouble(6, entry.getY());
-                stmnt.setDouble(7, entry.getZ());
-                stmnt.setString(8, entry.getSqlData());
+        return resolved;
+    }
 
-                if (entry.getDataId() > 0) stmnt.setInt(9, entry.getDataId());
-                else stmnt.setInt(9, 0); //0 is better then setting it to null, like before
+    /**
+     * Moves the journal checkpoint past everything taken from the queue so far.
+     * The old segments are only let go of once the last recovered entry is done with, as the queue isn't read until then
+     */
+    private void commitJournal() {
+        long count = uncommitted;
+        uncommitted = 0;
 
-                stmnt.addBatch();
+        if (journal == null) return;
 
-                if (i % 1000 == 0) stmnt.executeBatch(); //If the batchsize is divisible by 1000, execute!
+        try {
+            if (recoveredUntil >= 0 && recovered == null && retryBatch == null) {
+                journal.supersede(recoveredUntil);
+                recoveredUntil = -1;
             }
 
-            stmnt.executeBatch();
-
-            conn.commit();
-
-        } catch (Exception ex) {
-            Util.warning(ex.getMessage());
-            ex.printStackTrace();
-        } finally {
-            threadbusy = false;
+            journal.commit(count);
+        } catch (IOException ex) {
+            Util.warning("Unable to update journal checkpoint: " + ex.getMessage());
         }
     }
 
+    /**
+     * Rough number of bytes an entry takes up in an insert
+     */
+    private static int estimateSize(PackedEntry entry) {
+        byte[] data = entry.getData();
+        return 48 + (data == null ? 0 : data.length);
+    }
+
     public boolean isInsertThreadBusy() {
-        return threadbusy;
+        return threadbusy.get();
+    }
+
+    /**
+     * Returns the partition manager, or null if the hawkeye table isn't partitioned
+     */
+    public static PartitionManager getPartitionManager() {
+        return backend.getPartitionManager();
+    }
+
+    public static BatchTuner getBatchTuner() {
+        return tuner;
     }
 
 }
@@ -1,11 +1,12 @@
 package uk.co.oliwali.HawkEye.database;
 
 
-import uk.co.oliwali.HawkEye.util.Config;
+import uk.co.oliwali.HawkEye.util.Metrics;
 import uk.co.oliwali.HawkEye.util.Util;
 
 import java.sql.Connection;
-import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 
 /**
@@ -44,33 +45,29 @@ public class DeleteManager implements Runnable {
     public void run() {
         if (!deletions.isEmpty()) {
 
+            long start = System.nanoTime();
+
             try (Connection conn = DataManager.getConnection()) {
 
                 DeleteQueue deleteQueue = deletions.peek();
 
                 Util.debug("Running DeleteQueue, key: " + deleteQueue.hashCode() + ", size: " + deleteQueue.getSize());
 
-                try (PreparedStatement stmnt = conn.prepareStatement("DELETE FROM `" + Config.DbHawkEyeTable + "` WHERE `data_id` = ?")) {
-
-                    int removeAmount = (deleteQueue.getSize() > 10000 ? 10000 : deleteQueue.getSize());
-
-                    for (int i = 0; i < removeAmount; i++) {
-
-                        stmnt.setInt(1, deleteQueue.poll());
-                        stmnt.addBatch();
+                int removeAmount = (deleteQueue.getSize() > 10000 ? 10000 : deleteQueue.getSize());
 
-                        if (i % 1000 == 0)
-                            stmnt.executeBatch(); //If the batchsize is divisible by 1000, execute!
+                List<Integer> ids = new ArrayList<>(removeAmount);
 
-                    }
+                for (int i = 0; i < removeAmount; i++)
+                    ids.add(deleteQueue.poll());
 
-                    stmnt.executeBatch();
+                DataManager.getBackend().deleteByIds(conn, ids);
+                SearchCache.clear();
 
-                    conn.commit();
+                Metrics.rowsDeleted.addAndGet(removeAmount);
+                Metrics.deleteLatency.record(Metrics.since(start));
 
-                    if (deleteQueue.isFinished()) {
-                        deletions.poll();
-                    }
+                if (deleteQueue.isFinished()) {
+                    deletions.poll();
                 }
             } catch (Exception ex) {
                 Util.warning("Unable to purge MySQL:" + ex.getMessage());
@@ -0,0 +1,87 @@
+package uk.co.oliwali.HawkEye.database;
+
+import uk.co.oliwali.HawkEye.DataType;
+import uk.co.oliwali.HawkEye.entry.PackedEntry;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Flat binary form of a queued {@link PackedEntry}, shared by the {@link SpillFile} and the {@link Journal}.
+ * Players and worlds are written as their ids, followed by the name only when the id isn't known yet
+ */
+public class EntryCodec {
+
+    public static void write(DataOutput out, PackedEntry entry) throws IOException {
+        byte[] data = entry.getData();
+
+        out.writeShort(entry.getType().getId());
+        out.writeLong(entry.getTime());
+        out.writeInt(entry.getPlayerId());
+        if (entry.getPlayerId() == 0) out.writeUTF(entry.getPlayerName());
+        out.writeInt(entry.getWorldId());
+        if (entry.getWorldId() == 0) out.writeUTF(entry.getWorldName());
+        out.writeInt(entry.getX());
+        out.writeInt(entry.getY());
+        out.writeInt(entry.getZ());
+        out.writeInt(entry.getDataId());
+        out.writeInt(data == null ? -1 : data.length);
+
+        if (data != null)
+            out.write(data);
+    }
+
+    public static PackedEntry read(DataInput in) throws IOException {
+        DataType type = DataType.fromId(in.readShort());
+        long time = in.readLong();
+        int playerId = in.readInt();
+        String player = playerId == 0 ? in.readUTF() : null;
+        int worldId = in.readInt();
+        String world = worldId == 0 ? in.readUTF() : null;
+        int x = in.readInt();
+        int y = in.readInt();
+        int z = in.readInt();
+        int dataId = in.readInt();
+        int length = in.readInt();
+
+        byte[] data = null;
+
+        if (length >= 0) {
+            data = new byte[length];
+            in.readFully(data);
+        }
+
+        return new PackedEntry(time, playerId, player, worldId, world, x, y, z, type, dataId, data);
+    }
+
+    /**
+     * Skips over a record
+     *
+     * @throws EOFException if the record is cut short, such as by a crash while it was being written
+     */
+    public static void skip(DataInput in) throws IOException {
+        skipFully(in, 2 + 8);
+        if (in.readInt() == 0) in.readUTF();
+        if (in.readInt() == 0) in.readUTF();
+        skipFully(in, 4 * 4);
+
+        int length = in.readInt();
+
+        if (length < -1)
+            throw new EOFException("Torn record with a payload length of " + length);
+
+        if (length > 0)
+            skipFully(in, length);
+    }
+
+    /**
+     * skipBytes stops quietly at the end of the input, so a short skip means the record isn't all there
+     */
+    private static void skipFully(DataInput in, int length) throws IOException {
+        if (in.skipBytes(length) < length)
+            throw new EOFException();
+    }
+
+}
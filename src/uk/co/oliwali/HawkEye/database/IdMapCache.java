@@ -1,30 +1,43 @@
 package uk.co.oliwali.HawkEye.database;
 
-import uk.co.oliwali.HawkEye.util.Util;
-
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
  * @author bob7l
  *
  * Stores Id and value references in two diffrent maps to insure
- * quick access to both the value and the key
+ * quick access to both the value and the key.
+ *
+ * Safe to read from search threads while the writer adds to it. Values are also kept
+ * lower cased in a sorted index so partial name searches don't have to scan every value
  */
 public class IdMapCache {
 
-    private final Map<Integer, String> idMap = new HashMap<>();
+    private final Map<Integer, String> idMap = new ConcurrentHashMap<>();
+
+    private final Map<String, Integer> valueMap = new ConcurrentHashMap<>();
 
-    private final Map<String, Integer> valueMap = new HashMap<>();
+    private final ConcurrentNavigableMap<String, Integer> prefixIndex = new ConcurrentSkipListMap<>();
 
     public void put(int id, String value) {
-        idMap.put(id, value);
+        String old = idMap.put(id, value);
+
+        if (old != null && !old.equals(value))
+            valueMap.remove(old, id);
+
         valueMap.put(value, id);
+        prefixIndex.put(fold(value), id);
     }
 
     public void remove(int id, String value) {
         idMap.remove(id);
         valueMap.remove(value);
+        prefixIndex.remove(fold(value), id);
     }
 
     public String get(int id) {
@@ -35,6 +48,28 @@ public class IdMapCache {
         return valueMap.get(value);
     }
 
+    /**
+     * Gets the value of an id only if it is cached, never going to the database.
+     * For threads that can't wait on a query, like the server thread
+     */
+    public String getCached(int id) {
+        return idMap.get(id);
+    }
+
+    /**
+     * Gets the id of a value only if it is cached, never going to the database
+     */
+    public Integer getCached(String value) {
+        return valueMap.get(value);
+    }
+
+    /**
+     * Makes sure the values of a batch of ids are cached, so reading them one at a time doesn't go to the database for each.
+     * Every value is cached here already
+     */
+    public void preload(Collection<Integer> ids) {
+    }
+
     public boolean containsKey(int id) {
         return idMap.containsKey(id);
     }
@@ -43,18 +78,30 @@ public class IdMapCache {
         return valueMap.containsKey(value);
     }
 
+    public int size() {
+        return idMap.size();
+    }
+
+    /**
+     * Finds the id of an exact value, or failing that the first value starting with it, ignoring case
+     */
     public Integer searchForId(String value) {
         Integer id = valueMap.get(value);
 
         if (id != null)
             return id;
 
-        for (String str : valueMap.keySet()) {
-            if (Util.startsWithIgnoreCase(str, value)) {
-                return valueMap.get(str);
-            }
-        }
+        String prefix = fold(value);
+
+        Map.Entry<String, Integer> match = prefixIndex.ceilingEntry(prefix);
+
+        if (match != null && match.getKey().startsWith(prefix))
+            return match.getValue();
 
         return null;
     }
+
+    private static String fold(String value) {
+        return value.toLowerCase(Locale.ENGLISH);
+    }
 }
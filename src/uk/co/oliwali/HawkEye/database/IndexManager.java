@@ -0,0 +1,121 @@
+package uk.co.oliwali.HawkEye.database;
+
+import uk.co.oliwali.HawkEye.util.Config;
+import uk.co.oliwali.HawkEye.util.Util;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the composite indexes searches rely on in place and tells {@link SearchQuery} which of them it can hint at.
+ * Tables created before these indexes existed are migrated in the background using online DDL,
+ * after which the single column indexes they replace are dropped and the migration is recorded in {@link SchemaVersion}
+ */
+public class IndexManager implements Runnable {
+
+    /**
+     * Block lookups: /hawk here, the tool and location searches
+     */
+    public static final String SPATIAL = "world_x_z_y_time";
+
+    /**
+     * Player timelines
+     */
+    public static final String TIMELINE = "player_time";
+
+    public static final String SPATIAL_DEFINITION = "KEY `" + SPATIAL + "` (`world_id`,`x`,`z`,`y`,`timestamp`)";
+    public static final String TIMELINE_DEFINITION = "KEY `" + TIMELINE + "` (`player_id`,`timestamp`)";
+
+    /**
+     * Indexes made redundant by the composite ones, as a left prefix of one of them
+     */
+    private static final String[] REPLACED = {"world_id", "player"};
+
+    private static final Set<String> available = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    @Override
+    public void run() {
+        //Embedded tables are created with these indexes and take no hints
+        if (DataManager.getBackend().isEmbedded()) return;
+
+        if (SchemaVersion.get(SchemaVersion.INDEXES) >= 1) {
+            available.add(SPATIAL);
+            available.add(TIMELINE);
+            return;
+        }
+
+        try (Connection conn = DataManager.getConnection()) {
+            Set<String> existing = getIndexes(conn);
+
+            available.addAll(existing);
+
+            if (!Config.MigrateIndexes) return;
+
+            add(conn, existing, SPATIAL, SPATIAL_DEFINITION);
+            add(conn, existing, TIMELINE, TIMELINE_DEFINITION);
+
+            if (!available.contains(SPATIAL) || !available.contains(TIMELINE)) return;
+
+            for (String index : REPLACED) {
+                if (!existing.contains(index)) continue;
+
+                alter(conn, "DROP INDEX `" + index + "`");
+                available.remove(index);
+                Util.info("Dropped redundant index `" + index + "`");
+            }
+
+            SchemaVersion.set(conn, SchemaVersion.INDEXES, 1);
+
+        } catch (SQLException ex) {
+            Util.warning("Unable to migrate indexes: " + ex);
+        }
+    }
+
+    private void add(Connection conn, Set<String> existing, String name, String definition) throws SQLException {
+        if (existing.contains(name)) return;
+
+        Util.info("Adding index `" + name + "` to `" + Config.DbHawkEyeTable + "`, this may take a while on large tables...");
+
+        long start = System.currentTimeMillis();
+
+        alter(conn, "ADD " + definition);
+        available.add(name);
+
+        Util.info("Added index `" + name + "` in " + (System.currentTimeMillis() - start) / 1000 + "s");
+    }
+
+    /**
+     * Runs an ALTER that leaves the table readable and writable while it runs
+     */
+    private void alter(Connection conn, String change) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE `" + Config.DbHawkEyeTable + "` " + change + ", ALGORITHM=INPLACE, LOCK=NONE");
+        }
+    }
+
+    private Set<String> getIndexes(Connection conn) throws SQLException {
+        Set<String> indexes = new HashSet<>();
+
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SHOW INDEX FROM `" + Config.DbHawkEyeTable + "`")) {
+
+            while (rs.next())
+                indexes.add(rs.getString("Key_name"));
+        }
+        return indexes;
+    }
+
+    /**
+     * Checks if an index exists and can be used in a hint
+     */
+    public static boolean has(String index) {
+        return available.contains(index);
+    }
+
+}
@@ -0,0 +1,265 @@
+package uk.co.oliwali.HawkEye.database;
+
+import org.bukkit.Bukkit;
+import uk.co.oliwali.HawkEye.DataType;
+import uk.co.oliwali.HawkEye.entry.PackedEntry;
+import uk.co.oliwali.HawkEye.util.Config;
+import uk.co.oliwali.HawkEye.util.RingBuffer;
+import uk.co.oliwali.HawkEye.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded queue sitting between {@link DataManager#addEntry} and the database writer.
+ * Backed by a preallocated {@link RingBuffer}, what happens once it fills up is decided by the {@link OverflowPolicy}
+ *
+ * Any thread may add entries, only the writer may remove them
+ */
+public class IngestQueue implements AutoCloseable {
+
+    /**
+     * Longest the main server thread waits for room under the BLOCK policy, in milliseconds. The whole tick waits with it
+     */
+    private static final long MAX_PRIMARY_BLOCK = 50;
+
+    private final RingBuffer<PackedEntry> ring;
+    private final OverflowPolicy policy;
+    private final int priorityThreshold;
+
+    private final SpillFile spill;
+    private final Object spillLock = new Object();
+
+    /**
+     * Set while there are entries in the spill file. New entries are spilled too so order is kept
+     */
+    private volatile boolean spilling = false;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+
+    public IngestQueue(int capacity, OverflowPolicy policy, File spillFile) throws IOException {
+        this.ring = new RingBuffer<>(capacity);
+        this.policy = policy;
+        this.priorityThreshold = (int) (ring.capacity() * (Config.QueuePriorityThreshold / 100D));
+
+        if (policy == OverflowPolicy.SPILL) {
+            spill = new SpillFile(spillFile);
+            spilling = !spill.isEmpty();
+        } else {
+            spill = null;
+        }
+    }
+
+    /**
+     * Adds an entry to the queue, applying the overflow policy if the ring buffer is full
+     *
+     * @return false if the entry was dropped
+     */
+    public boolean offer(PackedEntry entry) {
+        return offer(entry, true);
+    }
+
+    /**
+     * Adds an entry to the queue, applying the overflow policy if the ring buffer is full
+     *
+     * @param wait false to have the BLOCK policy return false straight away on a full queue, without counting the entry as dropped.
+     *             Callers holding a lock then release it, {@link #awaitRoom} and try again
+     * @return false if the entry was dropped, or the queue was full and waiting wasn't allowed
+     */
+    public boolean offer(PackedEntry entry, boolean wait) {
+
+        if (policy == OverflowPolicy.DROP && isLowPriority(entry.getType()) && ring.size() >= priorityThreshold) {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        if (!spilling && ring.offer(entry))
+            return true;
+
+        switch (policy) {
+            case SPILL:
+                return spill(entry);
+            case BLOCK:
+                return wait && block(entry);
+            default:
+                dropped.incrementAndGet();
+                return false;
+        }
+    }
+
+    /**
+     * Adds every entry in the collection, see {@link #offer(PackedEntry)}
+     */
+    public void addAll(Collection<? extends PackedEntry> entries) {
+        for (PackedEntry entry : entries)
+            offer(entry);
+    }
+
+    /**
+     * Removes the next entry. Spilled entries are only handed out once the ring buffer is empty
+     *
+     * @return next entry, or null if there is nothing queued
+     */
+    public PackedEntry poll() {
+        PackedEntry entry = ring.poll();
+
+        if (entry != null || !spilling)
+            return entry;
+
+        synchronized (spillLock) {
+            try {
+                entry = spill.read();
+            } catch (IOException ex) {
+                Util.severe("Unable to read from the overflow file, discarding " + spill.pending() + " entries: " + ex);
+                dropped.addAndGet(spill.pending());
+                spill.discard();
+            }
+
+            if (spill.isEmpty())
+                spilling = false;
+        }
+
+        return entry;
+    }
+
+    private boolean spill(PackedEntry entry) {
+        synchronized (spillLock) {
+
+            //The writer may have caught up while we were waiting on the lock
+            if (!spilling && ring.offer(entry))
+                return true;
+
+            try {
+                spill.write(entry);
+                spilled.incrementAndGet();
+                spilling = true;
+                return true;
+            } catch (IOException ex) {
+                Util.severe("Unable to write to the overflow file: " + ex);
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+    }
+
+    private boolean block(PackedEntry entry) {
+        long deadline = startBlock();
+
+        while (!ring.offer(entry)) {
+            if (!awaitRoom(deadline)) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Counts a producer waiting for room under the BLOCK policy
+     *
+     * @return the time, from {@link System#nanoTime()}, it has to give up at. The main server thread only waits briefly
+     */
+    public long startBlock() {
+        blocked.incrementAndGet();
+
+        long timeout = Config.QueueBlockTimeout;
+
+        if (Bukkit.isPrimaryThread())
+            timeout = Math.min(timeout, MAX_PRIMARY_BLOCK);
+
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    /**
+     * Waits until the ring buffer has room. Must not be called while holding a lock other producers need
+     *
+     * @param deadline from {@link #startBlock()}
+     * @return false if the deadline passed first, the entry is then counted as dropped
+     */
+    public boolean awaitRoom(long deadline) {
+        while (ring.size() >= ring.capacity()) {
+            if (System.nanoTime() > deadline) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            LockSupport.parkNanos(100000);
+        }
+
+        return true;
+    }
+
+    private boolean isLowPriority(DataType type) {
+        return Config.QueueLowPriority.contains(type);
+    }
+
+    /**
+     * Number of entries waiting, including spilled ones
+     */
+    public int size() {
+        return ring.size() + (int) getSpilledPending();
+    }
+
+    public boolean isEmpty() {
+        return ring.isEmpty() && !spilling;
+    }
+
+    public int getCapacity() {
+        return ring.capacity();
+    }
+
+    public long getSpilledPending() {
+        if (!spilling) return 0;
+
+        synchronized (spillLock) {
+            return spill.pending();
+        }
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getSpilled() {
+        return spilled.get();
+    }
+
+    public long getBlocked() {
+        return blocked.get();
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (spill != null) {
+            synchronized (spillLock) {
+                spill.close();
+            }
+        }
+    }
+
+    /**
+     * What to do with new entries once the queue is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait for the writer to make room, up to the configured timeout
+         */
+        BLOCK,
+        /**
+         * Drop low priority actions early, and anything else once full
+         */
+        DROP,
+        /**
+         * Write to an overflow file which is drained once the writer catches up
+         */
+        SPILL
+    }
+
+}
@@ -0,0 +1,122 @@
+package uk.co.oliwali.HawkEye.database;
+
+import uk.co.oliwali.HawkEye.entry.PackedEntry;
+import uk.co.oliwali.HawkEye.util.Util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes batches of {@link PackedEntry}s using several connections at once.
+ * A batch is split by chunk so every change to a given block goes through the same writer,
+ * which keeps their data_ids in the order they happened for rollbacks
+ */
+public class InsertWriter implements AutoCloseable {
+
+    private final int writers;
+    private final ExecutorService executor;
+
+    public InsertWriter(int writers) {
+        this.writers = Math.max(1, writers);
+
+        final AtomicInteger count = new AtomicInteger();
+
+        this.executor = Executors.newFixedThreadPool(this.writers, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "HawkEye - Writer #" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Inserts the batch, blocking until every writer has committed its share.
+     * Entries must already have their player and world ids
+     *
+     * @param batch entries to insert
+     * @return entries belonging to a writer that failed, in their original order
+     */
+    public List<PackedEntry> write(List<PackedEntry> batch) throws InterruptedException {
+        List<PackedEntry> failed = new ArrayList<>();
+
+        if (batch.isEmpty()) return failed;
+
+        if (writers == 1 || batch.size() < writers * 2) {
+            try {
+                insert(batch);
+            } catch (Exception ex) {
+                Util.warning("Unable to insert entries: " + ex.getMessage());
+                failed.addAll(batch);
+            }
+            return failed;
+        }
+
+        List<List<PackedEntry>> parts = new ArrayList<>(writers);
+
+        for (int i = 0; i < writers; i++)
+            parts.add(new ArrayList<PackedEntry>(batch.size() / writers + 16));
+
+        for (PackedEntry entry : batch)
+            parts.get(partition(entry)).add(entry);
+
+        List<Future<Integer>> futures = new ArrayList<>(writers);
+
+        for (final List<PackedEntry> part : parts) {
+            futures.add(part.isEmpty() ? null : executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return insert(part);
+                }
+            }));
+        }
+
+        boolean[] partFailed = new boolean[writers];
+
+        //Wait on every writer even if one fails, so nothing is still running when we return
+        for (int i = 0; i < writers; i++) {
+            if (futures.get(i) == null) continue;
+
+            try {
+                futures.get(i).get();
+            } catch (ExecutionException ex) {
+                Util.warning("Unable to insert entries: " + ex.getCause());
+                partFailed[i] = true;
+            }
+        }
+
+        for (PackedEntry entry : batch)
+            if (partFailed[partition(entry)])
+                failed.add(entry);
+
+        return failed;
+    }
+
+    private int partition(PackedEntry entry) {
+        int hash = entry.getWorldId();
+        hash = 31 * hash + (entry.getX() >> 4);
+        hash = 31 * hash + (entry.getZ() >> 4);
+        return (hash & Integer.MAX_VALUE) % writers;
+    }
+
+    private int insert(List<PackedEntry> entries) throws Exception {
+        return DataManager.getBackend().insert(entries);
+    }
+
+    /**
+     * Waits for in-flight batches to finish and stops the writer threads
+     */
+    @Override
+    public void close() throws InterruptedException {
+        executor.shutdown();
+
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            Util.warning("Timed out waiting for writer threads to finish");
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,198 @@
+package uk.co.oliwali.HawkEye.database;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import uk.co.oliwali.HawkEye.entry.PackedEntry;
+import uk.co.oliwali.HawkEye.util.Config;
+import uk.co.oliwali.HawkEye.util.Util;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The parts of a {@link StorageBackend} that are plain JDBC, shared by every engine
+ */
+public abstract class JdbcBackend implements StorageBackend {
+
+    /**
+     * Gets the start of an INSERT that skips rows clashing with an existing key
+     */
+    protected abstract String insertIgnore();
+
+    /**
+     * Binds the data_id of a new row, which should get one from the table
+     */
+    protected abstract void bindNewId(PreparedStatement stmnt, int index) throws SQLException;
+
+    @Override
+    public int insert(List<PackedEntry> entries) throws SQLException {
+        boolean binary = DataConverter.isWriting();
+        boolean keyed = ChunkKeys.isWriting();
+        boolean dictionary = DataDictionary.isWriting();
+
+        int columns = 9 + (keyed ? 1 : 0) + (dictionary ? 1 : 0);
+
+        String sql = insertIgnore() + " into `" + Config.DbHawkEyeTable + "` (timestamp, player_id, action, world_id, x, y, z, " +
+                (binary ? DataConverter.COLUMN : "data") + ", data_id" +
+                (keyed ? ", " + ChunkKeys.COLUMN : "") +
+                (dictionary ? ", " + DataDictionary.COLUMN : "") +
+                ") VALUES " + DataManager.placeholders(columns);
+
+        try (Connection conn = getConnection();
+             PreparedStatement stmnt = conn.prepareStatement(sql)) {
+
+            PreparedStatement split = null;
+            PreparedStatement payload = null;
+
+            try {
+                int pending = 0;
+
+                for (PackedEntry entry : entries) {
+                    String data = entry.getSqlData();
+
+                    if (PayloadTable.isLong(data)) {
+                        //Rows with a long payload need their id back to file the payload under, they are rare enough to insert one by one.
+                        //The rows batched ahead of one are sent first, so data_ids still follow the order the events happened in
+                        if (pending > 0) stmnt.executeBatch();
+                        pending = 0;
+
+                        if (split == null) {
+                            split = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                            payload = conn.prepareStatement(insertIgnore() + " into `" + Config.DbPayloadTable + "` (data_id, payload) VALUES (?, ?)");
+                        }
+
+                        insertSplit(split, payload, entry, binary, keyed, dictionary, columns);
+                        continue;
+                    }
+
+                    bind(stmnt, entry, data, binary, keyed, dictionary, columns);
+                    stmnt.addBatch();
+
+                    if (++pending == 1000) { //Send every 1000 rows
+                        stmnt.executeBatch();
+                        pending = 0;
+                    }
+                }
+
+                stmnt.executeBatch();
+
+                if (payload != null) payload.executeBatch();
+            } catch (SQLException ex) {
+                conn.rollback();
+                throw ex;
+            } finally {
+                if (split != null) split.close();
+                if (payload != null) payload.close();
+            }
+
+            conn.commit();
+
+            return entries.size();
+        }
+    }
+
+    /**
+     * Binds an entry to the insert. A null data leaves the payload out of the row
+     */
+    private void bind(PreparedStatement stmnt, PackedEntry entry, String data, boolean binary, boolean keyed, boolean dictionary, int columns) throws SQLException {
+        setTimestamp(stmnt, 1, entry.getTime());
+        stmnt.setInt(2, entry.getPlayerId());
+        stmnt.setInt(3, entry.getType().getId());
+        stmnt.setInt(4, entry.getWorldId());
+        stmnt.setInt(5, entry.getX());
+        stmnt.setInt(6, entry.getY());
+        stmnt.setInt(7, entry.getZ());
+
+        Integer ref = dictionary ? DataDictionary.ref(data) : null;
+
+        if (ref != null || data == null)
+            stmnt.setNull(8, binary ? Types.VARBINARY : Types.VARCHAR);
+        else if (binary)
+            stmnt.setBytes(8, DataCodec.encode(data));
+        else
+            stmnt.setString(8, data);
+
+        if (entry.getDataId() > 0) stmnt.setInt(9, entry.getDataId());
+        else bindNewId(stmnt, 9);
+
+        if (keyed) stmnt.setLong(10, ChunkKeys.key(entry.getX(), entry.getZ()));
+
+        if (dictionary) {
+            if (ref != null) stmnt.setInt(columns, ref);
+            else stmnt.setNull(columns, Types.INTEGER);
+        }
+    }
+
+    /**
+     * Inserts a row without its payload, then queues the payload for the side table under the row's id
+     */
+    private void insertSplit(PreparedStatement row, PreparedStatement payload, PackedEntry entry, boolean binary, boolean keyed, boolean dictionary, int columns) throws SQLException {
+        bind(row, entry, null, binary, keyed, dictionary, columns);
+        row.executeUpdate();
+
+        int id = entry.getDataId();
+
+        if (id <= 0) {
+            try (ResultSet keys = row.getGeneratedKeys()) {
+                //Failing the batch rolls it back, so it is retried rather than the payload being lost
+                if (!keys.next())
+                    throw new SQLException("No data_id returned for a " + entry.getType().getConfigName() + " row with a long payload");
+                id = keys.getInt(1);
+            }
+        }
+
+        payload.setInt(1, id);
+        payload.setBytes(2, DataCodec.encode(entry.getSqlData()));
+        payload.addBatch();
+    }
+
+    @Override
+    public int deleteByIds(Connection conn, List<Integer> ids) throws SQLException {
+        int deleted = 0;
+
+        //Negative ids belong to the native store
+        if (NativeStore.get() != null) {
+            deleted += NativeStore.get().delete(ids);
+
+            List<Integer> positive = new ArrayList<>(ids.size());
+            for (Integer id : ids)
+                if (id > 0) positive.add(id);
+            ids = positive;
+        }
+
+        try (Statement stmnt = conn.createStatement()) {
+            for (int from = 0; from < ids.size(); from += 1000) {
+                List<Integer> chunk = ids.subList(from, Math.min(ids.size(), from + 1000));
+                deleted += stmnt.executeUpdate("DELETE FROM `" + Config.DbHawkEyeTable + "` WHERE data_id IN (" + Util.join(chunk, ",") + ")");
+
+                if (PayloadTable.isPresent())
+                    PayloadTable.delete(stmnt, chunk);
+
+                conn.commit();
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public Location locate(int dataId) throws Exception {
+        if (dataId < 0)
+            return NativeStore.get() == null ? null : NativeStore.get().locate(dataId);
+
+        try (Connection conn = getConnection();
+             PreparedStatement stmnt = conn.prepareStatement("SELECT world_id,x,y,z FROM `" + Config.DbHawkEyeTable + "` WHERE `data_id` = ?")) {
+
+            stmnt.setInt(1, dataId);
+
+            try (ResultSet res = stmnt.executeQuery()) {
+                if (!res.next()) return null;
+
+                String world = DataManager.getWorldDb().get(res.getInt(1));
+
+                return new Location(world == null ? null : Bukkit.getWorld(world), res.getInt(2), res.getInt(3), res.getInt(4));
+            }
+        }
+    }
+
+}
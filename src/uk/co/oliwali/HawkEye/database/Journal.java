@@ -0,0 +1,312 @@
+package uk.co.oliwali.HawkEye.database;
+
+import uk.co.oliwali.HawkEye.entry.PackedEntry;
+import uk.co.oliwali.HawkEye.util.Util;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal for queued {@link PackedEntry}s.
+ * Every accepted entry is copied into a memory-mapped segment file, so it survives the JVM dying before the writer commits it.
+ * Entries are numbered in queue order; once the writer commits a batch the checkpoint moves past them
+ * and segments that are entirely behind the checkpoint are deleted.
+ *
+ * Delivery is at least once. Rows get a new data_id when they are written, so if the server dies after a batch
+ * is committed but before the checkpoint moves, that batch is written again as duplicate rows on the next start.
+ *
+ * Records are laid out as [int length][int crc32][{@link EntryCodec} payload], a zero length marks the end of a segment
+ */
+public class Journal implements AutoCloseable {
+
+    private static final String SUFFIX = ".journal";
+
+    private final File dir;
+    private final int segmentSize;
+    private final int syncInterval;
+
+    private final LinkedList<Segment> segments = new LinkedList<>();
+    private Segment active = null;
+
+    private long nextSeq = 0;
+
+    private final Object checkpointLock = new Object();
+    private RandomAccessFile checkpointFile;
+    private long committed = 0;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private final CRC32 crc = new CRC32();
+
+    private volatile boolean dirty = false;
+    private Thread syncThread = null;
+
+    /**
+     * @param dir          directory holding the segments
+     * @param segmentSize  size of each segment file in bytes
+     * @param syncInterval milliseconds between group fsyncs, 0 to fsync every entry, or below 0 to leave it to the OS
+     */
+    public Journal(File dir, int segmentSize, int syncInterval) throws IOException {
+        this.dir = dir;
+        this.segmentSize = Math.max(segmentSize, 65536);
+        this.syncInterval = syncInterval;
+
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Unable to create journal directory " + dir);
+
+        checkpointFile = new RandomAccessFile(new File(dir, "checkpoint"), "rw");
+
+        if (checkpointFile.length() >= 8)
+            committed = checkpointFile.readLong();
+
+        nextSeq = committed;
+    }
+
+    /**
+     * Reads back every entry that was journaled but never committed.
+     * Must be called once, before anything is appended
+     *
+     * @return uncommitted entries in the order they were queued
+     */
+    public List<PackedEntry> recover() throws IOException {
+        List<PackedEntry> entries = new ArrayList<>();
+
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+
+        if (files == null) return entries;
+
+        Arrays.sort(files);
+
+        for (File file : files) {
+            long seq = Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                byte[] data = new byte[(int) raf.length()];
+                raf.readFully(data);
+
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+
+                int pos = 0;
+
+                while (pos + 8 <= data.length) {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+
+                    if (length <= 0 || pos + 8 + length > data.length) break;
+
+                    crc.reset();
+                    crc.update(data, pos + 8, length);
+
+                    if ((int) crc.getValue() != checksum) {
+                        Util.warning("Journal segment " + file.getName() + " is damaged after " + (seq - 1) + ", ignoring the rest of it");
+                        break;
+                    }
+
+                    if (seq >= committed)
+                        entries.add(EntryCodec.read(in));
+                    else
+                        in.skipBytes(length);
+
+                    pos += 8 + length;
+                    seq++;
+                }
+            }
+
+            nextSeq = Math.max(nextSeq, seq);
+
+            //Old segments are kept until the recovered entries have been journaled again
+            segments.add(new Segment(file, null, seq));
+        }
+
+        return entries;
+    }
+
+    /**
+     * Marks everything read by {@link #recover()} as superseded, once it has been appended again
+     */
+    public void supersede(long seq) throws IOException {
+        sync();
+        setCommitted(seq);
+    }
+
+    /**
+     * Appends an entry. Entries must be appended in the same order they are queued
+     *
+     * @return sequence number of the entry
+     */
+    public synchronized long append(PackedEntry entry) throws IOException {
+        bytes.reset();
+        EntryCodec.write(out, entry);
+
+        int length = bytes.size();
+
+        if (active == null || active.buffer.remaining() < length + 12)
+            roll();
+
+        byte[] data = bytes.toByteArray();
+
+        crc.reset();
+        crc.update(data, 0, length);
+
+        MappedByteBuffer buffer = active.buffer;
+        int pos = buffer.position();
+
+        buffer.position(pos + 8);
+        buffer.put(data, 0, length);
+        buffer.putInt(pos + 4, (int) crc.getValue());
+        buffer.putInt(pos, length); //Written last so a record is only visible once complete
+
+        active.nextSeq = ++nextSeq;
+
+        if (syncInterval == 0)
+            buffer.force();
+        else
+            dirty = true;
+
+        return nextSeq - 1;
+    }
+
+    public synchronized long getNextSeq() {
+        return nextSeq;
+    }
+
+    /**
+     * Moves the checkpoint forward by the number of entries the writer has just committed
+     */
+    public void commit(long count) throws IOException {
+        if (count <= 0) return;
+
+        synchronized (checkpointLock) {
+            setCommitted(committed + count);
+        }
+    }
+
+    private void setCommitted(long seq) throws IOException {
+        synchronized (checkpointLock) {
+            committed = seq;
+            checkpointFile.seek(0);
+            checkpointFile.writeLong(seq);
+        }
+
+        synchronized (this) {
+            Iterator<Segment> iter = segments.iterator();
+
+            while (iter.hasNext()) {
+                Segment segment = iter.next();
+
+                if (segment == active || segment.nextSeq > seq) break;
+
+                iter.remove();
+
+                if (!segment.file.delete())
+                    Util.debug("Unable to delete journal segment " + segment.file.getName());
+            }
+        }
+    }
+
+    /**
+     * Starts a new segment file
+     */
+    private void roll() throws IOException {
+        if (active != null)
+            active.buffer.force();
+
+        File file = new File(dir, String.format("%020d", nextSeq) + SUFFIX);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.setLength(segmentSize);
+            active = new Segment(file, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize), nextSeq);
+        }
+
+        segments.add(active);
+    }
+
+    /**
+     * Forces dirty pages of the active segment and the checkpoint to disk
+     */
+    public void sync() throws IOException {
+        MappedByteBuffer buffer;
+
+        synchronized (this) {
+            dirty = false;
+            buffer = (active == null) ? null : active.buffer;
+        }
+
+        if (buffer != null)
+            buffer.force();
+
+        synchronized (checkpointLock) {
+            checkpointFile.getFD().sync();
+        }
+    }
+
+    /**
+     * Starts the group fsync thread, if one is configured
+     */
+    public void start() {
+        if (syncInterval <= 0) return;
+
+        syncThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    try {
+                        Thread.sleep(syncInterval);
+
+                        if (dirty)
+                            sync();
+
+                    } catch (InterruptedException ex) {
+                        return;
+                    } catch (IOException ex) {
+                        Util.warning("Unable to sync journal: " + ex.getMessage());
+                    }
+                }
+            }
+        }, "HawkEye - Journal Sync");
+
+        syncThread.setDaemon(true);
+        syncThread.start();
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (syncThread != null) {
+            syncThread.interrupt();
+            syncThread.join();
+        }
+
+        sync();
+
+        synchronized (checkpointLock) {
+            checkpointFile.close();
+        }
+    }
+
+    private static class Segment {
+
+        private final File file;
+        private final MappedByteBuffer buffer;
+
+        /**
+         * Sequence number one past the last entry in this segment
+         */
+        private long nextSeq;
+
+        private Segment(File file, MappedByteBuffer buffer, long nextSeq) {
+            this.file = file;
+            this.buffer = buffer;
+            this.nextSeq = nextSeq;
+        }
+    }
+
+}
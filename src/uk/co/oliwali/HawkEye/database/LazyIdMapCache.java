@@ -0,0 +1,253 @@
+package uk.co.oliwali.HawkEye.database;
+
+import uk.co.oliwali.HawkEye.util.Config;
+import uk.co.oliwali.HawkEye.util.Util;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link IdMapCache} that only holds part of a table.
+ * Misses are loaded from the database on demand and the least recently used values are evicted once the cache grows past its cap.
+ *
+ * Eviction only happens in {@link #trim()}, which the writer calls before resolving a batch,
+ * so ids the writer has just looked up can't disappear before their rows are bound.
+ * Adding and evicting values lock the cache, as search threads load values while the writer trims it
+ */
+public class LazyIdMapCache extends IdMapCache {
+
+    /**
+     * Most ids looked up in one query
+     */
+    private static final int LOAD_CHUNK = 500;
+
+    private final String table;
+    private final String column;
+    private final int maxSize;
+
+    private final ConcurrentHashMap<Integer, AtomicLong> lastUsed = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+
+    public LazyIdMapCache(String table, String column, int maxSize) {
+        this.table = table;
+        this.column = column;
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    /**
+     * Loads the values used in the hawkeye table within the last few days, most recent first, up to the cap
+     */
+    public void warm(Connection conn, int days) throws SQLException {
+        String sql = "SELECT p." + column + "_id, p." + column + " FROM `" + table + "` p JOIN " +
+                "(SELECT " + column + "_id, MAX(timestamp) AS seen FROM `" + Config.DbHawkEyeTable + "` WHERE timestamp > ? " +
+                "GROUP BY " + column + "_id ORDER BY seen DESC LIMIT ?) r ON r." + column + "_id = p." + column + "_id;";
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            DataManager.getBackend().setTimestamp(stmt, 1, System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days));
+            stmt.setInt(2, maxSize);
+
+            try (ResultSet res = stmt.executeQuery()) {
+                while (res.next())
+                    put(res.getInt(1), res.getString(2));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void put(int id, String value) {
+        super.put(id, value);
+        touch(id);
+    }
+
+    @Override
+    public synchronized void remove(int id, String value) {
+        super.remove(id, value);
+        lastUsed.remove(id);
+    }
+
+    /**
+     * Checks the cache first, then the database
+     */
+    @Override
+    public String get(int id) {
+        String value = getCached(id);
+
+        if (value == null)
+            value = load("SELECT " + column + "_id, " + column + " FROM `" + table + "` WHERE " + column + "_id = ?;", id);
+
+        return value;
+    }
+
+    /**
+     * Checks the cache first, then the database for an exact match
+     */
+    @Override
+    public Integer get(String value) {
+        Integer id = getCached(value);
+
+        if (id == null && load("SELECT " + column + "_id, " + column + " FROM `" + table + "` WHERE " + column + " = ?;", value) != null)
+            id = super.getCached(value);
+
+        return id;
+    }
+
+    @Override
+    public String getCached(int id) {
+        String value = super.getCached(id);
+
+        if (value != null)
+            touch(id);
+
+        return value;
+    }
+
+    @Override
+    public Integer getCached(String value) {
+        Integer id = super.getCached(value);
+
+        if (id != null)
+            touch(id);
+
+        return id;
+    }
+
+    @Override
+    public boolean containsKey(int id) {
+        return get(id) != null;
+    }
+
+    @Override
+    public boolean containsKey(String value) {
+        return get(value) != null;
+    }
+
+    /**
+     * Loads the ids that aren't cached with one query per {@link #LOAD_CHUNK} of them
+     */
+    @Override
+    public void preload(Collection<Integer> ids) {
+        List<Integer> missing = new ArrayList<>();
+
+        for (Integer id : ids) {
+            if (getCached(id) == null)
+                missing.add(id);
+        }
+
+        if (missing.isEmpty()) return;
+
+        try (Connection conn = DataManager.getConnection()) {
+            for (int from = 0; from < missing.size(); from += LOAD_CHUNK) {
+                List<Integer> chunk = missing.subList(from, Math.min(missing.size(), from + LOAD_CHUNK));
+
+                try (PreparedStatement stmt = conn.prepareStatement("SELECT " + column + "_id, " + column + " FROM `" + table + "` WHERE " + column + "_id IN " + DataManager.placeholders(chunk.size()) + ";")) {
+                    for (int i = 0; i < chunk.size(); i++)
+                        stmt.setInt(i + 1, chunk.get(i));
+
+                    try (ResultSet res = stmt.executeQuery()) {
+                        while (res.next())
+                            put(res.getInt(1), res.getString(2));
+                    }
+                }
+            }
+        } catch (SQLException ex) {
+            Util.warning("Unable to load " + column + "s from database: " + ex);
+        }
+    }
+
+    /**
+     * Checks the cache first, then the database for an exact match and then for the first value starting with it
+     */
+    @Override
+    public Integer searchForId(String value) {
+        Integer id = get(value);
+
+        if (id != null) return id;
+
+        String pattern = value.replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%";
+
+        if (load("SELECT " + column + "_id, " + column + " FROM `" + table + "` WHERE " + column + " LIKE ? ESCAPE '!' ORDER BY " + column + " LIMIT 1;", pattern) == null)
+            return null;
+
+        return super.searchForId(value);
+    }
+
+    /**
+     * Evicts the least recently used values until the cache is back under its cap
+     */
+    public synchronized void trim() {
+        int excess = lastUsed.size() - maxSize;
+
+        if (excess <= 0) return;
+
+        List<Map.Entry<Integer, AtomicLong>> entries = new ArrayList<>(lastUsed.entrySet());
+
+        Collections.sort(entries, new Comparator<Map.Entry<Integer, AtomicLong>>() {
+            @Override
+            public int compare(Map.Entry<Integer, AtomicLong> a, Map.Entry<Integer, AtomicLong> b) {
+                return Long.compare(a.getValue().get(), b.getValue().get());
+            }
+        });
+
+        //Evict a little extra so we aren't sorting again on the next batch
+        excess += maxSize / 10;
+
+        for (int i = 0; i < excess && i < entries.size(); i++) {
+            int id = entries.get(i).getKey();
+            String value = super.getCached(id);
+
+            //A search may have touched an id just as it was evicted, leaving a stamp behind
+            if (value != null)
+                remove(id, value);
+            else
+                lastUsed.remove(id);
+        }
+
+        Util.debug(Util.DebugLevel.HIGH, "Evicted " + Math.min(excess, entries.size()) + " " + column + "s from the cache");
+    }
+
+    private void touch(int id) {
+        AtomicLong stamp = lastUsed.get(id);
+
+        if (stamp == null) {
+            stamp = new AtomicLong();
+            AtomicLong existing = lastUsed.putIfAbsent(id, stamp);
+
+            if (existing != null)
+                stamp = existing;
+        }
+
+        stamp.set(clock.incrementAndGet());
+    }
+
+    /**
+     * Runs a single row lookup and caches the result
+     *
+     * @return the value found, or null
+     */
+    private String load(String sql, Object param) {
+        try (Connection conn = DataManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setObject(1, param);
+
+            try (ResultSet res = stmt.executeQuery()) {
+                if (!res.next()) return null;
+
+                put(res.getInt(1), res.getString(2));
+                return res.getString(2);
+            }
+        } catch (SQLException ex) {
+            Util.warning("Unable to load " + column + " from database: " + ex);
+            return null;
+        }
+    }
+
+}
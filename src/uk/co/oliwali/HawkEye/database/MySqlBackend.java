@@ -0,0 +1,311 @@
+package uk.co.oliwali.HawkEye.database;
+
+import uk.co.oliwali.HawkEye.util.Config;
+import uk.co.oliwali.HawkEye.util.Util;
+
+import java.sql.*;
+import java.util.List;
+
+/**
+ * Logs to a MySQL server through the Hikari pool in {@link ConnectionManager}
+ */
+public class MySqlBackend extends JdbcBackend {
+
+    /**
+     * Rows removed per DELETE when cleansing, so the writer isn't stalled behind one huge delete
+     */
+    private static final int CLEANSE_CHUNK = 10000;
+
+    private final ConnectionManager connectionManager;
+
+    private PartitionManager partitionManager = null;
+
+    public MySqlBackend() throws Exception {
+        connectionManager = new ConnectionManager();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return connectionManager.getConnection();
+    }
+
+    /**
+     * Updates a table based on params - Only use on small tables, the hawkeye table is copied by {@link TableMigration}
+     */
+    private void updateTables(String table, String columns, Statement stmnt, String sql) {
+        try {
+            stmnt.execute(sql);//This is where you create the table - use new + tablename!
+            stmnt.execute("INSERT INTO `new" + table + "` (" + columns + ") SELECT " + columns + " FROM `" + table + "`;");
+            stmnt.execute("RENAME TABLE `" + table + "` TO `old" + table + "`, `new" + table + "` TO `" + table + "`;");
+            stmnt.execute("DROP TABLE `old" + table + "`;");
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Checks that all tables are up to date and exist.
+     * Once their version is recorded in {@link SchemaVersion} this doesn't look at the database metadata at all
+     *
+     * @return true on success, false on failure
+     */
+    @Override
+    public boolean checkTables() {
+
+        try (Connection conn = getConnection();
+             Statement stmnt = conn.createStatement()) {
+
+            SchemaVersion.load(conn);
+
+            PartitionManager partitions = Config.Partitioned ? new PartitionManager() : null;
+
+            if (!SchemaVersion.has(SchemaVersion.TABLES))
+                createTables(conn, stmnt, partitions);
+
+            if (!SchemaVersion.has(DataDictionary.TABLE_PART)) {
+                //Case sensitive, so values that only differ in case get their own id
+                stmnt.execute("CREATE TABLE IF NOT EXISTS `" + Config.DbDataTable + "` (" +
+                        "`" + DataDictionary.COLUMN + "` INT UNSIGNED NOT NULL AUTO_INCREMENT, " +
+                        "`payload` varchar(64) CHARACTER SET latin1 COLLATE latin1_bin NOT NULL, " +
+                        "PRIMARY KEY (`" + DataDictionary.COLUMN + "`), " +
+                        "UNIQUE KEY `payload` (`payload`)" +
+                        ") ENGINE = INNODB;");
+                SchemaVersion.set(conn, DataDictionary.TABLE_PART, 1);
+            }
+
+            if (Config.SplitPayloads && !SchemaVersion.has(PayloadTable.TABLE_PART)) {
+                stmnt.execute("CREATE TABLE IF NOT EXISTS `" + Config.DbPayloadTable + "` (" +
+                        "`data_id` int(10) UNSIGNED NOT NULL, " +
+                        "`payload` VARBINARY(1500) NOT NULL, " +
+                        "PRIMARY KEY (`data_id`)" +
+                        ") ENGINE = INNODB;");
+                SchemaVersion.set(conn, PayloadTable.TABLE_PART, 1);
+            }
+
+            PayloadTable.check();
+
+            DataConverter.checkColumn(conn);
+            ChunkKeys.checkColumn(conn);
+            DataDictionary.checkColumn(conn);
+
+            if (partitions != null) {
+                if (PartitionManager.isPartitioned(conn)) {
+                    partitions.maintain(conn);
+                    partitionManager = partitions;
+                } else {
+                    Util.warning("Table `" + Config.DbHawkEyeTable + "` isn't partitioned, cleansing will delete rows instead");
+                }
+            }
+
+            //This will print an error if the user does not have SUPER privilege
+            try {
+                stmnt.execute("SET GLOBAL innodb_flush_log_at_trx_commit = 2");
+                stmnt.execute("SET GLOBAL sync_binlog = 0");
+            } catch (Exception e) {
+                Util.debug("HawkEye does not have enough privileges for setting global settings");
+            }
+
+            conn.commit();
+
+        } catch (SQLException ex) {
+            Util.severe("Error checking HawkEye tables: " + ex);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Creates missing tables and finds out what state existing ones are in, for installs without a recorded version
+     */
+    private void createTables(Connection conn, Statement stmnt, PartitionManager partitions) throws SQLException {
+        String playerTable = "CREATE TABLE IF NOT EXISTS `" + Config.DbPlayerTable + "` (" +
+                "`player_id` SMALLINT(6) UNSIGNED NOT NULL AUTO_INCREMENT, " +
+                "`player` varchar(40) CHARACTER SET latin1 COLLATE latin1_general_ci NOT NULL, " +
+                "PRIMARY KEY (`player_id`), " +
+                "UNIQUE KEY `player` (`player`)" +
+                ") COLLATE latin1_general_ci, ENGINE = INNODB;";
+
+        String worldTable = "CREATE TABLE IF NOT EXISTS `" + Config.DbWorldTable + "` (" +
+                "`world_id` TINYINT(3) UNSIGNED NOT NULL AUTO_INCREMENT, " +
+                "`world` varchar(40) CHARACTER SET latin1 COLLATE latin1_general_ci NOT NULL, " +
+                "PRIMARY KEY (`world_id`), " +
+                "UNIQUE KEY `world` (`world`)" +
+                ") COLLATE latin1_general_ci, ENGINE = INNODB;";
+
+        DatabaseMetaData dbm = conn.getMetaData();
+
+        //Check if tables exist
+        if (!JDBCUtil.tableExists(dbm, Config.DbPlayerTable)) {
+            Util.info("Table `" + Config.DbPlayerTable + "` not found, creating...");
+            stmnt.execute(playerTable);
+        }
+
+        if (!JDBCUtil.tableExists(dbm, Config.DbWorldTable)) {
+            Util.info("Table `" + Config.DbWorldTable + "` not found, creating...");
+            stmnt.execute(worldTable);
+        }
+
+        if (!JDBCUtil.tableExists(dbm, Config.DbHawkEyeTable)) {
+            Util.info("Table `" + Config.DbHawkEyeTable + "` not found, creating...");
+            createDataTable(conn, stmnt, partitions);
+            SchemaVersion.set(conn, SchemaVersion.TABLES, SchemaVersion.TABLES_CURRENT);
+            return;
+        }
+
+        //Here is were the table alterations take place (Aside from alters from making tables)
+
+        boolean legacy;
+
+        try (ResultSet rs = stmnt.executeQuery("SHOW FIELDS FROM `" + Config.DbHawkEyeTable + "` where Field ='action'")) {
+            //Older hawkeye versions x = double, and contains the column "plugin"
+            legacy = rs.next() && !rs.getString(2).contains("tinyint") || JDBCUtil.columnExists(dbm, Config.DbHawkEyeTable, "plugin");
+        }
+
+        if (!legacy) {
+            SchemaVersion.set(conn, SchemaVersion.TABLES, SchemaVersion.TABLES_CURRENT);
+            return;
+        }
+
+        Util.info("Updating " + Config.DbPlayerTable + "...");
+
+        updateTables(Config.DbPlayerTable, "`player_id`,`player`", stmnt, playerTable.replace(Config.DbPlayerTable, "new" + Config.DbPlayerTable));
+
+        Util.info("Updating " + Config.DbWorldTable + "...");
+
+        updateTables(Config.DbWorldTable, "`world_id`,`world`", stmnt, worldTable.replace(Config.DbWorldTable, "new" + Config.DbWorldTable));
+
+        //The old rows are copied over in the background, logging carries on into the new table meanwhile
+        Util.info("Moving " + Config.DbHawkEyeTable + " to " + TableMigration.legacyTable() + ", its rows will be copied back in the background");
+
+        stmnt.execute("RENAME TABLE `" + Config.DbHawkEyeTable + "` TO `" + TableMigration.legacyTable() + "`");
+
+        createDataTable(conn, stmnt, partitions);
+
+        //New rows are numbered after the old ones, so copying them back can't clash
+        try (ResultSet rs = stmnt.executeQuery("SELECT MAX(`data_id`) FROM `" + TableMigration.legacyTable() + "`")) {
+            if (rs.next())
+                stmnt.execute("ALTER TABLE `" + Config.DbHawkEyeTable + "` AUTO_INCREMENT = " + (rs.getLong(1) + 1));
+        }
+
+        SchemaVersion.set(conn, SchemaVersion.TABLES, SchemaVersion.TABLES_MIGRATING);
+    }
+
+    /**
+     * Creates the hawkeye table with every column and index, and records them
+     */
+    private void createDataTable(Connection conn, Statement stmnt, PartitionManager partitions) throws SQLException {
+        String dataTable = "CREATE TABLE `" + Config.DbHawkEyeTable + "` (" +
+                "`data_id` int(10) UNSIGNED NOT NULL AUTO_INCREMENT," +
+                "`timestamp` datetime NOT NULL," +
+                "`player_id` SMALLINT(6) UNSIGNED NOT NULL," +
+                "`action` TINYINT(3) UNSIGNED NOT NULL," +
+                "`world_id` TINYINT(3) UNSIGNED NOT NULL," +
+                "`x` int(11) NOT NULL," +
+                "`y` int(11) NOT NULL," +
+                "`z` int(11) NOT NULL," +
+                "`data` varchar(500) CHARACTER SET latin1 COLLATE latin1_general_ci DEFAULT NULL," +
+                (Config.BinaryData ? DataConverter.DEFINITION + "," : "") +
+                (Config.ChunkKeys ? ChunkKeys.DEFINITION + "," : "") +
+                (Config.DataDictionary ? DataDictionary.DEFINITION + "," : "") +
+                "PRIMARY KEY (`data_id`)," +
+                "KEY `timestamp` (`timestamp`)," +
+                IndexManager.TIMELINE_DEFINITION + "," +
+                "KEY `action` (`action`)," +
+                IndexManager.SPATIAL_DEFINITION + "," +
+                "KEY `x_y_z` (`x`,`y`,`z`)" +
+                (Config.ChunkKeys ? "," + ChunkKeys.INDEX_DEFINITION : "") +
+                ") COLLATE latin1_general_ci, ENGINE = INNODB;";
+
+        //Partitioned tables need the partitioning column in every unique key
+        if (partitions != null)
+            stmnt.execute(dataTable.replace("PRIMARY KEY (`data_id`)", "PRIMARY KEY (`data_id`,`timestamp`)")
+                    .replace(") COLLATE latin1_general_ci, ENGINE = INNODB;", ") COLLATE latin1_general_ci, ENGINE = INNODB" + partitions.createClause() + ";"));
+        else
+            stmnt.execute(dataTable);
+
+        //Every row gets its chunk key as it is written, copied rows included
+        SchemaVersion.set(conn, DataConverter.COLUMN, Config.BinaryData ? 1 : 0);
+        SchemaVersion.set(conn, ChunkKeys.COLUMN, Config.ChunkKeys ? 2 : 0);
+        SchemaVersion.set(conn, DataDictionary.COLUMN, Config.DataDictionary ? 1 : 0);
+        SchemaVersion.set(conn, SchemaVersion.INDEXES, 1);
+    }
+
+    @Override
+    protected String insertIgnore() {
+        return "INSERT IGNORE";
+    }
+
+    @Override
+    protected void bindNewId(PreparedStatement stmnt, int index) throws SQLException {
+        stmnt.setInt(index, 0); //0 is better then setting it to null, like before
+    }
+
+    @Override
+    public void insertKeys(Connection conn, String table, String column, List<String> names) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO `" + table + "` (" + column + ") VALUES " + DataManager.placeholders(names.size()).replace("?", "(?)") +
+                " ON DUPLICATE KEY UPDATE " + column + "=VALUES(" + column + ");")) {
+            for (int i = 0; i < names.size(); i++)
+                stmt.setString(i + 1, names.get(i));
+
+            stmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public int cleanse(Connection conn, Timestamp cutoff, String actions) throws SQLException {
+        try (PreparedStatement stmnt = conn.prepareStatement("DELETE FROM `" + Config.DbHawkEyeTable + "` WHERE `timestamp` < ?" + actions + " LIMIT " + CLEANSE_CHUNK)) {
+            setTimestamp(stmnt, 1, cutoff.getTime());
+
+            int deleted = 0;
+            int chunk;
+
+            do {
+                chunk = stmnt.executeUpdate();
+                conn.commit();
+                deleted += chunk;
+            } while (chunk >= CLEANSE_CHUNK);
+
+            return deleted;
+        }
+    }
+
+    @Override
+    public void setTimestamp(PreparedStatement stmnt, int index, long time) throws SQLException {
+        stmnt.setTimestamp(index, new Timestamp(time));
+    }
+
+    @Override
+    public Timestamp getTimestamp(ResultSet res, int index) throws SQLException {
+        return res.getTimestamp(index);
+    }
+
+    /**
+     * Same as {@link ChunkKeys#EXPRESSION}, / is decimal division so it rounds down like a shift would
+     */
+    @Override
+    public String chunkExpression(String column) {
+        return "FLOOR(" + column + " / 16)";
+    }
+
+    @Override
+    public String indexHint(String index) {
+        return " FORCE INDEX (`" + index + "`)";
+    }
+
+    @Override
+    public boolean isEmbedded() {
+        return false;
+    }
+
+    @Override
+    public PartitionManager getPartitionManager() {
+        return partitionManager;
+    }
+
+    @Override
+    public void close() throws Exception {
+        connectionManager.close();
+    }
+
+}
@@ -0,0 +1,531 @@
+package uk.co.oliwali.HawkEye.database;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * One append-only segment of the {@link NativeStore}, holding the entries of a single world.
+ * Entries are fixed-width records in a memory-mapped file, packed into 4KB pages so a page is one read.
+ * Their data lives in a side file the record points into.
+ *
+ * Each segment keeps a sparse index of which pages hold a chunk or a player and the time span of every page,
+ * so a block lookup only touches the few pages its chunk is on. The index is saved next to the segment once it is sealed
+ */
+public class NativeSegment {
+
+    public static final int RECORD = 36;
+    public static final int PAGE = 4096;
+    public static final int PER_PAGE = PAGE / RECORD;
+
+    private static final int TIME = 0;
+    private static final int ID = 8;
+    private static final int PLAYER = 12;
+    private static final int ACTION = 16;
+    private static final int FLAGS = 18;
+    private static final int X = 20;
+    private static final int Y = 24;
+    private static final int Z = 26;
+    private static final int DATA_OFFSET = 30;
+    private static final int DATA_LENGTH = 34;
+
+    private static final short DELETED = 1;
+
+    private final long seq;
+    private final File recFile;
+    private final File datFile;
+    private final File idxFile;
+
+    private final int capacity;
+    private final MappedByteBuffer records;
+    private final RandomAccessFile dataFile;
+    private final FileChannel data;
+    private long dataSize;
+
+    private volatile int count = 0;
+    private volatile boolean sealed = false;
+    private volatile boolean removed = false;
+
+    private final Map<Long, BitSet> chunkPages = new HashMap<>();
+    private final Map<Integer, BitSet> playerPages = new HashMap<>();
+    private final long[] pageMin;
+    private final long[] pageMax;
+
+    private long minTime = Long.MAX_VALUE;
+    private long maxTime = Long.MIN_VALUE;
+    private int minId = Integer.MAX_VALUE;
+    private int maxId = Integer.MIN_VALUE;
+    private int deleted = 0;
+
+    /**
+     * Segments this one was compacted from, removed when it is opened if they are still around
+     */
+    private final List<Long> replaces = new ArrayList<>();
+
+    private NativeSegment(File dir, long seq, int capacity) throws IOException {
+        this.seq = seq;
+        this.recFile = new File(dir, String.format("%010d", seq) + ".rec");
+        this.datFile = new File(dir, String.format("%010d", seq) + ".dat");
+        this.idxFile = new File(dir, String.format("%010d", seq) + ".idx");
+
+        //A segment created with a bigger segment size keeps its size
+        int pages = (int) Math.max((capacity + PER_PAGE - 1) / PER_PAGE, recFile.length() / PAGE);
+        this.capacity = pages * PER_PAGE;
+        this.pageMin = new long[pages];
+        this.pageMax = new long[pages];
+
+        try (RandomAccessFile raf = new RandomAccessFile(recFile, "rw")) {
+            if (raf.length() < (long) pages * PAGE)
+                raf.setLength((long) pages * PAGE);
+            this.records = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) pages * PAGE);
+        }
+
+        this.dataFile = new RandomAccessFile(datFile, "rw");
+        this.data = dataFile.getChannel();
+        this.dataSize = data.size();
+    }
+
+    public static NativeSegment create(File dir, long seq, int capacity) throws IOException {
+        return new NativeSegment(dir, seq, capacity);
+    }
+
+    /**
+     * Opens an existing segment, reading its saved index or rebuilding it from the records if it has none
+     */
+    public static NativeSegment open(File dir, long seq, int capacity) throws IOException {
+        File idx = new File(dir, String.format("%010d", seq) + ".idx");
+
+        if (idx.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(idx)))) {
+                NativeSegment segment = new NativeSegment(dir, seq, in.readInt());
+                segment.readIndex(in);
+                segment.sealed = true;
+                return segment;
+            } catch (IOException ex) {
+                //Fall through and rebuild it
+            }
+        }
+
+        NativeSegment segment = new NativeSegment(dir, seq, capacity);
+
+        //Time is written last and is never 0, so the first zero time is the end of the segment
+        int count = 0;
+        while (count < segment.capacity && segment.records.getLong(segment.offset(count) + TIME) != 0) {
+            segment.indexRecord(count);
+            count++;
+        }
+        segment.count = count;
+
+        return segment;
+    }
+
+    private int offset(int record) {
+        return (record / PER_PAGE) * PAGE + (record % PER_PAGE) * RECORD;
+    }
+
+    public boolean isFull() {
+        return count >= capacity;
+    }
+
+    /**
+     * Appends a record. Only the flusher thread appends
+     */
+    public void append(long time, int id, int player, int action, int x, int y, int z, byte[] bytes) throws IOException {
+        int dataOffset = (int) dataSize;
+
+        if (bytes != null && bytes.length >= 0xFFFF)
+            throw new IOException("Entry data too long: " + bytes.length + " bytes");
+
+        if (bytes != null) {
+            data.write(ByteBuffer.wrap(bytes), dataSize);
+            dataSize += bytes.length;
+        }
+
+        int record = count;
+        int pos = offset(record);
+
+        records.putInt(pos + ID, id);
+        records.putInt(pos + PLAYER, player);
+        records.putShort(pos + ACTION, (short) action);
+        records.putShort(pos + FLAGS, (short) 0);
+        records.putInt(pos + X, x);
+        records.putShort(pos + Y, (short) y);
+        records.putInt(pos + Z, z);
+        records.putInt(pos + DATA_OFFSET, dataOffset);
+        records.putShort(pos + DATA_LENGTH, (short) (bytes == null ? -1 : bytes.length));
+        records.putLong(pos + TIME, time); //Written last so a record is only seen once complete
+
+        synchronized (this) {
+            indexRecord(record);
+            count = record + 1;
+        }
+    }
+
+    private void indexRecord(int record) {
+        int pos = offset(record);
+        int page = record / PER_PAGE;
+
+        long time = records.getLong(pos + TIME);
+        int id = records.getInt(pos + ID);
+        int player = records.getInt(pos + PLAYER);
+        long chunk = ChunkKeys.key(records.getInt(pos + X), records.getInt(pos + Z));
+
+        if (record % PER_PAGE == 0) {
+            pageMin[page] = time;
+            pageMax[page] = time;
+        } else {
+            pageMin[page] = Math.min(pageMin[page], time);
+            pageMax[page] = Math.max(pageMax[page], time);
+        }
+
+        minTime = Math.min(minTime, time);
+        maxTime = Math.max(maxTime, time);
+        minId = Math.min(minId, id);
+        maxId = Math.max(maxId, id);
+
+        if ((records.getShort(pos + FLAGS) & DELETED) != 0) deleted++;
+
+        pages(chunkPages, chunk).set(page);
+        pages(playerPages, player).set(page);
+    }
+
+    private static <K> BitSet pages(Map<K, BitSet> map, K key) {
+        BitSet pages = map.get(key);
+        if (pages == null) map.put(key, pages = new BitSet());
+        return pages;
+    }
+
+    /**
+     * Flushes appended records to disk
+     */
+    public void force() throws IOException {
+        records.force();
+        data.force(false);
+    }
+
+    /**
+     * Stops appends and saves the index so the next start doesn't have to rebuild it
+     */
+    public synchronized void seal() throws IOException {
+        force();
+        sealed = true;
+        writeIndex();
+    }
+
+    /**
+     * Records the segments this one was compacted from, saved with the index
+     */
+    public synchronized void setReplaces(Collection<Long> seqs) throws IOException {
+        replaces.clear();
+        replaces.addAll(seqs);
+
+        if (sealed) writeIndex();
+    }
+
+    public synchronized List<Long> getReplaces() {
+        return new ArrayList<>(replaces);
+    }
+
+    private void writeIndex() throws IOException {
+        File tmp = new File(idxFile.getPath() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            int pages = (count + PER_PAGE - 1) / PER_PAGE;
+
+            out.writeInt(capacity);
+            out.writeInt(count);
+            out.writeLong(minTime);
+            out.writeLong(maxTime);
+            out.writeInt(minId);
+            out.writeInt(maxId);
+            out.writeInt(deleted);
+
+            for (int i = 0; i < pages; i++) {
+                out.writeLong(pageMin[i]);
+                out.writeLong(pageMax[i]);
+            }
+
+            out.writeInt(chunkPages.size());
+            for (Map.Entry<Long, BitSet> entry : chunkPages.entrySet()) {
+                out.writeLong(entry.getKey());
+                writeBits(out, entry.getValue());
+            }
+
+            out.writeInt(playerPages.size());
+            for (Map.Entry<Integer, BitSet> entry : playerPages.entrySet()) {
+                out.writeInt(entry.getKey());
+                writeBits(out, entry.getValue());
+            }
+
+            out.writeInt(replaces.size());
+            for (long replaced : replaces)
+                out.writeLong(replaced);
+        }
+
+        if (idxFile.exists() && !idxFile.delete() || !tmp.renameTo(idxFile))
+            throw new IOException("Unable to save index " + idxFile.getName());
+    }
+
+    private void readIndex(DataInputStream in) throws IOException {
+        count = Math.min(capacity, in.readInt());
+        minTime = in.readLong();
+        maxTime = in.readLong();
+        minId = in.readInt();
+        maxId = in.readInt();
+        deleted = in.readInt();
+
+        int pages = (count + PER_PAGE - 1) / PER_PAGE;
+        for (int i = 0; i < pages; i++) {
+            pageMin[i] = in.readLong();
+            pageMax[i] = in.readLong();
+        }
+
+        int chunks = in.readInt();
+        for (int i = 0; i < chunks; i++)
+            chunkPages.put(in.readLong(), readBits(in));
+
+        int players = in.readInt();
+        for (int i = 0; i < players; i++)
+            playerPages.put(in.readInt(), readBits(in));
+
+        int replaced = in.readInt();
+        for (int i = 0; i < replaced; i++)
+            replaces.add(in.readLong());
+    }
+
+    private static void writeBits(DataOutputStream out, BitSet bits) throws IOException {
+        long[] words = bits.toLongArray();
+        out.writeInt(words.length);
+        for (long word : words)
+            out.writeLong(word);
+    }
+
+    private static BitSet readBits(DataInputStream in) throws IOException {
+        long[] words = new long[in.readInt()];
+        for (int i = 0; i < words.length; i++)
+            words[i] = in.readLong();
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * Works out which pages may hold records matching a search, using the sparse index
+     *
+     * @param from    earliest time wanted, or null
+     * @param to      latest time wanted, or null
+     * @param players player ids wanted, or null for anyone
+     * @param box     block area wanted as {minX, minZ, maxX, maxZ}, or null for anywhere
+     */
+    public synchronized BitSet pages(Long from, Long to, Collection<Integer> players, int[] box) {
+        int used = (count + PER_PAGE - 1) / PER_PAGE;
+
+        BitSet result = new BitSet();
+        result.set(0, used);
+
+        if (box != null) {
+            int fromX = box[0] >> 4, fromZ = box[1] >> 4, toX = box[2] >> 4, toZ = box[3] >> 4;
+
+            //Huge areas are cheaper to check against every page
+            if ((long) (toX - fromX + 1) * (toZ - fromZ + 1) <= 4096) {
+                BitSet chunks = new BitSet();
+
+                for (int x = fromX; x <= toX; x++) {
+                    for (int z = fromZ; z <= toZ; z++) {
+                        BitSet pages = chunkPages.get(ChunkKeys.key(x << 4, z << 4));
+                        if (pages != null) chunks.or(pages);
+                    }
+                }
+                result.and(chunks);
+            }
+        }
+
+        if (players != null) {
+            BitSet owned = new BitSet();
+
+            for (Integer player : players) {
+                BitSet pages = playerPages.get(player);
+                if (pages != null) owned.or(pages);
+            }
+            result.and(owned);
+        }
+
+        if (from != null || to != null) {
+            for (int page = result.nextSetBit(0); page >= 0; page = result.nextSetBit(page + 1)) {
+                if ((from != null && pageMax[page] < from) || (to != null && pageMin[page] > to))
+                    result.clear(page);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads the live records on the given pages
+     */
+    public List<Record> read(BitSet pages) throws IOException {
+        List<Record> result = new ArrayList<>();
+        int total = count;
+
+        for (int page = pages.nextSetBit(0); page >= 0; page = pages.nextSetBit(page + 1)) {
+            int last = Math.min(total, (page + 1) * PER_PAGE);
+
+            for (int record = page * PER_PAGE; record < last; record++) {
+                Record rec = read(record);
+                if (rec != null) result.add(rec);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads every live record
+     */
+    public List<Record> readAll() throws IOException {
+        BitSet all = new BitSet();
+        all.set(0, (count + PER_PAGE - 1) / PER_PAGE);
+        return read(all);
+    }
+
+    private Record read(int record) throws IOException {
+        int pos = offset(record);
+
+        if ((records.getShort(pos + FLAGS) & DELETED) != 0) return null;
+
+        byte[] bytes = null;
+        int length = records.getShort(pos + DATA_LENGTH);
+
+        if (length >= 0) {
+            bytes = new byte[length & 0xFFFF];
+            data.read(ByteBuffer.wrap(bytes), records.getInt(pos + DATA_OFFSET) & 0xFFFFFFFFL);
+        }
+
+        return new Record(records.getLong(pos + TIME), records.getInt(pos + ID), records.getInt(pos + PLAYER), records.getShort(pos + ACTION),
+                records.getInt(pos + X), records.getShort(pos + Y), records.getInt(pos + Z), bytes);
+    }
+
+    /**
+     * Marks records as deleted, they are dropped for good on the next compaction
+     *
+     * @param ids    ids to delete, or null to match any
+     * @param before only records older than this, or 0 for any
+     * @param actions only these actions, or null for any
+     * @return number of records deleted
+     */
+    public synchronized int delete(Set<Integer> ids, long before, Set<Integer> actions) {
+        if (ids != null && !ids.isEmpty() && (Collections.max(ids) < minId || Collections.min(ids) > maxId)) return 0;
+        if (before > 0 && minTime >= before) return 0;
+
+        int removed = 0;
+
+        for (int record = 0; record < count; record++) {
+            int pos = offset(record);
+            short flags = records.getShort(pos + FLAGS);
+
+            if ((flags & DELETED) != 0) continue;
+            if (ids != null && !ids.contains(records.getInt(pos + ID))) continue;
+            if (before > 0 && records.getLong(pos + TIME) >= before) continue;
+            if (actions != null && !actions.contains((int) records.getShort(pos + ACTION))) continue;
+
+            records.putShort(pos + FLAGS, (short) (flags | DELETED));
+            removed++;
+        }
+
+        deleted += removed;
+        return removed;
+    }
+
+    /**
+     * Deletes the segment's files, once it has been dropped or compacted away
+     */
+    public void delete() {
+        removed = true;
+
+        try {
+            dataFile.close();
+        } catch (IOException ignored) {
+        }
+
+        for (File file : new File[]{recFile, datFile, idxFile}) {
+            //Mapped files can't be removed on Windows until the mapping is collected
+            if (file.exists() && !file.delete())
+                file.deleteOnExit();
+        }
+    }
+
+    public void close() throws IOException {
+        force();
+        dataFile.close();
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int getLive() {
+        return count - deleted;
+    }
+
+    public synchronized int getDeleted() {
+        return deleted;
+    }
+
+    public synchronized long getMinTime() {
+        return minTime;
+    }
+
+    public synchronized long getMaxTime() {
+        return maxTime;
+    }
+
+    public synchronized boolean hasId(int id) {
+        return id >= minId && id <= maxId;
+    }
+
+    public synchronized int getMaxId() {
+        return maxId;
+    }
+
+    public boolean isSealed() {
+        return sealed;
+    }
+
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    /**
+     * A record read back from a segment
+     */
+    public static class Record {
+
+        public final long time;
+        public final int id;
+        public final int player;
+        public final int action;
+        public final int x;
+        public final int y;
+        public final int z;
+        public final byte[] data;
+
+        public Record(long time, int id, int player, int action, int x, int y, int z, byte[] data) {
+            this.time = time;
+            this.id = id;
+            this.player = player;
+            this.action = action;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.data = data;
+        }
+    }
+
+}
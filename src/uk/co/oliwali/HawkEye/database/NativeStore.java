@@ -0,0 +1,563 @@
+package uk.co.oliwali.HawkEye.database;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import uk.co.oliwali.HawkEye.entry.PackedEntry;
+import uk.co.oliwali.HawkEye.util.Config;
+import uk.co.oliwali.HawkEye.util.Util;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Log-structured store for the worlds listed in the native-store config, kept in {@link NativeSegment}s under the plugin folder
+ * instead of the database. Entries are appended to the newest segment of their world, which is sealed once it is full.
+ * Player and world ids still come from the database, so names stay the same across both stores.
+ *
+ * Entries in the store have negative data ids, which is how deletes and lookups by id find their way here.
+ * Run as a task, it compacts sealed segments: deleted records are dropped, small segments are merged,
+ * and records are sorted by chunk so a block lookup reads as few pages as possible
+ */
+public class NativeStore implements Runnable {
+
+    private static final String SUFFIX = ".rec";
+    private static final String COMPACTING = ".cmp";
+
+    private static NativeStore instance = null;
+
+    private final File dir;
+    private final Set<String> worlds = new HashSet<>();
+    private final Map<Integer, WorldLog> logs = new HashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private volatile boolean running = true;
+
+    public NativeStore(File dir) {
+        this.dir = dir;
+
+        //With the store turned off nothing new goes in, but what is already there stays searchable
+        if (Config.NativeEnabled)
+            for (String world : Config.NativeWorlds)
+                worlds.add(world.toLowerCase());
+
+        File[] worldDirs = dir.listFiles();
+
+        if (worldDirs != null) {
+            for (File worldDir : worldDirs) {
+                try {
+                    load(Integer.parseInt(worldDir.getName()), worldDir);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+
+        int records = 0;
+        int segments = 0;
+
+        for (WorldLog log : logs.values()) {
+            for (NativeSegment segment : log.segments) {
+                nextId.set(Math.max(nextId.get(), segment.getMaxId() + 1));
+                records += segment.getLive();
+                segments++;
+            }
+        }
+
+        if (segments > 0)
+            Util.info("Loaded " + records + " native entries in " + segments + " segment(s)");
+
+        instance = this;
+    }
+
+    /**
+     * Gets the running store, or null if there is none
+     */
+    public static NativeStore get() {
+        return instance;
+    }
+
+    /**
+     * Checks if entries from a world are kept in the native store
+     */
+    public static boolean handles(String world) {
+        return instance != null && world != null && instance.worlds.contains(world.toLowerCase());
+    }
+
+    private void load(int world, File worldDir) {
+        File[] files = worldDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+
+        if (files == null) return;
+
+        Arrays.sort(files);
+
+        WorldLog log = new WorldLog(world, worldDir);
+        Map<Long, NativeSegment> opened = new LinkedHashMap<>();
+
+        for (File file : files) {
+            long seq = Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+
+            try {
+                //Left by a compaction that didn't finish, the segments it was merging are all still there
+                File marker = new File(worldDir, String.format("%010d", seq) + COMPACTING);
+
+                if (marker.exists()) {
+                    NativeSegment.open(worldDir, seq, Config.NativeSegmentRecords).delete();
+                    marker.delete();
+                    continue;
+                }
+
+                opened.put(seq, NativeSegment.open(worldDir, seq, Config.NativeSegmentRecords));
+                log.nextSeq = Math.max(log.nextSeq, seq + 1);
+            } catch (IOException ex) {
+                Util.warning("Unable to read native segment " + file.getName() + ": " + ex.getMessage());
+            }
+        }
+
+        //A compaction that stopped before removing what it merged leaves both behind
+        for (NativeSegment segment : new ArrayList<>(opened.values())) {
+            for (long replaced : segment.getReplaces()) {
+                NativeSegment old = opened.remove(replaced);
+                if (old != null) old.delete();
+            }
+        }
+
+        for (NativeSegment segment : opened.values()) {
+            if (segment.isSealed())
+                log.segments.add(segment);
+            else if (log.active == null)
+                log.active = segment;
+            else
+                log.segments.add(segment); //Only one segment is ever appended to, any other is treated as sealed
+        }
+
+        if (log.active != null)
+            log.segments.add(log.active);
+
+        logs.put(world, log);
+    }
+
+    private WorldLog log(int world) {
+        synchronized (logs) {
+            WorldLog log = logs.get(world);
+
+            if (log == null) {
+                log = new WorldLog(world, new File(dir, String.valueOf(world)));
+                logs.put(world, log);
+            }
+            return log;
+        }
+    }
+
+    private List<WorldLog> logs() {
+        synchronized (logs) {
+            return new ArrayList<>(logs.values());
+        }
+    }
+
+    /**
+     * Appends entries to their worlds' segments. Entries must already have their player and world ids
+     *
+     * @return entries that couldn't be written
+     */
+    public List<PackedEntry> append(List<PackedEntry> entries) {
+        Set<NativeSegment> touched = new HashSet<>();
+
+        for (int i = 0; i < entries.size(); i++) {
+            PackedEntry entry = entries.get(i);
+            WorldLog log = log(entry.getWorldId());
+
+            try {
+                synchronized (log) {
+                    NativeSegment segment = log.active(touched);
+
+                    //Entries read back out of the store keep the id they had
+                    int id = entry.getDataId() < 0 ? -entry.getDataId() : nextId.getAndIncrement();
+
+                    segment.append(entry.getTime(), id, entry.getPlayerId(), entry.getType().getId(),
+                            entry.getX(), entry.getY(), entry.getZ(), DataCodec.encode(entry.getSqlData()));
+
+                    touched.add(segment);
+                }
+            } catch (IOException ex) {
+                Util.warning("Unable to write to native store: " + ex.getMessage());
+                force(touched);
+                return new ArrayList<>(entries.subList(i, entries.size()));
+            }
+        }
+
+        force(touched);
+        return Collections.emptyList();
+    }
+
+    private static void force(Collection<NativeSegment> segments) {
+        for (NativeSegment segment : segments) {
+            try {
+                segment.force();
+            } catch (IOException ex) {
+                Util.warning("Unable to flush native segment: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Finds the entries matching a search, using each segment's index to only read the pages that may match
+     *
+     * @param worlds    world ids to search, or null for every world in the store
+     * @param notWorlds world ids to leave out
+     * @param from      earliest time, or null
+     * @param to        latest time, or null
+     * @param players   player ids to match, or null for anyone
+     * @param box       block area as {minX, minZ, maxX, maxZ}, or null
+     * @param filter    checks the rest of the search on each record
+     * @param limit     number of rows wanted, or 0 for every match
+     * @param newest    true to keep the newest rows when there are more than the limit
+     * @return matching rows with their negative data ids
+     */
+    public List<ArchiveSegment.Row> search(Collection<Integer> worlds, Collection<Integer> notWorlds, Long from, Long to,
+                                           Collection<Integer> players, int[] box, Filter filter, int limit, final boolean newest) throws IOException {
+        List<NativeSegment> segments = new ArrayList<>();
+        final Map<NativeSegment, String> worldNames = new HashMap<>();
+
+        for (WorldLog log : logs()) {
+            if (worlds != null && !worlds.contains(log.world)) continue;
+            if (notWorlds != null && notWorlds.contains(log.world)) continue;
+
+            String world = DataManager.getWorldDb().get(log.world);
+
+            for (NativeSegment segment : log.segments) {
+                if (segment.getCount() == 0) continue;
+                if (from != null && segment.getMaxTime() < from) continue;
+                if (to != null && segment.getMinTime() > to) continue;
+
+                segments.add(segment);
+                worldNames.put(segment, world == null ? "" : world);
+            }
+        }
+
+        //Search the segments most likely to hold the rows we keep first, so the rest can be skipped once there are enough
+        Collections.sort(segments, new Comparator<NativeSegment>() {
+            @Override
+            public int compare(NativeSegment a, NativeSegment b) {
+                return newest ? Long.compare(b.getMaxTime(), a.getMaxTime()) : Long.compare(a.getMinTime(), b.getMinTime());
+            }
+        });
+
+        List<ArchiveSegment.Row> rows = new ArrayList<>();
+        Map<Integer, String> names = new HashMap<>();
+
+        for (NativeSegment segment : segments) {
+            if (limit > 0 && rows.size() >= limit) {
+                sort(rows, newest);
+                rows.subList(limit, rows.size()).clear();
+
+                long bound = rows.get(limit - 1).getTime();
+                if (newest ? segment.getMaxTime() < bound : segment.getMinTime() > bound) continue;
+            }
+
+            String world = worldNames.get(segment);
+
+            List<NativeSegment.Record> records;
+
+            try {
+                records = segment.read(segment.pages(from, to, players, box));
+            } catch (IOException ex) {
+                //Compacted or cleansed away while we were reading it, its records are in another segment or gone
+                if (segment.isRemoved()) continue;
+                throw ex;
+            }
+
+            //Look up the players of the segment that haven't been seen yet together
+            Set<Integer> unseen = new HashSet<>();
+
+            for (NativeSegment.Record record : records) {
+                if (!names.containsKey(record.player)) unseen.add(record.player);
+            }
+
+            DataManager.getPlayerDb().preload(unseen);
+
+            for (NativeSegment.Record record : records) {
+                String player = names.get(record.player);
+
+                if (player == null) {
+                    player = DataManager.getPlayerDb().get(record.player);
+                    names.put(record.player, player == null ? "" : player);
+                    if (player == null) player = "";
+                }
+
+                ArchiveSegment.Row row = new ArchiveSegment.Row(-record.id, record.time, player, record.action, world,
+                        record.x, record.y, record.z, DataCodec.decode(record.data));
+
+                if (filter.matches(row)) rows.add(row);
+            }
+        }
+
+        sort(rows, newest);
+
+        if (limit > 0 && rows.size() > limit)
+            rows.subList(limit, rows.size()).clear();
+
+        return rows;
+    }
+
+    private static void sort(List<ArchiveSegment.Row> rows, final boolean newest) {
+        Collections.sort(rows, new Comparator<ArchiveSegment.Row>() {
+            @Override
+            public int compare(ArchiveSegment.Row a, ArchiveSegment.Row b) {
+                int order = Long.compare(a.getTime(), b.getTime());
+                if (order == 0) order = Long.compare(-a.getDataId(), -b.getDataId());
+                return newest ? -order : order;
+            }
+        });
+    }
+
+    /**
+     * Deletes entries by their negative data ids
+     *
+     * @return number of entries deleted
+     */
+    public int delete(Collection<Integer> dataIds) {
+        Set<Integer> ids = new HashSet<>();
+
+        for (Integer dataId : dataIds)
+            if (dataId < 0) ids.add(-dataId);
+
+        if (ids.isEmpty()) return 0;
+
+        int deleted = 0;
+
+        for (WorldLog log : logs()) {
+            synchronized (log) {
+                for (NativeSegment segment : log.segments)
+                    deleted += segment.delete(ids, 0, null);
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Finds where the entry with a negative data id was logged
+     *
+     * @return the location, or null if there is no entry with that id
+     */
+    public Location locate(int dataId) throws Exception {
+        int id = -dataId;
+
+        for (WorldLog log : logs()) {
+            for (NativeSegment segment : log.segments) {
+                if (!segment.hasId(id)) continue;
+
+                for (NativeSegment.Record record : segment.readAll()) {
+                    if (record.id != id) continue;
+
+                    String world = DataManager.getWorldDb().get(log.world);
+
+                    return new Location(world == null ? null : Bukkit.getWorld(world), record.x, record.y, record.z);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Deletes entries older than the cutoff. Sealed segments that are entirely older are removed outright
+     *
+     * @param actions action ids to delete, or null for every action
+     * @return number of entries deleted
+     */
+    public int cleanse(Date cutoff, Set<Integer> actions) {
+        int deleted = 0;
+
+        for (WorldLog log : logs()) {
+            synchronized (log) {
+                for (NativeSegment segment : log.segments) {
+                    if (actions == null && segment != log.active && segment.getMaxTime() < cutoff.getTime()) {
+                        deleted += segment.getLive();
+                        log.segments.remove(segment);
+                        segment.delete();
+                    } else {
+                        deleted += segment.delete(null, cutoff.getTime(), actions);
+                    }
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Compacts sealed segments, one world at a time
+     */
+    @Override
+    public void run() {
+        for (WorldLog log : logs()) {
+            if (!running) return;
+
+            try {
+                compact(log);
+            } catch (IOException ex) {
+                Util.warning("Unable to compact native segments of world " + log.world + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Rewrites runs of sealed segments that fit in one segment once their deleted records are gone.
+     * A single segment is only rewritten if a quarter of it has been deleted
+     */
+    private void compact(WorldLog log) throws IOException {
+        List<NativeSegment> sealed = new ArrayList<>();
+
+        for (NativeSegment segment : log.segments)
+            if (segment != log.active) sealed.add(segment);
+
+        List<NativeSegment> group = new ArrayList<>();
+        int live = 0;
+
+        for (NativeSegment segment : sealed) {
+            if (!running) return;
+
+            if (!group.isEmpty() && live + segment.getLive() > Config.NativeSegmentRecords) {
+                rewrite(log, group);
+                group.clear();
+                live = 0;
+            }
+
+            group.add(segment);
+            live += segment.getLive();
+        }
+
+        rewrite(log, group);
+    }
+
+    private void rewrite(WorldLog log, List<NativeSegment> group) throws IOException {
+        if (group.isEmpty()) return;
+        if (group.size() == 1 && group.get(0).getDeleted() * 4 < group.get(0).getCount()) return;
+
+        //Holding the log stops deletes landing on the old segments after they have been read
+        synchronized (log) {
+            List<NativeSegment.Record> records = new ArrayList<>();
+            List<Long> replaced = new ArrayList<>();
+
+            for (NativeSegment segment : group) {
+                records.addAll(segment.readAll());
+                replaced.add(segment.getSeq());
+            }
+
+            Collections.sort(records, new Comparator<NativeSegment.Record>() {
+                @Override
+                public int compare(NativeSegment.Record a, NativeSegment.Record b) {
+                    int order = Long.compare(ChunkKeys.key(a.x, a.z), ChunkKeys.key(b.x, b.z));
+                    return order != 0 ? order : Long.compare(a.time, b.time);
+                }
+            });
+
+            NativeSegment merged = null;
+
+            if (!records.isEmpty()) {
+                long seq = log.nextSeq++;
+                File marker = new File(log.dir, String.format("%010d", seq) + COMPACTING);
+
+                if (!marker.createNewFile())
+                    throw new IOException("Unable to create " + marker.getName());
+
+                merged = NativeSegment.create(log.dir, seq, Math.max(records.size(), NativeSegment.PER_PAGE));
+
+                for (NativeSegment.Record record : records)
+                    merged.append(record.time, record.id, record.player, record.action, record.x, record.y, record.z, record.data);
+
+                merged.setReplaces(replaced);
+                merged.seal();
+                marker.delete();
+
+                log.segments.add(merged);
+            }
+
+            log.segments.removeAll(group);
+
+            for (NativeSegment segment : group)
+                segment.delete();
+
+            if (merged != null)
+                merged.setReplaces(Collections.<Long>emptyList());
+
+            Util.debug("Compacted " + group.size() + " native segment(s) of world " + log.world + " into " + records.size() + " entries");
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Flushes every segment and releases their files
+     */
+    public void close() {
+        running = false;
+
+        for (WorldLog log : logs()) {
+            synchronized (log) {
+                for (NativeSegment segment : log.segments) {
+                    try {
+                        segment.close();
+                    } catch (IOException ex) {
+                        Util.warning("Unable to close native segment: " + ex.getMessage());
+                    }
+                }
+            }
+        }
+
+        instance = null;
+    }
+
+    /**
+     * Checks a record against the parts of a search the index can't answer
+     */
+    public interface Filter {
+        boolean matches(ArchiveSegment.Row row);
+    }
+
+    /**
+     * The segments of one world. Only the active segment is appended to
+     */
+    private static class WorldLog {
+
+        private final int world;
+        private final File dir;
+        private final List<NativeSegment> segments = new CopyOnWriteArrayList<>();
+        private NativeSegment active = null;
+        private long nextSeq = 0;
+
+        private WorldLog(int world, File dir) {
+            this.world = world;
+            this.dir = dir;
+        }
+
+        /**
+         * Gets the segment to append to, sealing the current one and starting another when it is full
+         *
+         * @param touched segments appended to in this batch, flushed before they are sealed
+         */
+        private NativeSegment active(Set<NativeSegment> touched) throws IOException {
+            if (active != null && !active.isFull()) return active;
+
+            if (active != null) {
+                active.seal();
+                touched.remove(active);
+            }
+
+            if (!dir.isDirectory() && !dir.mkdirs())
+                throw new IOException("Unable to create native store directory " + dir);
+
+            active = NativeSegment.create(dir, nextSeq++, Config.NativeSegmentRecords);
+            segments.add(active);
+            return active;
+        }
+    }
+
+}
@@ -0,0 +1,212 @@
+package uk.co.oliwali.HawkEye.database;
+
+import uk.co.oliwali.HawkEye.util.Config;
+import uk.co.oliwali.HawkEye.util.Util;
+
+import java.sql.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.Date;
+
+/**
+ * Keeps the hawkeye table split into RANGE partitions by day or week, so old data can be dropped a partition at a time.
+ * Partitions are named after the day they start on, the last one is always pmax which catches anything past the newest boundary.
+ * Future partitions are split off pmax ahead of time, while it is still empty
+ */
+public class PartitionManager implements Runnable {
+
+    public enum Interval {
+        DAY,
+        WEEK
+    }
+
+    private static final String MAX = "pmax";
+
+    private final Interval interval;
+    private final int future;
+
+    public PartitionManager() {
+        this.interval = Config.PartitionInterval;
+        this.future = Math.max(1, Config.PartitionFuture);
+    }
+
+    /**
+     * Builds the PARTITION BY clause for a new table, starting with the current period
+     */
+    public String createClause() {
+        StringBuilder sb = new StringBuilder(" PARTITION BY RANGE (TO_DAYS(`timestamp`)) (");
+
+        Calendar start = periodStart(new Date());
+
+        for (int i = 0; i <= future; i++) {
+            Calendar end = next(start);
+            sb.append(definition(start, end)).append(", ");
+            start = end;
+        }
+
+        return sb.append("PARTITION ").append(MAX).append(" VALUES LESS THAN MAXVALUE)").toString();
+    }
+
+    /**
+     * Checks if the hawkeye table is partitioned on its timestamp
+     */
+    public static boolean isPartitioned(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM information_schema.PARTITIONS " +
+                "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND PARTITION_NAME = ?")) {
+            stmt.setString(1, Config.DbHawkEyeTable);
+            stmt.setString(2, MAX);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && rs.getInt(1) > 0;
+            }
+        }
+    }
+
+    /**
+     * Makes sure partitions exist for the configured number of periods ahead
+     */
+    @Override
+    public void run() {
+        try (Connection conn = DataManager.getConnection()) {
+            maintain(conn);
+        } catch (SQLException ex) {
+            Util.warning("Unable to maintain partitions: " + ex);
+        }
+    }
+
+    public void maintain(Connection conn) throws SQLException {
+        long last = 0;
+
+        for (long bound : getBounds(conn).values())
+            last = Math.max(last, bound);
+
+        Calendar target = periodStart(new Date());
+
+        for (int i = 0; i <= future; i++)
+            target = next(target);
+
+        Calendar start = periodStart(new Date(toMillis(last)));
+
+        if (last == 0 || !start.before(target)) return;
+
+        //Boundaries are aligned to periods, so the newest one is the start of the next partition
+        StringBuilder sb = new StringBuilder();
+
+        while (start.before(target)) {
+            Calendar end = next(start);
+
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(definition(start, end));
+
+            start = end;
+        }
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE `" + Config.DbHawkEyeTable + "` REORGANIZE PARTITION " + MAX + " INTO (" +
+                    sb + ", PARTITION " + MAX + " VALUES LESS THAN MAXVALUE)");
+        }
+
+        Util.debug("Added partitions up to " + format(target, "yyyy-MM-dd"));
+    }
+
+    /**
+     * Drops every partition that only holds rows older than the cutoff
+     *
+     * @return the number of partitions dropped
+     */
+    public int dropBefore(Connection conn, Date cutoff) throws SQLException {
+        long cutoffDays = toDays(cutoff.getTime());
+
+        Map<String, Long> bounds = getBounds(conn);
+        List<String> drop = new ArrayList<>();
+
+        for (Map.Entry<String, Long> partition : bounds.entrySet())
+            if (partition.getValue() <= cutoffDays)
+                drop.add(partition.getKey());
+
+        //MySQL won't drop every partition, and the oldest one left takes anything older anyway
+        if (drop.size() >= bounds.size())
+            drop.remove(drop.size() - 1);
+
+        if (drop.isEmpty()) return 0;
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE `" + Config.DbHawkEyeTable + "` DROP PARTITION " + Util.join(drop, ","));
+        }
+
+        return drop.size();
+    }
+
+    /**
+     * Upper bounds of the table's partitions in TO_DAYS form, oldest first, leaving out pmax
+     */
+    private Map<String, Long> getBounds(Connection conn) throws SQLException {
+        Map<String, Long> bounds = new LinkedHashMap<>();
+
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT PARTITION_NAME, PARTITION_DESCRIPTION FROM information_schema.PARTITIONS " +
+                "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? ORDER BY PARTITION_ORDINAL_POSITION")) {
+            stmt.setString(1, Config.DbHawkEyeTable);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (MAX.equals(rs.getString(1))) continue;
+
+                    bounds.put(rs.getString(1), Long.parseLong(rs.getString(2)));
+                }
+            }
+        }
+        return bounds;
+    }
+
+    private String definition(Calendar start, Calendar end) {
+        return "PARTITION p" + format(start, "yyyyMMdd") + " VALUES LESS THAN (TO_DAYS('" + format(end, "yyyy-MM-dd") + "'))";
+    }
+
+    private Calendar periodStart(Date date) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(date);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+
+        if (interval == Interval.WEEK) {
+            //Weeks start on monday no matter the locale
+            int offset = (cal.get(Calendar.DAY_OF_WEEK) + 5) % 7;
+            cal.add(Calendar.DAY_OF_MONTH, -offset);
+        }
+        return cal;
+    }
+
+    private Calendar next(Calendar start) {
+        Calendar end = (Calendar) start.clone();
+        end.add(Calendar.DAY_OF_MONTH, interval == Interval.WEEK ? 7 : 1);
+        return end;
+    }
+
+    private static String format(Calendar cal, String pattern) {
+        return new SimpleDateFormat(pattern).format(cal.getTime());
+    }
+
+    /**
+     * Days between year 0 and the local date of the given time, matching MySQL's TO_DAYS
+     */
+    private static long toDays(long millis) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(millis);
+
+        long offset = cal.get(Calendar.ZONE_OFFSET) + cal.get(Calendar.DST_OFFSET);
+
+        //TO_DAYS('1970-01-01') is 719528
+        return (millis + offset) / 86400000L + 719528;
+    }
+
+    private static long toMillis(long days) {
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(1970, Calendar.JANUARY, 1);
+        cal.add(Calendar.DAY_OF_MONTH, (int) (days - 719528));
+        return cal.getTimeInMillis();
+    }
+
+}
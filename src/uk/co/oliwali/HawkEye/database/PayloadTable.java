@@ -0,0 +1,94 @@
+package uk.co.oliwali.HawkEye.database;
+
+import uk.co.oliwali.HawkEye.util.Config;
+import uk.co.oliwali.HawkEye.util.Util;
+
+import java.sql.*;
+import java.util.List;
+
+/**
+ * Keeps long payloads, such as container contents, out of the hawkeye table in a side table keyed by data_id.
+ * Short payloads stay inline, so the hawkeye rows spatial and timeline scans walk stay small and densely packed.
+ * Searches only fetch the side table for the rows they return, and only when they need the data
+ */
+public class PayloadTable {
+
+    /**
+     * {@link SchemaVersion} part of the side table
+     */
+    public static final String TABLE_PART = "payload_table";
+
+    private static volatile boolean present = false;
+
+    /**
+     * Checks if the side table exists, rows may have their data there even if splitting has been turned off since
+     */
+    public static boolean isPresent() {
+        return present;
+    }
+
+    /**
+     * Checks if new rows should have long payloads moved to the side table
+     */
+    public static boolean isWriting() {
+        return present && Config.SplitPayloads;
+    }
+
+    /**
+     * Reads whether the side table exists from its recorded version
+     */
+    public static void check() {
+        present = SchemaVersion.get(TABLE_PART) > 0;
+    }
+
+    /**
+     * Checks if a payload is long enough to go in the side table
+     */
+    public static boolean isLong(String data) {
+        return data != null && isWriting() && data.length() > Config.InlinePayloadLength;
+    }
+
+    /**
+     * Gets the extra select column that fetches a row's payload from the side table, or an empty string if there is none
+     */
+    public static String select() {
+        if (!present) return "";
+
+        return ", (SELECT `payload` FROM `" + Config.DbPayloadTable + "` WHERE `" + Config.DbPayloadTable + "`.`data_id` = `" +
+                Config.DbHawkEyeTable + "`.`data_id`) AS `payload`";
+    }
+
+    /**
+     * Reads the payload a row has in the side table
+     *
+     * @return the payload, or null if the row keeps its data inline
+     */
+    public static String read(ResultSet res) throws SQLException {
+        byte[] bytes = res.getBytes("payload");
+        return bytes == null ? null : DataCodec.decode(bytes);
+    }
+
+    /**
+     * Deletes the payloads of rows being deleted by id
+     */
+    public static void delete(Statement stmnt, List<Integer> ids) throws SQLException {
+        stmnt.executeUpdate("DELETE FROM `" + Config.DbPayloadTable + "` WHERE `data_id` IN (" + Util.join(ids, ",") + ")");
+    }
+
+    /**
+     * Deletes payloads whose rows are gone, after a cleanse or a dropped partition
+     *
+     * @return number of payloads deleted
+     */
+    public static int sweep(Connection conn) throws SQLException {
+        if (!present) return 0;
+
+        try (Statement stmnt = conn.createStatement()) {
+            int deleted = stmnt.executeUpdate("DELETE FROM `" + Config.DbPayloadTable + "` WHERE NOT EXISTS " +
+                    "(SELECT 1 FROM `" + Config.DbHawkEyeTable + "` WHERE `" + Config.DbHawkEyeTable + "`.`data_id` = `" + Config.DbPayloadTable + "`.`data_id`)");
+            conn.commit();
+            return deleted;
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+package uk.co.oliwali.HawkEye.database;
+
+import uk.co.oliwali.HawkEye.util.Config;
+import uk.co.oliwali.HawkEye.util.Util;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.sql.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records the state of each part of the schema in the hawk_schema_version table, keyed by the hawkeye table name.
+ * Once a part has a version, startup trusts it instead of probing the database metadata for it.
+ * Parts that are migrated in the background also keep how far they got here, so a restart picks up where it left off.
+ * Delete a part's row to have it checked again on the next start
+ */
+public class SchemaVersion {
+
+    public static final String TABLE = "hawk_schema_version";
+
+    /**
+     * The hawkeye, player and world tables. {@link #TABLES_MIGRATING} while rows are copied out of a pre 1.0 table
+     */
+    public static final String TABLES = "tables";
+    public static final int TABLES_MIGRATING = 1;
+    public static final int TABLES_CURRENT = 2;
+
+    /**
+     * The composite indexes, 1 once they are in place and the indexes they replace are gone
+     */
+    public static final String INDEXES = "indexes";
+
+    private static final Map<String, long[]> parts = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the version table if it isn't there and reads the versions recorded for the hawkeye table
+     */
+    public static void load(Connection conn) throws SQLException {
+        parts.clear();
+
+        try (Statement stmnt = conn.createStatement()) {
+            stmnt.execute("CREATE TABLE IF NOT EXISTS `" + TABLE + "` (" +
+                    "`table_name` VARCHAR(64) NOT NULL," +
+                    "`component` VARCHAR(32) NOT NULL," +
+                    "`version` INT NOT NULL," +
+                    "`progress` BIGINT NOT NULL DEFAULT 0," +
+                    "PRIMARY KEY (`table_name`,`component`))");
+        }
+
+        try (PreparedStatement stmnt = conn.prepareStatement("SELECT `component`, `version`, `progress` FROM `" + TABLE + "` WHERE `table_name` = ?")) {
+            stmnt.setString(1, Config.DbHawkEyeTable);
+
+            try (ResultSet rs = stmnt.executeQuery()) {
+                while (rs.next())
+                    parts.put(rs.getString(1), new long[]{rs.getInt(2), rs.getLong(3)});
+            }
+        }
+
+        conn.commit();
+    }
+
+    /**
+     * Checks if a part has a recorded version
+     */
+    public static boolean has(String part) {
+        return parts.containsKey(part);
+    }
+
+    /**
+     * Gets the recorded version of a part, 0 if it is missing or has none
+     */
+    public static int get(String part) {
+        long[] record = parts.get(part);
+        return record == null ? 0 : (int) record[0];
+    }
+
+    /**
+     * Gets how far the background migration of a part got
+     */
+    public static long getProgress(String part) {
+        long[] record = parts.get(part);
+        return record == null ? 0 : record[1];
+    }
+
+    /**
+     * Records the version of a part and commits
+     */
+    public static void set(Connection conn, String part, int version) throws SQLException {
+        set(conn, part, version, 0);
+    }
+
+    /**
+     * Records the version of a part and how far its migration got, then commits
+     */
+    public static void set(Connection conn, String part, int version, long progress) throws SQLException {
+        //An UPDATE then an INSERT works the same in every engine
+        try (PreparedStatement update = conn.prepareStatement("UPDATE `" + TABLE + "` SET `version` = ?, `progress` = ? WHERE `table_name` = ? AND `component` = ?")) {
+            update.setInt(1, version);
+            update.setLong(2, progress);
+            update.setString(3, Config.DbHawkEyeTable);
+            update.setString(4, part);
+
+            if (update.executeUpdate() == 0) {
+                try (PreparedStatement insert = conn.prepareStatement("INSERT INTO `" + TABLE + "` (`table_name`, `component`, `version`, `progress`) VALUES (?, ?, ?, ?)")) {
+                    insert.setString(1, Config.DbHawkEyeTable);
+                    insert.setString(2, part);
+                    insert.setInt(3, version);
+                    insert.setLong(4, progress);
+                    insert.executeUpdate();
+                }
+            }
+        }
+
+        conn.commit();
+        parts.put(part, new long[]{version, progress});
+    }
+
+    /**
+     * Reads the progress older versions kept in a file in the plugin folder, then removes the file
+     *
+     * @return the progress in the file, or 0 if there is none
+     */
+    public static long importProgress(File file) {
+        if (!file.exists()) return 0;
+
+        long progress = 0;
+
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            progress = in.readLong();
+        } catch (IOException ex) {
+            Util.debug("Unable to read " + file.getName() + ": " + ex.getMessage());
+        }
+
+        if (!file.delete())
+            Util.debug("Unable to delete " + file.getName());
+
+        return progress;
+    }
+
+}
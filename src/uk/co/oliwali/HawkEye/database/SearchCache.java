@@ -0,0 +1,265 @@
+package uk.co.oliwali.HawkEye.database;
+
+import org.bukkit.util.Vector;
+import uk.co.oliwali.HawkEye.DataType;
+import uk.co.oliwali.HawkEye.SearchParser;
+import uk.co.oliwali.HawkEye.database.SearchQuery.SearchDir;
+import uk.co.oliwali.HawkEye.database.SearchQuery.StatsGroup;
+import uk.co.oliwali.HawkEye.entry.PackedEntry;
+import uk.co.oliwali.HawkEye.util.Config;
+import uk.co.oliwali.HawkEye.util.Metrics;
+
+import java.util.*;
+
+/**
+ * Keeps the results of recent searches, so looking at the same spot again doesn't query the database.
+ * Searches are keyed by everything in their {@link SearchParser} that changes the results, in a fixed order.
+ * The writer moves a watermark on with every batch and marks the chunks it wrote to with it. A cached area search
+ * stays valid until a chunk in its area is written to, any other search until anything is written.
+ * Deletes clear the whole cache
+ */
+public class SearchCache {
+
+    /**
+     * Chunks marked by the writer before everything in the cache is dropped
+     */
+    private static final int MAX_DIRTY = 8192;
+
+    private static final LinkedHashMap<String, Cached> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Chunks written to, by world, with the watermark they were last written at
+     */
+    private static final Map<String, Map<Long, Long>> dirty = new HashMap<>();
+
+    private static int dirtySize = 0;
+
+    private static long watermark = 0;
+
+    /**
+     * Watermark the chunk marks were last dropped at, they only cover writes after it
+     */
+    private static long marksFrom = 0;
+
+    public static boolean isEnabled() {
+        return Config.SearchCacheSize > 0;
+    }
+
+    /**
+     * Gets the canonical form of a search, two searches with the same key always have the same results
+     *
+     * @param group group of a stats search, or null for a search
+     */
+    public static String key(SearchParser parser, SearchDir dir, StatsGroup group) {
+        StringBuilder key = new StringBuilder(group == null ? "search" : "stats " + group).append('|').append(dir);
+
+        List<String> players = new ArrayList<>();
+        for (String player : parser.players) players.add(player.toLowerCase());
+        append(key, players);
+
+        List<String> actions = new ArrayList<>();
+        if (parser.actions != null)
+            for (DataType type : parser.actions) actions.add(Integer.toString(type.getId()));
+        append(key, actions);
+
+        List<String> worlds = new ArrayList<>();
+        if (parser.worlds != null)
+            for (String world : parser.worlds) worlds.add(world.toLowerCase());
+        append(key, worlds);
+
+        key.append('|').append(block(parser.loc)).append('|').append(block(parser.minLoc)).append('|').append(block(parser.maxLoc));
+        key.append('|').append(parser.dateFrom).append('|').append(parser.dateTo);
+
+        List<String> filters = new ArrayList<>();
+        if (parser.filters != null)
+            for (String filter : parser.filters) filters.add(filter.toLowerCase());
+        append(key, filters);
+
+        return key.toString();
+    }
+
+    private static void append(StringBuilder key, List<String> values) {
+        Collections.sort(values);
+        key.append('|').append(values);
+    }
+
+    private static String block(Vector vector) {
+        return vector == null ? "-" : vector.getBlockX() + "," + vector.getBlockY() + "," + vector.getBlockZ();
+    }
+
+    /**
+     * Gets the watermark to cache results with, taken before the search is run so anything written during it counts
+     */
+    public static synchronized long mark() {
+        return watermark;
+    }
+
+    /**
+     * Gets the cached results of a search
+     *
+     * @return the results, or null if they aren't cached or something has been written to their area since
+     */
+    public static synchronized Object get(String key) {
+        Cached cached = cache.get(key);
+
+        if (cached == null) {
+            Metrics.cacheMisses.incrementAndGet();
+            return null;
+        }
+
+        if (!isValid(cached)) {
+            cache.remove(key);
+            Metrics.cacheInvalidations.incrementAndGet();
+            Metrics.cacheMisses.incrementAndGet();
+            return null;
+        }
+
+        Metrics.cacheHits.incrementAndGet();
+        return cached.value;
+    }
+
+    /**
+     * Caches the results of a search
+     *
+     * @param mark watermark from before the search was run
+     */
+    public static synchronized void put(String key, SearchParser parser, Object value, long mark) {
+        if (!isEnabled()) return;
+
+        Cached cached = new Cached(value, mark);
+
+        //Searches limited to an area of known worlds only care about writes to the chunks of that area
+        Vector min = parser.minLoc != null ? parser.minLoc : parser.loc;
+        Vector max = parser.minLoc != null ? parser.maxLoc : parser.loc;
+
+        if (min != null && parser.worlds != null) {
+            for (String world : parser.worlds) {
+                if (world.startsWith("!")) {
+                    cached.worlds = null;
+                    break;
+                }
+                cached.worlds.add(world.toLowerCase());
+            }
+
+            cached.minX = min.getBlockX() >> 4;
+            cached.minZ = min.getBlockZ() >> 4;
+            cached.maxX = max.getBlockX() >> 4;
+            cached.maxZ = max.getBlockZ() >> 4;
+        } else
+            cached.worlds = null;
+
+        cache.put(key, cached);
+
+        while (cache.size() > Config.SearchCacheSize) {
+            Iterator<Cached> eldest = cache.values().iterator();
+            eldest.next();
+            eldest.remove();
+            Metrics.cacheEvictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Moves the watermark on past a batch the writer has committed, marking the chunks it wrote to
+     */
+    public static synchronized void written(List<PackedEntry> batch) {
+        watermark++;
+
+        //Nothing cached that the marks could invalidate
+        if (cache.isEmpty()) {
+            dropMarks();
+            return;
+        }
+
+        for (PackedEntry entry : batch) {
+            String world = DataManager.getWorld(entry).toLowerCase();
+            Map<Long, Long> chunks = dirty.get(world);
+
+            if (chunks == null) {
+                chunks = new HashMap<>();
+                dirty.put(world, chunks);
+            }
+
+            if (chunks.put(ChunkKeys.key(entry.getX(), entry.getZ()), watermark) == null)
+                dirtySize++;
+        }
+
+        if (dirtySize > MAX_DIRTY) {
+            Metrics.cacheInvalidations.addAndGet(cache.size());
+            cache.clear();
+            dropMarks();
+        }
+    }
+
+    /**
+     * Drops everything in the cache, after rows have been deleted.
+     * Moves the watermark on too, so searches running during the delete don't cache what they found
+     */
+    public static synchronized void clear() {
+        Metrics.cacheInvalidations.addAndGet(cache.size());
+        cache.clear();
+        watermark++;
+        dropMarks();
+    }
+
+    private static void dropMarks() {
+        dirty.clear();
+        dirtySize = 0;
+        marksFrom = watermark;
+    }
+
+    public static synchronized int size() {
+        return cache.size();
+    }
+
+    private static boolean isValid(Cached cached) {
+        if (System.currentTimeMillis() - cached.created > Config.SearchCacheMaxAge * 1000L) return false;
+
+        if (cached.mark == watermark) return true;
+
+        //Writes since the search ran may have gone unmarked
+        if (cached.worlds == null || cached.mark < marksFrom) return false;
+
+        for (String world : cached.worlds) {
+            Map<Long, Long> chunks = dirty.get(world);
+            if (chunks == null) continue;
+
+            //Walk whichever is smaller, the chunks of the area or those written to
+            long area = (long) (cached.maxX - cached.minX + 1) * (cached.maxZ - cached.minZ + 1);
+
+            if (area <= chunks.size()) {
+                for (int x = cached.minX; x <= cached.maxX; x++)
+                    for (int z = cached.minZ; z <= cached.maxZ; z++) {
+                        Long mark = chunks.get(ChunkKeys.key(x << 4, z << 4));
+                        if (mark != null && mark > cached.mark) return false;
+                    }
+            } else {
+                for (Map.Entry<Long, Long> chunk : chunks.entrySet()) {
+                    if (chunk.getValue() <= cached.mark) continue;
+
+                    long x = (chunk.getKey() >> ChunkKeys.BITS) - ChunkKeys.OFFSET;
+                    long z = (chunk.getKey() & ((1L << ChunkKeys.BITS) - 1)) - ChunkKeys.OFFSET;
+
+                    if (x >= cached.minX && x <= cached.maxX && z >= cached.minZ && z <= cached.maxZ) return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private static class Cached {
+
+        private final Object value;
+        private final long mark;
+        private final long created = System.currentTimeMillis();
+
+        private Set<String> worlds = new HashSet<>();
+        private int minX, minZ, maxX, maxZ;
+
+        private Cached(Object value, long mark) {
+            this.value = value;
+            this.mark = mark;
+        }
+    }
+
+}
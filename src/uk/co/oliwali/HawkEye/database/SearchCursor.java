@@ -0,0 +1,195 @@
+package uk.co.oliwali.HawkEye.database;
+
+import uk.co.oliwali.HawkEye.SearchParser;
+import uk.co.oliwali.HawkEye.database.SearchQuery.SearchDir;
+import uk.co.oliwali.HawkEye.entry.DataEntry;
+import uk.co.oliwali.HawkEye.util.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Keeps the place of a paged search, so further pages are only read when they are asked for.
+ * Database rows are read by keyset on data_id, archived and native rows by reading the top of their matches again
+ * with a higher limit. Each store holds back the rows it read past what was shown, so the next page carries on from them.
+ *
+ * Only the search thread reading a page touches the stores and the results as they are read.
+ * Everyone else sees the snapshot published once the page has been read, which later pages never change
+ */
+public class SearchCursor {
+
+    private final SearchParser parser;
+    private final SearchDir dir;
+    private final long started;
+
+    private final List<DataEntry> entries = new ArrayList<>();
+
+    private volatile List<DataEntry> published = Collections.emptyList();
+    private volatile boolean more = true;
+
+    final Source database = new Source();
+    final Source archive = new Source();
+    final Source natives = new Source();
+
+    /**
+     * data_id of the last database row read
+     */
+    long lastId;
+
+    private boolean fetching = false;
+
+    SearchCursor(SearchParser parser, SearchDir dir) {
+        this(parser, dir, System.currentTimeMillis());
+    }
+
+    private SearchCursor(SearchParser parser, SearchDir dir, long started) {
+        this.parser = parser;
+        this.dir = dir;
+        this.started = started;
+        lastId = dir == SearchDir.DESC ? Long.MAX_VALUE : 0;
+    }
+
+    /**
+     * Copies the cursor, so cached results can be paged through by several players at once
+     */
+    SearchCursor copy() {
+        SearchCursor copy = new SearchCursor(parser, dir, started);
+
+        copy.entries.addAll(entries);
+        copy.published = published;
+        copy.more = more;
+        copy.lastId = lastId;
+        database.copyTo(copy.database);
+        archive.copyTo(copy.archive);
+        natives.copyTo(copy.natives);
+
+        return copy;
+    }
+
+    public SearchParser getParser() {
+        return parser;
+    }
+
+    public SearchDir getDir() {
+        return dir;
+    }
+
+    /**
+     * Gets when the search was started, rows logged to local stores since are left out so their pages don't shift
+     */
+    public long getStarted() {
+        return started;
+    }
+
+    /**
+     * Gets the results read up to the last page, in the order they are shown
+     */
+    public List<DataEntry> getEntries() {
+        return published;
+    }
+
+    /**
+     * Checks if there were results past those read up to the last page
+     */
+    public boolean hasMore() {
+        return more;
+    }
+
+    /**
+     * Gets the number of results read so far, for the search thread reading them
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Publishes the results read so far once a page has been read
+     */
+    void publish() {
+        published = Collections.unmodifiableList(new ArrayList<>(entries));
+
+        if (Config.MaxLines > 0 && entries.size() >= Config.MaxLines)
+            more = false;
+        else
+            more = !database.isExhausted() || !archive.isExhausted() || !natives.isExhausted();
+    }
+
+    /**
+     * Marks the cursor as reading more results
+     *
+     * @return false if it is already reading some
+     */
+    public synchronized boolean startFetch() {
+        if (fetching) return false;
+
+        fetching = true;
+        return true;
+    }
+
+    synchronized void endFetch() {
+        fetching = false;
+    }
+
+    /**
+     * Moves held back rows into the results in order, until there are enough or a store needs reading again
+     *
+     * @param total        number of results wanted
+     * @param deferArchive true if the archive hasn't been read as the database rows, all newer, haven't run out yet
+     * @return true if the stores should be read again to carry on
+     */
+    boolean merge(int total, Comparator<DataEntry> order, boolean deferArchive) {
+        while (entries.size() < total) {
+            Source next = null;
+
+            for (Source source : new Source[]{database, archive, natives}) {
+                if (source.pending.isEmpty()) {
+                    if (source.done) continue;
+
+                    //The archive can wait while there are database rows left to show ahead of it
+                    if (source == archive && deferArchive && !database.isExhausted()) continue;
+
+                    //Can't tell what comes next without reading the store
+                    return true;
+                }
+
+                if (next == null || order.compare(source.pending.getFirst(), next.pending.getFirst()) < 0)
+                    next = source;
+            }
+
+            if (next == null) return false;
+
+            entries.add(next.pending.removeFirst());
+        }
+
+        return false;
+    }
+
+    /**
+     * Rows read from one store that haven't been shown yet
+     */
+    static class Source {
+
+        final LinkedList<DataEntry> pending = new LinkedList<>();
+
+        /**
+         * Number of rows read from the top of a local store's matches
+         */
+        int read = 0;
+
+        boolean done = false;
+
+        boolean isExhausted() {
+            return done && pending.isEmpty();
+        }
+
+        void copyTo(Source source) {
+            source.pending.addAll(pending);
+            source.read = read;
+            source.done = done;
+        }
+    }
+
+}
@@ -0,0 +1,216 @@
+package uk.co.oliwali.HawkEye.database;
+
+import uk.co.oliwali.HawkEye.util.Config;
+import uk.co.oliwali.HawkEye.util.Util;
+
+import java.util.*;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs searches and lookups on a few threads, so a burst of them can't take every connection away from the writer.
+ * Queued tasks run in order of priority, then in the order they were submitted.
+ * Each player can only have a few tasks queued or running at once, and can cancel them
+ */
+public class SearchExecutor implements AutoCloseable {
+
+    public enum Priority {
+        /**
+         * Tool, here and tpto lookups, answered while the player waits on the spot
+         */
+        HIGH,
+        NORMAL,
+        /**
+         * Rollbacks, rebuilds and deletes, which may read a large part of the table
+         */
+        LOW
+    }
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Queued and running tasks by the name of the player that submitted them
+     */
+    private final Map<String, Set<Task>> owned = new HashMap<>();
+
+    public SearchExecutor(int threads) {
+        final AtomicInteger count = new AtomicInteger();
+
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "HawkEye - Search #" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queues a task, unless its owner already has as many as they are allowed
+     *
+     * @return false if the task was turned down
+     */
+    public boolean submit(Task task) {
+        if (task.owner != null) {
+            synchronized (owned) {
+                Set<Task> tasks = owned.get(task.owner);
+
+                if (tasks == null) {
+                    tasks = new HashSet<>();
+                    owned.put(task.owner, tasks);
+                }
+
+                if (Config.SearchesPerPlayer > 0 && tasks.size() >= Config.SearchesPerPlayer)
+                    return false;
+
+                tasks.add(task);
+            }
+        }
+
+        task.executor = this;
+
+        try {
+            executor.execute(task);
+        } catch (RuntimeException ex) {
+            //Shutting down
+            finished(task);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Cancels every task a player has queued or running
+     *
+     * @return number of tasks cancelled
+     */
+    public int cancel(String owner) {
+        List<Task> tasks;
+
+        synchronized (owned) {
+            Set<Task> set = owned.get(owner);
+            if (set == null) return 0;
+            tasks = new ArrayList<>(set);
+        }
+
+        for (Task task : tasks) {
+            //Queued tasks are just dropped, running ones are asked to stop
+            if (executor.remove(task)) {
+                finished(task);
+                task.dropped();
+            } else
+                task.cancel();
+        }
+
+        return tasks.size();
+    }
+
+    /**
+     * Gets the number of tasks waiting for a thread
+     */
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    public int getRunning() {
+        return executor.getActiveCount();
+    }
+
+    private void finished(Task task) {
+        if (task.owner == null) return;
+
+        synchronized (owned) {
+            Set<Task> tasks = owned.get(task.owner);
+
+            if (tasks != null && tasks.remove(task) && tasks.isEmpty())
+                owned.remove(task.owner);
+        }
+    }
+
+    /**
+     * Stops taking tasks and cancels those running
+     */
+    @Override
+    public void close() {
+        List<Task> running = new ArrayList<>();
+
+        synchronized (owned) {
+            for (Set<Task> tasks : owned.values())
+                running.addAll(tasks);
+        }
+
+        for (Runnable queued : executor.shutdownNow()) {
+            running.remove(queued);
+            ((Task) queued).dropped();
+        }
+
+        for (Task task : running)
+            task.cancel();
+
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS))
+                Util.warning("Searches still running after shutdown");
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * Something run by the executor
+     */
+    public abstract static class Task implements Runnable, Comparable<Task> {
+
+        private static final AtomicLong sequence = new AtomicLong();
+
+        private final long order = sequence.incrementAndGet();
+        private final Priority priority;
+        private final String owner;
+
+        private SearchExecutor executor;
+
+        /**
+         * @param owner name of the player the task is run for, or null if it isn't limited
+         */
+        protected Task(Priority priority, String owner) {
+            this.priority = priority;
+            this.owner = owner;
+        }
+
+        /**
+         * Does the work of the task
+         */
+        protected abstract void execute();
+
+        /**
+         * Asks the task to stop if it is running, does nothing by default
+         */
+        public void cancel() {
+        }
+
+        /**
+         * Called instead of {@link #execute()} when the task is taken off the queue before it ran, does nothing by default
+         */
+        protected void dropped() {
+        }
+
+        @Override
+        public final void run() {
+            try {
+                execute();
+            } finally {
+                executor.finished(this);
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            int order = priority.compareTo(other.priority);
+            return order != 0 ? order : Long.compare(this.order, other.order);
+        }
+    }
+
+}
@@ -1,63 +1,227 @@
 package uk.co.oliwali.HawkEye.database;
 
+import org.bukkit.command.CommandSender;
 import uk.co.oliwali.HawkEye.DataType;
 import uk.co.oliwali.HawkEye.SearchParser;
 import uk.co.oliwali.HawkEye.callbacks.BaseCallback;
 import uk.co.oliwali.HawkEye.callbacks.DeleteCallback;
+import uk.co.oliwali.HawkEye.callbacks.RebuildCallback;
+import uk.co.oliwali.HawkEye.callbacks.RollbackCallback;
+import uk.co.oliwali.HawkEye.callbacks.SearchCallback;
+import uk.co.oliwali.HawkEye.callbacks.StatsCallback;
+import uk.co.oliwali.HawkEye.entry.DataEntry;
 import uk.co.oliwali.HawkEye.util.Config;
+import uk.co.oliwali.HawkEye.util.Metrics;
 import uk.co.oliwali.HawkEye.util.Util;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.*;
 
 /**
- * Threadable class for performing a search query
+ * Task for performing a search query on the {@link SearchExecutor}
  * Used for in-game searches and rollbacks
  *
  * @author oliverw92
  */
-public class SearchQuery extends Thread {
+public class SearchQuery extends SearchExecutor.Task {
+
+    /**
+     * Rows a paged search with filters reads from the database at a time, as most of them may not match
+     */
+    private static final int FILTER_SCAN_ROWS = 1000;
+
+    /**
+     * Database rows read ahead of making their entries, so the player names of the batch are looked up together
+     */
+    private static final int NAME_BATCH = 500;
 
     private final SearchParser parser;
     private final SearchDir dir;
     private final BaseCallback callBack;
     private final boolean delete;
+    private final StatsGroup group;
+    private final SearchCursor cursor;
+    private final int want;
+    private final boolean cacheable;
+
+    private volatile Statement statement = null;
+    private volatile boolean cancelled = false;
 
     public SearchQuery(BaseCallback callBack, SearchParser parser, SearchDir dir) {
+        this(callBack, parser, dir, priority(callBack));
+    }
+
+    public SearchQuery(BaseCallback callBack, SearchParser parser, SearchDir dir, SearchExecutor.Priority priority) {
+        super(priority, parser.player == null ? null : parser.player.getName());
         this.callBack = callBack;
         this.parser = parser;
         this.dir = dir;
         this.delete = (callBack instanceof DeleteCallback);
-        //Start thread
-        this.start();
+        this.group = callBack instanceof StatsCallback ? ((StatsCallback) callBack).getGroup() : null;
+        //Searches to be shown a page at a time only read the first few pages
+        this.cursor = Config.PagedSearch && callBack instanceof SearchCallback ? new SearchCursor(parser, dir) : null;
+        this.want = Config.SearchFetchRows;
+        //Only results that are just shown can be shared, rollbacks and rebuilds work on theirs
+        this.cacheable = callBack instanceof SearchCallback || callBack instanceof StatsCallback;
+        submit();
+    }
+
+    /**
+     * Reads more results of a paged search
+     *
+     * @param rows  number of results the cursor should have once done
+     * @param owner player paging through the results
+     */
+    public SearchQuery(SearchCallback callBack, SearchCursor cursor, int rows, CommandSender owner) {
+        super(SearchExecutor.Priority.HIGH, owner.getName());
+        this.callBack = callBack;
+        this.parser = cursor.getParser();
+        this.dir = cursor.getDir();
+        this.delete = false;
+        this.group = null;
+        this.cursor = cursor;
+        //Read a few pages past the one asked for, so paging on doesn't query every time
+        this.want = Math.max(rows, cursor.getEntries().size() + Config.SearchFetchRows);
+        this.cacheable = false;
+        submit();
+    }
+
+    /**
+     * Searches that read large parts of the table wait behind those a player is waiting on
+     */
+    private static SearchExecutor.Priority priority(BaseCallback callBack) {
+        if (callBack instanceof RollbackCallback || callBack instanceof RebuildCallback || callBack instanceof DeleteCallback)
+            return SearchExecutor.Priority.LOW;
+
+        return SearchExecutor.Priority.NORMAL;
+    }
+
+    private void submit() {
+        if (DataManager.getSearchExecutor().submit(this)) return;
+
+        if (cursor != null) cursor.endFetch();
+        callBack.error(SearchError.BUSY, "&cYou already have " + Config.SearchesPerPlayer + " searches running, wait for them or use &7/hawk cancel");
     }
 
     /**
      * Run the search query
      */
     @Override
-    public void run() {
+    protected void execute() {
+        try {
+            search();
+        } finally {
+            if (cursor != null) cursor.endFetch();
+        }
+    }
+
+    /**
+     * Lets the player page again and tells them the search won't run
+     */
+    @Override
+    protected void dropped() {
+        if (cursor != null) cursor.endFetch();
+        callBack.error(SearchError.CANCELLED, "&cSearch cancelled");
+    }
+
+    /**
+     * Stops the running query and gives up on the search
+     */
+    @Override
+    public void cancel() {
+        //Deletes that have started are left to finish
+        if (delete && statement != null) return;
+
+        cancelled = true;
+
+        Statement running = statement;
+
+        try {
+            if (running != null) running.cancel();
+        } catch (SQLException ex) {
+            Util.debug("Unable to cancel search: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Prepares a statement /hawk cancel can stop, reads giving up once the search timeout is up
+     */
+    private PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+        if (cancelled) throw new SQLException("Search cancelled");
+
+        PreparedStatement stmnt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+
+        //Deletes are left to finish, stopping them part way would leave some rows deleted and some not
+        if (!delete && Config.SearchTimeout > 0)
+            stmnt.setQueryTimeout(Config.SearchTimeout);
+
+        statement = stmnt;
+        return stmnt;
+    }
+
+    private void search() {
 
         Util.debug("Beginning search query");
 
+        long start = System.nanoTime();
+
+        //Rows still being copied out of a legacy table would be missing from cached results
+        String cacheKey = cacheable && SearchCache.isEnabled() && SchemaVersion.get(SchemaVersion.TABLES) != SchemaVersion.TABLES_MIGRATING ?
+                SearchCache.key(parser, dir, group) : null;
+
+        long mark = SearchCache.mark();
+
+        if (cacheKey != null && fromCache(cacheKey, start)) return;
+
         StringBuilder sql = new StringBuilder();
 
-        sql.append((delete ? "DELETE FROM " : "SELECT * FROM "));
+        //Binary, dictionary and side table data can't be matched with LIKE, so filters are applied to the decoded data instead
+        boolean filterRows = parser.filters != null && (DataConverter.isColumnPresent() || DataDictionary.isColumnPresent() || PayloadTable.isPresent());
+
+        //SQLite can't order a DELETE, so it selects the rows and deletes them by id like filtered deletes do.
+        //Rows with a payload in the side table are deleted by id too, so their payload goes with them
+        boolean selectDelete = delete && (filterRows || DataManager.getBackend().isEmbedded() || PayloadTable.isPresent());
+
+        //Deletes only need the data to filter on, the side table is left alone otherwise
+        boolean needData = !delete || filterRows;
+
+        //Counts are grouped by the database unless the filters have to be applied to each row first
+        boolean grouped = group != null && !filterRows;
+
+        if (grouped)
+            sql.append("SELECT ").append(group.getColumns()).append(", COUNT(*) FROM ");
+        else
+            sql.append((delete && !selectDelete ? "DELETE FROM " : "SELECT *" + (needData ? PayloadTable.select() : "") + " FROM "));
+
+        sql.append("`").append(Config.DbHawkEyeTable).append("`");
 
-        sql.append("`").append(Config.DbHawkEyeTable).append("` WHERE ");
+        int hintAt = sql.length();
+
+        sql.append(" WHERE ");
 
         List<String> args = new LinkedList<>();
         List<Object> binds = new LinkedList<>();
 
+        boolean playerIncluded = false;
+        boolean worldIncluded = false;
+
+        List<Integer> pids = new ArrayList<>();
+        List<Integer> npids = new ArrayList<>();
+        List<Integer> wids = new ArrayList<>();
+        List<Integer> nwids = new ArrayList<>();
+
         //Match players from database list
         Util.debug("Building players");
         if (parser.players.size() >= 1) {
 
-            List<Integer> pids = new ArrayList<>();
-            List<Integer> npids = new ArrayList<>();
-
             for (String player : parser.players) {
 
                 boolean ignoredUser = player.startsWith("!");
@@ -75,6 +239,8 @@ public class SearchQuery extends Thread {
                 }
             }
 
+            playerIncluded = pids.size() > 0;
+
             //Include players
             if (pids.size() > 0)
                 args.add("player_id IN (" + Util.join(pids, ",") + ")");
@@ -91,9 +257,6 @@ public class SearchQuery extends Thread {
         Util.debug("Building worlds");
         if (parser.worlds != null) {
 
-            List<Integer> wids = new ArrayList<>();
-            List<Integer> nwids = new ArrayList<>();
-
             for (String world : parser.worlds) {
 
                 boolean ignoreWorld = world.startsWith("!");
@@ -111,6 +274,8 @@ public class SearchQuery extends Thread {
                 }
             }
 
+            worldIncluded = wids.size() > 0;
+
             //Include worlds
             if (wids.size() > 0)
                 args.add("world_id IN (" + Util.join(wids, ",") + ")");
@@ -143,9 +308,14 @@ public class SearchQuery extends Thread {
             binds.add(parser.dateTo);
         }
 
+        //Areas in known worlds can seek on the chunks they cover instead of scanning a range of x
+        boolean chunked = parser.minLoc != null && worldIncluded && ChunkKeys.isSearchable();
+
         //Check if location is exact or a range
         Util.debug("Building location");
         if (parser.minLoc != null) {
+            if (chunked)
+                args.add(ChunkKeys.condition(parser.minLoc.getBlockX(), parser.minLoc.getBlockZ(), parser.maxLoc.getBlockX(), parser.maxLoc.getBlockZ()));
             args.add("(x BETWEEN " + parser.minLoc.getBlockX() + " AND " + parser.maxLoc.getBlockX() + ")");
             args.add("(y BETWEEN " + parser.minLoc.getBlockY() + " AND " + parser.maxLoc.getBlockY() + ")");
             args.add("(z BETWEEN " + parser.minLoc.getBlockZ() + " AND " + parser.maxLoc.getBlockZ() + ")");
@@ -157,23 +327,38 @@ public class SearchQuery extends Thread {
 
         //Build the filters into SQL form
         Util.debug("Building filters");
-        if (parser.filters != null) {
+        if (parser.filters != null && !filterRows) {
             for (String filter : parser.filters) {
                 args.add("data LIKE ?");
                 binds.add("%" + filter + "%");
             }
         }
 
+        //Paged searches carry on from the last row they read, bound when the query is run
+        if (cursor != null)
+            args.add("data_id " + (dir == SearchDir.DESC ? "<" : ">") + " ?");
+
         //Build WHERE clause
         sql.append(Util.join(args, " AND "));
 
-        //Add order by
-        Util.debug("Ordering by data_id");
-        sql.append(" ORDER BY `data_id` ").append(dir.toString());
+        //DELETE doesn't take index hints
+        if (!delete || selectDelete)
+            sql.insert(hintAt, indexHint(worldIncluded, playerIncluded, chunked));
 
-        //Check the limits
+        //Counts only need grouping, they are sorted once every store has been counted
+        if (grouped)
+            sql.append(" GROUP BY ").append(group.getColumns());
+        else if (group == null) {
+            //Add order by
+            Util.debug("Ordering by data_id");
+            sql.append(" ORDER BY `data_id` ").append(dir.toString());
+        }
+
+        //Check the limits, counts take every match
         Util.debug("Building limits");
-        if (Config.MaxLines > 0)
+        if (cursor != null)
+            sql.append(" LIMIT ").append(cursorLimit(filterRows));
+        else if (Config.MaxLines > 0 && !filterRows && group == null)
             sql.append(" LIMIT ").append(Config.MaxLines);
 
         //Util.debug("Searching: " + sql);
@@ -182,8 +367,122 @@ public class SearchQuery extends Thread {
         List results = new ArrayList();
         int deleted = 0;
 
+        //Native worlds are never written to the database, there is no point asking it about them
+        boolean nativeOnly = worldIncluded && NativeStore.get() != null;
+
+        for (Integer wid : wids)
+            nativeOnly &= NativeStore.handles(DataManager.getWorldDb().get(wid));
+
+        try {
+            if (group != null) {
+                Map<String, Integer> counts = new HashMap<>();
+
+                if (!nativeOnly)
+                    countDatabase(sql.toString(), binds, counts, grouped);
+
+                countLocal(counts, new LocalFilter(pids, npids, wids, nwids));
+
+                ((StatsCallback) callBack).counts = counts;
+            } else if (cursor != null) {
+                fetchPage(sql.toString(), binds, filterRows, nativeOnly, new LocalFilter(pids, npids, wids, nwids));
+                results = cursor.getEntries();
+            } else if (!nativeOnly)
+                deleted = searchDatabase(sql.toString(), binds, results, selectDelete, filterRows);
+
+            //Rows old enough to have been archived and rows from native worlds live in segment files instead
+            if (delete)
+                deleted += deleteLocal(pids, npids, wids, nwids);
+            else if (cursor == null && group == null)
+                searchLocal(results, pids, npids, wids, nwids);
+        } catch (Exception ex) {
+            if (cancelled) {
+                callBack.error(SearchError.CANCELLED, "&cSearch cancelled");
+                return;
+            }
+            if (ex instanceof SQLTimeoutException) {
+                callBack.error(SearchError.TIMED_OUT, "&cSearch took longer than " + Config.SearchTimeout + " seconds, try narrowing it down");
+                return;
+            }
+            Util.severe("Error executing MySQL query: " + ex);
+            ex.printStackTrace();
+            callBack.error(SearchError.MYSQL_ERROR, "Error executing MySQL query: " + ex);
+            return;
+        } finally {
+            statement = null;
+        }
+
+        Util.debug(results.size() + " results found");
+
+        Metrics.searches.incrementAndGet();
+        Metrics.searchLatency.record(Metrics.since(start));
+
+        if (delete)
+            SearchCache.clear();
+
+        //The cache keeps its own copy, the callback and later pages change theirs
+        if (cacheKey != null) {
+            if (group != null)
+                SearchCache.put(cacheKey, parser, new HashMap<>(((StatsCallback) callBack).counts), mark);
+            else if (cursor != null)
+                SearchCache.put(cacheKey, parser, cursor.copy(), mark);
+            else
+                SearchCache.put(cacheKey, parser, new ArrayList<DataEntry>(results), mark);
+        }
+
+        //Run callback
+        if (delete)
+            ((DeleteCallback) callBack).deleted = deleted;
+        else
+            callBack.results = results;
+
+        if (cursor != null)
+            ((SearchCallback) callBack).cursor = cursor;
+
+        callBack.execute();
+
+        Util.debug("Search complete");
+
+    }
+
+    /**
+     * Hands the callback a copy of the cached results of the search
+     *
+     * @return false if the results aren't cached
+     */
+    @SuppressWarnings("unchecked")
+    private boolean fromCache(String key, long start) {
+        Object cached = SearchCache.get(key);
+
+        if (cached == null) return false;
+
+        Util.debug("Search results found in cache");
+
+        if (group != null) {
+            ((StatsCallback) callBack).counts = new HashMap<>((Map<String, Integer>) cached);
+        } else if (cached instanceof SearchCursor) {
+            SearchCursor copy = ((SearchCursor) cached).copy();
+            ((SearchCallback) callBack).cursor = copy;
+            callBack.results = copy.getEntries();
+        } else
+            callBack.results = new ArrayList<>((List<DataEntry>) cached);
+
+        Metrics.searches.incrementAndGet();
+        Metrics.searchLatency.record(Metrics.since(start));
+
+        callBack.execute();
+        return true;
+    }
+
+    /**
+     * Runs the search against the database
+     *
+     * @return number of rows deleted, if this is a delete
+     */
+    private int searchDatabase(String sql, List<Object> binds, List results, boolean selectDelete, boolean filterRows) throws Exception {
+        int deleted = 0;
+
         try (Connection conn = DataManager.getConnection();
-             PreparedStatement stmnt = conn.prepareStatement(sql.toString(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+             PreparedStatement stmnt = prepare(conn, sql)) {
             //Execute query
 
             Util.debug("Preparing statement");
@@ -194,9 +493,13 @@ public class SearchQuery extends Thread {
 
             Util.debug("Searching: " + stmnt.toString());
 
-            if (delete) {
+            if (selectDelete) {
+                Util.debug("Deleting selected entries");
+                deleted = deleteSelected(conn, stmnt, filterRows);
+            } else if (delete) {
                 Util.debug("Deleting entries");
                 deleted = stmnt.executeUpdate();
+                conn.commit();
             } else {
                 try (ResultSet res = stmnt.executeQuery()) {
 
@@ -206,64 +509,698 @@ public class SearchQuery extends Thread {
                     Map<Integer, String> playerCache = new HashMap<>();
                     Map<Integer, String> worldCache = new HashMap<>();
 
-                    DataType type;
+                    List<DatabaseRow> rows = new ArrayList<>(NAME_BATCH);
 
-                    String name;
-                    String world;
+                    String data;
 
                     //Retrieve results
                     while (res.next()) {
 
-                        type = DataType.fromId(res.getInt(4));
+                        //Rows already sent by the server keep coming after the query is cancelled
+                        if (cancelled) throw new SQLException("Search cancelled");
 
-                        name = playerCache.get(res.getInt(3));
+                        data = readData(res);
 
-                        world = worldCache.get(res.getInt(5));
+                        if (filterRows) {
+                            if (!matchesFilters(data)) continue;
 
-                        if (name == null) {
-                            name = DataManager.getPlayerDb().get(res.getInt(3));
-                            playerCache.put(res.getInt(3), name);
+                            if (Config.MaxLines > 0 && results.size() + rows.size() >= Config.MaxLines) break;
                         }
 
-                        if (world == null) {
-                            world = DataManager.getWorldDb().get(res.getInt(5));
-                            worldCache.put(res.getInt(5), world);
+                        rows.add(new DatabaseRow(res, data));
+
+                        if (rows.size() >= NAME_BATCH) {
+                            toEntries(rows, results, playerCache, worldCache);
+                            rows.clear();
                         }
+                    }
+
+                    toEntries(rows, results, playerCache, worldCache);
+                }
+            }
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Creates the entries for a batch of database rows, looking up the names they need together first
+     */
+    private static void toEntries(List<DatabaseRow> rows, Collection<? super DataEntry> entries, Map<Integer, String> playerCache, Map<Integer, String> worldCache) throws Exception {
+        DatabaseRow.preload(rows);
+
+        for (DatabaseRow row : rows) {
+            DataType type = DataType.fromId(row.action);
+
+            String name = playerCache.get(row.playerId);
+
+            String world = worldCache.get(row.worldId);
+
+            if (name == null) {
+                name = DataManager.getPlayerDb().get(row.playerId);
+                playerCache.put(row.playerId, name);
+            }
+
+            if (world == null) {
+                world = DataManager.getWorldDb().get(row.worldId);
+                worldCache.put(row.worldId, world);
+            }
+
+            entries.add(type.getEntryFactory().create(
+                    name,               //Username
+                    row.timestamp,      //Timestamp of entry
+                    row.dataId,         //dataId
+                    type,               //Data-Type
+                    row.data,           //Raw-Data
+                    world,              //World Name
+                    row.x,              //X
+                    row.y,              //Y
+                    row.z               //Z
+            ));
+        }
+    }
+
+    /**
+     * Creates the entries for rows read from segment files
+     */
+    private static List<DataEntry> toEntries(List<ArchiveSegment.Row> rows) throws Exception {
+        List<DataEntry> entries = new ArrayList<>(rows.size());
+
+        for (ArchiveSegment.Row row : rows) {
+            DataType type = DataType.fromId(row.getAction());
+
+            entries.add(type.getEntryFactory().create(row.getPlayer(), new Timestamp(row.getTime()), (int) row.getDataId(),
+                    type, row.getData(), row.getWorld(), row.getX(), row.getY(), row.getZ()));
+        }
+        return entries;
+    }
+
+    /**
+     * Gets the order results from every store are shown in.
+     * Native ids are negative, so only the time orders rows from every store
+     */
+    private static Comparator<DataEntry> order(final SearchDir dir) {
+        return new Comparator<DataEntry>() {
+            @Override
+            public int compare(DataEntry a, DataEntry b) {
+                int order = a.getTimestamp().compareTo(b.getTimestamp());
+                if (order == 0) order = Integer.compare(Math.abs(a.getDataId()), Math.abs(b.getDataId()));
+                return dir == SearchDir.DESC ? -order : order;
+            }
+        };
+    }
+
+    /**
+     * Counts the database rows matching the search into their groups
+     *
+     * @param grouped true if the database groups and counts the rows, otherwise every row is read to apply the filters
+     */
+    private void countDatabase(String sql, List<Object> binds, Map<String, Integer> counts, boolean grouped) throws Exception {
+        try (Connection conn = DataManager.getConnection();
+             PreparedStatement stmnt = prepare(conn, sql)) {
+
+            ListIterator<Object> objIter = binds.listIterator();
+
+            for (int i = 0; i < binds.size(); i++)
+                stmnt.setObject(i + 1, objIter.next());
+
+            Util.debug("Counting: " + stmnt.toString());
+
+            try (ResultSet res = stmnt.executeQuery()) {
+                if (grouped && group == StatsGroup.PLAYER) {
+                    //One row per player, look their names up together
+                    Map<Integer, Integer> players = new LinkedHashMap<>();
+
+                    while (res.next())
+                        players.put(res.getInt(1), res.getInt(2));
+
+                    DataManager.getPlayerDb().preload(players.keySet());
+
+                    for (Map.Entry<Integer, Integer> player : players.entrySet())
+                        add(counts, DataManager.getPlayerDb().get(player.getKey()), player.getValue());
+
+                    return;
+                }
+
+                List<DatabaseRow> rows = new ArrayList<>(NAME_BATCH);
+
+                while (res.next()) {
+                    if (grouped) {
+                        add(counts, group.key(res), res.getInt(group.getColumnCount() + 1));
+                    } else {
+                        String data = readData(res);
 
-                        results.add(
-                                type.getEntryConstructor().newInstance(
-                                        name,               //Username
-                                        res.getTimestamp(2),//Timestamp of entry
-                                        res.getInt(1),      //dataId
-                                        type,               //Data-Type
-                                        res.getString(9),   //Raw-Data
-                                        world,              //World Name
-                                        res.getInt(6),      //X
-                                        res.getInt(7),      //Y
-                                        res.getInt(8)       //Z
-                                ));
+                        if (matchesFilters(data)) rows.add(new DatabaseRow(res, data));
+
+                        if (rows.size() >= NAME_BATCH) {
+                            count(rows, counts);
+                            rows.clear();
+                        }
                     }
                 }
+
+                count(rows, counts);
             }
-        } catch (Exception ex) {
-            Util.severe("Error executing MySQL query: " + ex);
-            ex.printStackTrace();
-            callBack.error(SearchError.MYSQL_ERROR, "Error executing MySQL query: " + ex);
-            return;
         }
+    }
 
-        Util.debug(results.size() + " results found");
+    /**
+     * Counts a batch of filtered database rows into their groups
+     */
+    private void count(List<DatabaseRow> rows, Map<String, Integer> counts) {
+        DatabaseRow.preload(rows);
 
-        //Run callback
-        if (delete)
-            ((DeleteCallback) callBack).deleted = deleted;
+        for (DatabaseRow row : rows)
+            add(counts, group.key(DataManager.getPlayerDb().get(row.playerId), row.action, DataManager.getWorldDb().get(row.worldId),
+                    row.x, row.z, row.timestamp.getTime()), 1);
+    }
+
+    /**
+     * Counts the archived and native rows matching the search into their groups
+     */
+    private void countLocal(Map<String, Integer> counts, LocalFilter filter) throws Exception {
+        List<ArchiveSegment.Row> rows = new ArrayList<>();
+
+        if (!Archiver.getSegments().isEmpty())
+            searchArchive(rows, filter, 0);
+
+        if (NativeStore.get() != null)
+            rows.addAll(searchNative(filter, 0));
+
+        for (ArchiveSegment.Row row : rows)
+            add(counts, group.key(row.getPlayer(), row.getAction(), row.getWorld(), row.getX(), row.getZ(), row.getTime()), 1);
+    }
+
+    private static void add(Map<String, Integer> counts, String key, int count) {
+        Integer total = counts.get(key);
+        counts.put(key, total == null ? count : total + count);
+    }
+
+    /**
+     * Gets the LIMIT of each database query of a paged search, one more than a fetch so the cursor knows if there is more
+     */
+    private static int cursorLimit(boolean filterRows) {
+        return filterRows ? FILTER_SCAN_ROWS : Config.SearchFetchRows + 1;
+    }
+
+    /**
+     * Reads results of a paged search into its cursor until it has as many as wanted or there are no more.
+     * Each store is read from where it left off, keeping a row past what is wanted so the cursor knows if there is more
+     *
+     * @param sql    database query, with the data_id keyset as its last parameter
+     * @param filter matches rows from the local stores
+     */
+    private void fetchPage(String sql, List<Object> binds, boolean filterRows, boolean nativeOnly, LocalFilter filter) throws Exception {
+        int total = Config.MaxLines > 0 ? Math.min(want, Config.MaxLines) : want;
+
+        if (nativeOnly) cursor.database.done = true;
+        if (Archiver.getSegments().isEmpty()) cursor.archive.done = true;
+        if (NativeStore.get() == null) cursor.natives.done = true;
+
+        Comparator<DataEntry> order = order(dir);
+
+        boolean more = true;
+
+        while (more && cursor.size() < total) {
+            int wanted = total - cursor.size() + 1;
+
+            fillDatabase(sql, binds, filterRows, wanted);
+
+            //Archived rows are older than anything in the table, there is no point reading them until it runs out
+            boolean deferArchive = dir == SearchDir.DESC && !cursor.database.isExhausted();
+
+            if (!deferArchive)
+                fillLocal(cursor.archive, filter, wanted, order);
+
+            fillLocal(cursor.natives, filter, wanted, order);
+
+            more = cursor.merge(total, order, deferArchive);
+        }
+
+        cursor.publish();
+
+        Util.debug(cursor.size() + " results read, " + (cursor.hasMore() ? "more to come" : "no more"));
+    }
+
+    /**
+     * Reads database rows past the cursor's keyset until it holds back as many as wanted or the rows run out
+     */
+    private void fillDatabase(String sql, List<Object> binds, boolean filterRows, int wanted) throws Exception {
+        SearchCursor.Source source = cursor.database;
+
+        if (source.done || source.pending.size() >= wanted) return;
+
+        int limit = cursorLimit(filterRows);
+
+        try (Connection conn = DataManager.getConnection();
+             PreparedStatement stmnt = prepare(conn, sql)) {
+
+            ListIterator<Object> objIter = binds.listIterator();
+
+            for (int i = 0; i < binds.size(); i++)
+                stmnt.setObject(i + 1, objIter.next());
+
+            Map<Integer, String> playerCache = new HashMap<>();
+            Map<Integer, String> worldCache = new HashMap<>();
+
+            List<DatabaseRow> rows = new ArrayList<>();
+
+            while (!source.done && source.pending.size() < wanted) {
+                if (cancelled) throw new SQLException("Search cancelled");
+
+                stmnt.setLong(binds.size() + 1, cursor.lastId);
+
+                int read = 0;
+
+                try (ResultSet res = stmnt.executeQuery()) {
+                    while (res.next()) {
+                        read++;
+                        cursor.lastId = res.getLong(1);
+
+                        String data = readData(res);
+
+                        if (filterRows && !matchesFilters(data)) continue;
+
+                        rows.add(new DatabaseRow(res, data));
+                    }
+                }
+
+                //Names are looked up a page at a time
+                toEntries(rows, source.pending, playerCache, worldCache);
+                rows.clear();
+
+                if (read < limit) source.done = true;
+            }
+        }
+    }
+
+    /**
+     * Reads rows from the archive or native store until the cursor holds back as many as wanted or the rows run out.
+     * Segment files can't seek to a keyset, so the top of the matches is read again with a higher limit
+     * and the rows past those already read are kept
+     */
+    private void fillLocal(SearchCursor.Source source, LocalFilter filter, int wanted, Comparator<DataEntry> order) throws Exception {
+        if (source.done || source.pending.size() >= wanted) return;
+
+        int limit = source.read + wanted - source.pending.size();
+
+        List<ArchiveSegment.Row> rows;
+
+        if (source == cursor.archive) {
+            rows = new ArrayList<>();
+            searchArchive(rows, filter, limit);
+        } else
+            rows = searchNative(filter, limit);
+
+        List<DataEntry> entries = toEntries(rows);
+        Collections.sort(entries, order);
+
+        if (entries.size() < limit)
+            source.done = true;
         else
-            callBack.results = results;
+            entries = entries.subList(0, limit);
 
-        callBack.execute();
+        if (entries.size() > source.read)
+            source.pending.addAll(entries.subList(source.read, entries.size()));
 
-        Util.debug("Search complete");
+        source.read = Math.max(source.read, entries.size());
+    }
+
+    /**
+     * Reads the data of a row, from the dictionary or the side table if it has its data there,
+     * decoding the binary column if the row has been written or converted to it.
+     * The row must have been selected with {@link PayloadTable#select()}
+     */
+    static String readData(ResultSet res) throws SQLException {
+        if (DataDictionary.isColumnPresent()) {
+            int ref = res.getInt(DataDictionary.COLUMN);
+
+            if (!res.wasNull())
+                return DataDictionary.get(ref);
+        }
 
+        if (PayloadTable.isPresent()) {
+            String payload = PayloadTable.read(res);
+
+            if (payload != null)
+                return payload;
+        }
+
+        if (DataConverter.isColumnPresent()) {
+            byte[] bytes = res.getBytes(DataConverter.COLUMN);
+
+            if (bytes != null)
+                return DataCodec.decode(bytes);
+        }
+        return res.getString("data");
+    }
+
+    /**
+     * The columns of a hawkeye table row, read ahead of making its entry
+     */
+    static class DatabaseRow {
+
+        final int dataId;
+        final Timestamp timestamp;
+        final int playerId;
+        final int action;
+        final int worldId;
+        final int x;
+        final int y;
+        final int z;
+        final String data;
+
+        /**
+         * @param data decoded data of the row
+         */
+        DatabaseRow(ResultSet res, String data) throws SQLException {
+            dataId = res.getInt(1);
+            timestamp = DataManager.getBackend().getTimestamp(res, 2);
+            playerId = res.getInt(3);
+            action = res.getInt(4);
+            worldId = res.getInt(5);
+            x = res.getInt(6);
+            y = res.getInt(7);
+            z = res.getInt(8);
+            this.data = data;
+        }
+
+        /**
+         * Makes sure the player and world names of a batch of rows are cached
+         */
+        static void preload(List<DatabaseRow> rows) {
+            Set<Integer> players = new HashSet<>();
+            Set<Integer> worlds = new HashSet<>();
+
+            for (DatabaseRow row : rows) {
+                players.add(row.playerId);
+                worlds.add(row.worldId);
+            }
+
+            DataManager.getPlayerDb().preload(players);
+            DataManager.getWorldDb().preload(worlds);
+        }
+    }
+
+    /**
+     * Adds the archived and native rows matching the search to the results.
+     * Results end up in time order, cut down to the max lines
+     */
+    private void searchLocal(List<DataEntry> results, List<Integer> pids, List<Integer> npids, List<Integer> wids, List<Integer> nwids) throws Exception {
+        LocalFilter filter = new LocalFilter(pids, npids, wids, nwids);
+
+        List<ArchiveSegment.Row> rows = new ArrayList<>();
+
+        //Archived rows are older than anything in the table, so they would be cut off anyway
+        if (!Archiver.getSegments().isEmpty() && !(dir == SearchDir.DESC && Config.MaxLines > 0 && results.size() >= Config.MaxLines))
+            searchArchive(rows, filter, Config.MaxLines);
+
+        if (NativeStore.get() != null)
+            rows.addAll(searchNative(filter, Config.MaxLines));
+
+        if (rows.isEmpty()) return;
+
+        Util.debug(rows.size() + " local results found");
+
+        results.addAll(toEntries(rows));
+
+        Collections.sort(results, order(dir));
+
+        if (Config.MaxLines > 0 && results.size() > Config.MaxLines)
+            results.subList(Config.MaxLines, results.size()).clear();
+    }
+
+    /**
+     * Adds the archived rows matching the search, reading segments their index says may match
+     *
+     * @param limit number of rows wanted, or 0 for every match
+     */
+    private void searchArchive(List<ArchiveSegment.Row> rows, LocalFilter filter, int limit) throws Exception {
+        List<ArchiveSegment> segments = new ArrayList<>(Archiver.getSegments());
+
+        //Read the segments closest to the table first, so we can stop once there are enough results
+        if (dir == SearchDir.DESC)
+            Collections.reverse(segments);
+
+        int found = 0;
+
+        for (ArchiveSegment segment : segments) {
+            if (!segment.overlaps(filter.from, filter.to, filter.worlds.isEmpty() ? null : filter.worlds, filter.minX, filter.minZ, filter.maxX, filter.maxZ)) continue;
+
+            for (ArchiveSegment.Row row : segment.read()) {
+                if (!filter.matches(row)) continue;
+
+                rows.add(row);
+                found++;
+            }
+
+            if (limit > 0 && found >= limit) break;
+        }
+    }
+
+    /**
+     * Gets the rows from native worlds matching the search
+     *
+     * @param limit number of rows wanted, or 0 for every match
+     */
+    private List<ArchiveSegment.Row> searchNative(LocalFilter filter, int limit) throws Exception {
+        int[] box = filter.minX == null ? null : new int[]{filter.minX, filter.minZ, filter.maxX, filter.maxZ};
+
+        return NativeStore.get().search(filter.wids.isEmpty() ? null : filter.wids, filter.nwids, filter.from, filter.to,
+                filter.pids.isEmpty() ? null : filter.pids, box, filter, limit, dir == SearchDir.DESC);
+    }
+
+    /**
+     * Deletes the native rows matching the search. Archived rows are left alone, they go when their segment is cleansed
+     *
+     * @return number of rows deleted
+     */
+    private int deleteLocal(List<Integer> pids, List<Integer> npids, List<Integer> wids, List<Integer> nwids) throws Exception {
+        if (NativeStore.get() == null) return 0;
+
+        List<Integer> ids = new ArrayList<>();
+
+        for (ArchiveSegment.Row row : searchNative(new LocalFilter(pids, npids, wids, nwids), 0))
+            ids.add((int) row.getDataId());
+
+        return NativeStore.get().delete(ids);
+    }
+
+    private static Set<String> names(IdMapCache cache, List<Integer> ids) {
+        Set<String> names = new HashSet<>();
+
+        for (Integer id : ids) {
+            String name = cache.get(id);
+            if (name != null) names.add(name.toLowerCase());
+        }
+        return names;
+    }
+
+    /**
+     * Parses a date from the search parser, in the format MySQL compares the timestamp against
+     */
+    private static Long parseDate(String date) {
+        if (date == null) return null;
+
+        try {
+            return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(date).getTime();
+        } catch (ParseException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Does what data LIKE '%filter%' does on the decoded data, latin1_general_ci being case insensitive
+     */
+    private boolean matchesFilters(String data) {
+        if (data == null) return false;
+
+        String lower = data.toLowerCase();
+
+        for (String filter : parser.filters)
+            if (!lower.contains(filter.toLowerCase())) return false;
+
+        return true;
+    }
+
+    /**
+     * Deletes the selected rows by id, a chunk at a time
+     *
+     * @param select     selects every row matching the rest of the search
+     * @param filterRows true if the filters still have to be applied to the selected rows
+     * @return number of rows deleted
+     */
+    private int deleteSelected(Connection conn, PreparedStatement select, boolean filterRows) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+
+        try (ResultSet res = select.executeQuery()) {
+            while (res.next())
+                if (!filterRows || matchesFilters(readData(res)))
+                    ids.add(res.getInt(1));
+        }
+
+        return DataManager.getBackend().deleteByIds(conn, ids);
+    }
+
+    /**
+     * Picks the index that suits the search best, the optimizer tends to fall back to index merges or scanning x otherwise
+     *
+     * @param worldIncluded  true if the search is limited to specific worlds
+     * @param playerIncluded true if the search is limited to specific players
+     * @param chunked        true if the search is limited to chunk key ranges
+     */
+    private String indexHint(boolean worldIncluded, boolean playerIncluded, boolean chunked) {
+        boolean spatial = parser.minLoc != null || parser.loc != null;
+
+        if (chunked)
+            return DataManager.getBackend().indexHint(ChunkKeys.INDEX);
+
+        if (spatial && worldIncluded && IndexManager.has(IndexManager.SPATIAL))
+            return DataManager.getBackend().indexHint(IndexManager.SPATIAL);
+
+        if (!spatial && playerIncluded && IndexManager.has(IndexManager.TIMELINE))
+            return DataManager.getBackend().indexHint(IndexManager.TIMELINE);
+
+        return "";
+    }
+
+    /**
+     * Matches rows read from segment files against the search, doing what the WHERE clause does for the database
+     */
+    private class LocalFilter implements NativeStore.Filter {
+
+        private final List<Integer> pids;
+        private final List<Integer> wids;
+        private final List<Integer> nwids;
+
+        private final Long from;
+        private final Long to;
+
+        private final Set<String> players;
+        private final Set<String> notPlayers;
+        private final Set<String> worlds;
+        private final Set<String> notWorlds;
+        private final Set<Integer> actions = new HashSet<>();
+
+        private Integer minX = null, minY = null, minZ = null, maxX = null, maxY = null, maxZ = null;
+
+        private LocalFilter(List<Integer> pids, List<Integer> npids, List<Integer> wids, List<Integer> nwids) {
+            this.pids = pids;
+            this.wids = wids;
+            this.nwids = nwids;
+
+            from = parseDate(parser.dateFrom);
+
+            //Rows logged since a paged search started would shift the rows on its later pages
+            Long until = parseDate(parser.dateTo);
+            if (cursor != null && (until == null || until > cursor.getStarted()))
+                until = cursor.getStarted();
+            to = until;
+
+            players = names(DataManager.getPlayerDb(), pids);
+            notPlayers = names(DataManager.getPlayerDb(), npids);
+            worlds = names(DataManager.getWorldDb(), wids);
+            notWorlds = names(DataManager.getWorldDb(), nwids);
+
+            if (parser.actions != null)
+                for (DataType type : parser.actions)
+                    actions.add(type.getId());
+
+            if (parser.minLoc != null) {
+                minX = parser.minLoc.getBlockX(); minY = parser.minLoc.getBlockY(); minZ = parser.minLoc.getBlockZ();
+                maxX = parser.maxLoc.getBlockX(); maxY = parser.maxLoc.getBlockY(); maxZ = parser.maxLoc.getBlockZ();
+            } else if (parser.loc != null) {
+                minX = maxX = parser.loc.getBlockX();
+                minY = maxY = parser.loc.getBlockY();
+                minZ = maxZ = parser.loc.getBlockZ();
+            }
+        }
+
+        @Override
+        public boolean matches(ArchiveSegment.Row row) {
+            if (from != null && row.getTime() < from) return false;
+            if (to != null && row.getTime() > to) return false;
+            if (!players.isEmpty() && !players.contains(row.getPlayer().toLowerCase())) return false;
+            if (notPlayers.contains(row.getPlayer().toLowerCase())) return false;
+            if (!worlds.isEmpty() && !worlds.contains(row.getWorld().toLowerCase())) return false;
+            if (notWorlds.contains(row.getWorld().toLowerCase())) return false;
+            if (!actions.isEmpty() && !actions.contains(row.getAction())) return false;
+
+            if (minX != null && (row.getX() < minX || row.getX() > maxX || row.getY() < minY || row.getY() > maxY || row.getZ() < minZ || row.getZ() > maxZ))
+                return false;
+
+            return parser.filters == null || matchesFilters(row.getData());
+        }
+    }
+
+    /**
+     * What the rows counted by /hawk stats are grouped by.
+     * The database groups on the columns, rows read from segment files or filtered one by one are keyed the same way
+     */
+    public enum StatsGroup {
+        PLAYER("`player_id`"),
+        ACTION("`action`"),
+        WORLD("`world_id`"),
+        CHUNK("`world_id`"),
+        HOUR("SUBSTR(`timestamp`, 1, 13)"),
+        DAY("SUBSTR(`timestamp`, 1, 10)");
+
+        private final String columns;
+
+        StatsGroup(String columns) {
+            this.columns = columns;
+        }
+
+        public String getColumns() {
+            if (this != CHUNK) return columns;
+
+            StorageBackend backend = DataManager.getBackend();
+            return columns + ", " + backend.chunkExpression("x") + ", " + backend.chunkExpression("z");
+        }
+
+        public int getColumnCount() {
+            return this == CHUNK ? 3 : 1;
+        }
+
+        /**
+         * Gets the group of a row grouped by the database
+         */
+        String key(ResultSet res) throws SQLException {
+            switch (this) {
+                case PLAYER:
+                    return DataManager.getPlayerDb().get(res.getInt(1));
+                case ACTION:
+                    return DataType.fromId(res.getInt(1)).getConfigName();
+                case WORLD:
+                    return DataManager.getWorldDb().get(res.getInt(1));
+                case CHUNK:
+                    return DataManager.getWorldDb().get(res.getInt(1)) + " " + res.getLong(2) + "," + res.getLong(3);
+                case HOUR:
+                    return res.getString(1) + ":00";
+                default:
+                    return res.getString(1);
+            }
+        }
+
+        /**
+         * Gets the group of a single row
+         */
+        String key(String player, int action, String world, int x, int z, long time) {
+            switch (this) {
+                case PLAYER:
+                    return player;
+                case ACTION:
+                    return DataType.fromId(action).getConfigName();
+                case WORLD:
+                    return world;
+                case CHUNK:
+                    return world + " " + (x >> 4) + "," + (z >> 4);
+                case HOUR:
+                    return new SimpleDateFormat("yyyy-MM-dd HH").format(new Date(time)) + ":00";
+                default:
+                    return new SimpleDateFormat("yyyy-MM-dd").format(new Date(time));
+            }
+        }
     }
 
     /**
@@ -282,7 +1219,10 @@ public class SearchQuery extends Thread {
     public enum SearchError {
         NO_PLAYERS,
         NO_WORLDS,
-        MYSQL_ERROR
+        MYSQL_ERROR,
+        BUSY,
+        CANCELLED,
+        TIMED_OUT
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,136 @@
+package uk.co.oliwali.HawkEye.database;
+
+import uk.co.oliwali.HawkEye.entry.PackedEntry;
+import uk.co.oliwali.HawkEye.util.Util;
+
+import java.io.*;
+
+/**
+ * On-disk overflow for the {@link IngestQueue}.
+ * Entries are appended as {@link EntryCodec} records when the ring buffer is full and read back by the writer in the same order
+ *
+ * This class is not thread safe, callers must synchronize
+ */
+public class SpillFile implements AutoCloseable {
+
+    private final File file;
+
+    private DataOutputStream out = null;
+    private DataInputStream in = null;
+
+    private long written = 0;
+    private long read = 0;
+
+    public SpillFile(File file) throws IOException {
+        this.file = file;
+
+        //Pick up anything left behind by a crash
+        if (file.exists() && file.length() > 0) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                long valid = 0;
+
+                try {
+                    while (true) {
+                        EntryCodec.skip(raf);
+                        valid = raf.getFilePointer();
+                        written++;
+                    }
+                } catch (EOFException ignore) {
+                    //Reached the end of the last complete record
+                }
+
+                //Drop a half written trailing record so appends line up again
+                raf.setLength(valid);
+            }
+
+            if (written > 0)
+                Util.info("Found " + written + " spilled entries from a previous session, they will be written shortly");
+        }
+    }
+
+    /**
+     * Appends an entry to the end of the file
+     */
+    public void write(PackedEntry entry) throws IOException {
+        if (out == null)
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 65536));
+
+        EntryCodec.write(out, entry);
+
+        written++;
+    }
+
+    /**
+     * Reads the next entry, or returns null if every spilled entry has been read.
+     * Once everything has been read back the file is truncated
+     */
+    public PackedEntry read() throws IOException {
+        if (read >= written)
+            return null;
+
+        if (out != null)
+            out.flush();
+
+        if (in == null)
+            openReader();
+
+        PackedEntry entry = EntryCodec.read(in);
+
+        read++;
+
+        if (read >= written)
+            reset();
+
+        return entry;
+    }
+
+    /**
+     * Number of entries written but not yet read back
+     */
+    public long pending() {
+        return written - read;
+    }
+
+    public boolean isEmpty() {
+        return pending() == 0;
+    }
+
+    /**
+     * Throws away everything still in the file
+     */
+    public void discard() {
+        try {
+            reset();
+        } catch (IOException ex) {
+            Util.severe("Unable to truncate the overflow file: " + ex);
+        }
+    }
+
+    private void openReader() throws IOException {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+    }
+
+    /**
+     * Truncates the file once the writer has caught up
+     */
+    private void reset() throws IOException {
+        JDBCUtil.close(in, out);
+        in = null;
+        out = null;
+        written = 0;
+        read = 0;
+
+        new FileOutputStream(file).close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null)
+            out.flush();
+
+        JDBCUtil.close(in, out);
+        in = null;
+        out = null;
+    }
+
+}
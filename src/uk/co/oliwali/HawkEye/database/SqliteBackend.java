@@ -0,0 +1,271 @@
+package uk.co.oliwali.HawkEye.database;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import uk.co.oliwali.HawkEye.util.Config;
+import uk.co.oliwali.HawkEye.util.Util;
+
+import java.io.File;
+import java.sql.*;
+import java.util.List;
+
+/**
+ * Logs to an SQLite file in the plugin folder, for servers that don't want to run MySQL.
+ * The database runs in WAL mode so searches don't block the writer, and timestamps are stored as text
+ * in the same format MySQL uses, so the SQL searches build works unchanged.
+ *
+ * The driver is whichever one the server ships, so timestamps are formatted and parsed here
+ * rather than left to driver settings older versions don't have
+ */
+public class SqliteBackend extends JdbcBackend {
+
+    private static final int CLEANSE_CHUNK = 10000;
+
+    /**
+     * Schema part recording that timestamps stored as epoch millis have been rewritten as text
+     */
+    private static final String TEXT_TIMESTAMPS = "text_timestamps";
+
+    private final HikariDataSource connectionPool;
+
+    public SqliteBackend(File file) throws Exception {
+        //Bundled with CraftBukkit
+        Class.forName("org.sqlite.JDBC");
+
+        Util.debug("Opening database " + file.getName() + "...");
+
+        HikariConfig config = new HikariConfig();
+
+        config.setMaximumPoolSize(Math.max(2, Math.min(Config.PoolSize, 4)));
+        config.setJdbcUrl("jdbc:sqlite:" + file.getAbsolutePath());
+        config.setDriverClassName("org.sqlite.JDBC");
+
+        config.addDataSourceProperty("journal_mode", "WAL");
+        config.addDataSourceProperty("synchronous", "NORMAL");
+        config.addDataSourceProperty("cache_size", "-16384");
+        config.addDataSourceProperty("temp_store", "MEMORY");
+
+        //Not a setting of older drivers, SQLite itself ignores it before 3.7.15 and the driver's own timeout applies
+        config.setConnectionInitSql("PRAGMA busy_timeout = 30000");
+
+        config.setAutoCommit(false);
+
+        connectionPool = new HikariDataSource(config);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return connectionPool.getConnection();
+    }
+
+    @Override
+    public boolean checkTables() {
+        if (Config.Partitioned)
+            Util.warning("Partitioning needs MySQL, cleansing will delete rows instead");
+
+        String table = Config.DbHawkEyeTable;
+
+        try (Connection conn = getConnection();
+             Statement stmnt = conn.createStatement()) {
+
+            stmnt.execute("CREATE TABLE IF NOT EXISTS `" + Config.DbPlayerTable + "` (" +
+                    "`player_id` INTEGER PRIMARY KEY, " +
+                    "`player` VARCHAR(40) NOT NULL COLLATE NOCASE UNIQUE)");
+
+            stmnt.execute("CREATE TABLE IF NOT EXISTS `" + Config.DbWorldTable + "` (" +
+                    "`world_id` INTEGER PRIMARY KEY, " +
+                    "`world` VARCHAR(40) NOT NULL COLLATE NOCASE UNIQUE)");
+
+            stmnt.execute("CREATE TABLE IF NOT EXISTS `" + table + "` (" +
+                    "`data_id` INTEGER PRIMARY KEY," +
+                    "`timestamp` DATETIME NOT NULL," +
+                    "`player_id` INTEGER NOT NULL," +
+                    "`action` INTEGER NOT NULL," +
+                    "`world_id` INTEGER NOT NULL," +
+                    "`x` INTEGER NOT NULL," +
+                    "`y` INTEGER NOT NULL," +
+                    "`z` INTEGER NOT NULL," +
+                    "`data` VARCHAR(500) COLLATE NOCASE DEFAULT NULL)");
+
+            stmnt.execute("CREATE TABLE IF NOT EXISTS `" + Config.DbDataTable + "` (" +
+                    "`" + DataDictionary.COLUMN + "` INTEGER PRIMARY KEY, " +
+                    "`payload` VARCHAR(64) NOT NULL UNIQUE)");
+
+            SchemaVersion.load(conn);
+
+            if (Config.SplitPayloads && !SchemaVersion.has(PayloadTable.TABLE_PART)) {
+                stmnt.execute("CREATE TABLE IF NOT EXISTS `" + Config.DbPayloadTable + "` (" +
+                        "`data_id` INTEGER PRIMARY KEY, " +
+                        "`payload` BLOB NOT NULL)");
+                SchemaVersion.set(conn, PayloadTable.TABLE_PART, 1);
+            }
+
+            PayloadTable.check();
+
+            DataConverter.checkColumn(conn);
+            ChunkKeys.checkColumn(conn);
+            DataDictionary.checkColumn(conn);
+
+            //Adding a column is only a schema change in SQLite, old rows read back as null
+            if (Config.BinaryData && !DataConverter.isColumnPresent()) {
+                stmnt.execute("ALTER TABLE `" + table + "` ADD COLUMN `" + DataConverter.COLUMN + "` BLOB DEFAULT NULL");
+                SchemaVersion.set(conn, DataConverter.COLUMN, 1);
+                DataConverter.checkColumn(conn);
+            }
+
+            if (Config.ChunkKeys && !ChunkKeys.isWriting()) {
+                stmnt.execute("ALTER TABLE `" + table + "` ADD COLUMN `" + ChunkKeys.COLUMN + "` INTEGER DEFAULT NULL");
+
+                //Same as ChunkKeys.key(), SQLite shifts negative numbers arithmetically like Java does
+                stmnt.executeUpdate("UPDATE `" + table + "` SET `" + ChunkKeys.COLUMN + "` = " +
+                        "(((x >> 4) + " + ChunkKeys.OFFSET + ") << " + ChunkKeys.BITS + ") | ((z >> 4) + " + ChunkKeys.OFFSET + ")");
+                SchemaVersion.set(conn, ChunkKeys.COLUMN, 2);
+                ChunkKeys.checkColumn(conn);
+            }
+
+            if (Config.DataDictionary && !DataDictionary.isColumnPresent()) {
+                stmnt.execute("ALTER TABLE `" + table + "` ADD COLUMN `" + DataDictionary.COLUMN + "` INTEGER DEFAULT NULL");
+                SchemaVersion.set(conn, DataDictionary.COLUMN, 1);
+                DataDictionary.checkColumn(conn);
+            }
+
+            if (!SchemaVersion.has(SchemaVersion.TABLES))
+                SchemaVersion.set(conn, SchemaVersion.TABLES, SchemaVersion.TABLES_CURRENT);
+
+            //Drivers that ignored the old date settings stored epoch millis, which neither compare nor group as text
+            if (!SchemaVersion.has(TEXT_TIMESTAMPS)) {
+                int fixed = stmnt.executeUpdate("UPDATE `" + table + "` SET `timestamp` = datetime(`timestamp` / 1000, 'unixepoch', 'localtime') " +
+                        "WHERE typeof(`timestamp`) = 'integer'");
+                SchemaVersion.set(conn, TEXT_TIMESTAMPS, 1);
+
+                if (fixed > 0)
+                    Util.info("Converted " + fixed + " timestamp(s) to text");
+            }
+
+            index(stmnt, "timestamp", "`timestamp`");
+            index(stmnt, IndexManager.TIMELINE, "`player_id`,`timestamp`");
+            index(stmnt, "action", "`action`");
+            index(stmnt, IndexManager.SPATIAL, "`world_id`,`x`,`z`,`y`,`timestamp`");
+
+            if (ChunkKeys.isWriting())
+                index(stmnt, ChunkKeys.INDEX, "`world_id`,`" + ChunkKeys.COLUMN + "`,`timestamp`");
+
+            conn.commit();
+
+        } catch (SQLException ex) {
+            Util.severe("Error checking HawkEye tables: " + ex);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Creates an index on the hawkeye table, named after the table as SQLite index names are global
+     */
+    private void index(Statement stmnt, String name, String columns) throws SQLException {
+        stmnt.execute("CREATE INDEX IF NOT EXISTS `" + Config.DbHawkEyeTable + "_" + name + "` ON `" + Config.DbHawkEyeTable + "` (" + columns + ")");
+    }
+
+    @Override
+    protected String insertIgnore() {
+        return "INSERT OR IGNORE";
+    }
+
+    @Override
+    protected void bindNewId(PreparedStatement stmnt, int index) throws SQLException {
+        //A 0 would be stored as is, only null makes SQLite pick the next id
+        stmnt.setNull(index, Types.INTEGER);
+    }
+
+    @Override
+    public void insertKeys(Connection conn, String table, String column, List<String> names) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT OR IGNORE INTO `" + table + "` (" + column + ") VALUES " + DataManager.placeholders(names.size()).replace("?", "(?)"))) {
+            for (int i = 0; i < names.size(); i++)
+                stmt.setString(i + 1, names.get(i));
+
+            stmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public int cleanse(Connection conn, Timestamp cutoff, String actions) throws SQLException {
+        //SQLite's DELETE doesn't take a LIMIT, so each chunk is picked by a subquery
+        try (PreparedStatement stmnt = conn.prepareStatement("DELETE FROM `" + Config.DbHawkEyeTable + "` WHERE `data_id` IN " +
+                "(SELECT `data_id` FROM `" + Config.DbHawkEyeTable + "` WHERE `timestamp` < ?" + actions + " LIMIT " + CLEANSE_CHUNK + ")")) {
+            setTimestamp(stmnt, 1, cutoff.getTime());
+
+            int deleted = 0;
+            int chunk;
+
+            do {
+                chunk = stmnt.executeUpdate();
+                conn.commit();
+                deleted += chunk;
+            } while (chunk >= CLEANSE_CHUNK);
+
+            return deleted;
+        }
+    }
+
+    /**
+     * Binds the time as text in the format MySQL uses, to the second
+     */
+    @Override
+    public void setTimestamp(PreparedStatement stmnt, int index, long time) throws SQLException {
+        stmnt.setString(index, new Timestamp(time).toString().substring(0, 19));
+    }
+
+    /**
+     * Parses the text timestamp, or epoch millis left by a driver that stored them that way
+     */
+    @Override
+    public Timestamp getTimestamp(ResultSet res, int index) throws SQLException {
+        String value = res.getString(index);
+
+        if (value == null) return null;
+
+        try {
+            return value.indexOf('-') > 0 ? Timestamp.valueOf(value) : new Timestamp(Long.parseLong(value));
+        } catch (IllegalArgumentException ex) {
+            throw new SQLException("Invalid timestamp " + value, ex);
+        }
+    }
+
+    /**
+     * SQLite truncates integer division, but shifts negative numbers arithmetically like Java does
+     */
+    @Override
+    public String chunkExpression(String column) {
+        return "(" + column + " >> 4)";
+    }
+
+    @Override
+    public String indexHint(String index) {
+        return "";
+    }
+
+    @Override
+    public boolean isEmbedded() {
+        return true;
+    }
+
+    @Override
+    public PartitionManager getPartitionManager() {
+        return null;
+    }
+
+    @Override
+    public void close() throws Exception {
+        //Lets SQLite refresh the statistics its planner uses, as there are no hints
+        try (Connection conn = getConnection();
+             Statement stmnt = conn.createStatement()) {
+            stmnt.execute("PRAGMA optimize");
+        } catch (SQLException ex) {
+            Util.debug("Unable to optimize database: " + ex.getMessage());
+        }
+
+        connectionPool.close();
+    }
+
+}
@@ -0,0 +1,96 @@
+package uk.co.oliwali.HawkEye.database;
+
+import org.bukkit.Location;
+import uk.co.oliwali.HawkEye.entry.PackedEntry;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * The database engine HawkEye logs to.
+ * Searches build portable SQL themselves and only ask the backend for the parts that differ between engines
+ */
+public interface StorageBackend extends AutoCloseable {
+
+    /**
+     * Gets a connection from the pool, with auto-commit off
+     */
+    Connection getConnection() throws SQLException;
+
+    /**
+     * Creates any missing tables and brings old ones up to date
+     *
+     * @return true on success, false on failure
+     */
+    boolean checkTables();
+
+    /**
+     * Inserts entries on one connection and commits once.
+     * Entries must already have their player and world ids
+     *
+     * @return number of entries inserted
+     */
+    int insert(List<PackedEntry> entries) throws SQLException;
+
+    /**
+     * Adds names to a player or world table, skipping any that are already there
+     */
+    void insertKeys(Connection conn, String table, String column, List<String> names) throws SQLException;
+
+    /**
+     * Deletes rows by data_id, committing as it goes
+     *
+     * @return number of rows deleted
+     */
+    int deleteByIds(Connection conn, List<Integer> ids) throws SQLException;
+
+    /**
+     * Deletes rows older than the cutoff a chunk at a time, committing after each
+     *
+     * @param actions extra condition limiting the actions deleted, or an empty string
+     * @return number of rows deleted
+     */
+    int cleanse(Connection conn, Timestamp cutoff, String actions) throws SQLException;
+
+    /**
+     * Finds where an entry was logged, without reading the rest of its row
+     *
+     * @return the location, its world null if that world isn't loaded, or null if there is no entry with that id
+     */
+    Location locate(int dataId) throws Exception;
+
+    /**
+     * Binds a time to a parameter stored in or compared with the timestamp column
+     */
+    void setTimestamp(PreparedStatement stmnt, int index, long time) throws SQLException;
+
+    /**
+     * Reads the timestamp column of a row
+     */
+    Timestamp getTimestamp(ResultSet res, int index) throws SQLException;
+
+    /**
+     * Gets an expression rounding a coordinate column down to the chunk it is in
+     */
+    String chunkExpression(String column);
+
+    /**
+     * Gets the clause that makes a SELECT use an index, or an empty string if the engine doesn't take hints
+     */
+    String indexHint(String index);
+
+    /**
+     * Checks if this is an embedded engine, which has no online DDL, partitioning or index hints
+     */
+    boolean isEmbedded();
+
+    /**
+     * Gets the partition manager, or null if the hawkeye table isn't partitioned
+     */
+    PartitionManager getPartitionManager();
+
+}
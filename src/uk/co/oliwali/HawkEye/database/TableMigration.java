@@ -0,0 +1,84 @@
+package uk.co.oliwali.HawkEye.database;
+
+import uk.co.oliwali.HawkEye.util.Config;
+import uk.co.oliwali.HawkEye.util.Util;
+
+import java.sql.*;
+
+/**
+ * Copies rows from a hawkeye table made by a pre 1.0 version into the current layout in the background.
+ * {@link MySqlBackend} moves the old table aside and creates a new one at startup, so logging carries on straight away.
+ * Rows are copied a data_id range at a time, with how far it got kept in {@link SchemaVersion}.
+ * The old table is dropped once everything is across
+ */
+public class TableMigration implements Runnable {
+
+    private static final int CHUNK_SIZE = 10000;
+
+    private static final String COLUMNS = "`data_id`,`timestamp`,`player_id`,`action`,`world_id`,`x`,`y`,`z`,`data`";
+
+    private volatile boolean running = true;
+
+    /**
+     * Gets the name the old table is moved to while it is copied
+     */
+    public static String legacyTable() {
+        return "legacy" + Config.DbHawkEyeTable;
+    }
+
+    @Override
+    public void run() {
+        if (SchemaVersion.get(SchemaVersion.TABLES) != SchemaVersion.TABLES_MIGRATING) return;
+
+        try (Connection conn = DataManager.getConnection()) {
+            long last = SchemaVersion.getProgress(SchemaVersion.TABLES);
+            long end;
+
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT MAX(`data_id`) FROM `" + legacyTable() + "`")) {
+                end = rs.next() ? rs.getLong(1) : 0;
+            }
+
+            Util.info("Copying rows from `" + legacyTable() + "` into `" + Config.DbHawkEyeTable + "`, older rows show up in searches as they arrive");
+
+            //Copied rows get their chunk key on the way, as the new table's keys are already searchable
+            boolean keyed = ChunkKeys.isWriting();
+
+            try (PreparedStatement copy = conn.prepareStatement("INSERT IGNORE INTO `" + Config.DbHawkEyeTable + "` (" + COLUMNS + (keyed ? ",`" + ChunkKeys.COLUMN + "`" : "") + ") " +
+                    "SELECT " + COLUMNS + (keyed ? "," + ChunkKeys.EXPRESSION : "") + " FROM `" + legacyTable() + "` WHERE `data_id` > ? AND `data_id` <= ?")) {
+
+                while (last < end) {
+                    if (!running) return;
+
+                    copy.setLong(1, last);
+                    copy.setLong(2, last + CHUNK_SIZE);
+                    copy.executeUpdate();
+
+                    //Commits the rows and the progress together
+                    last += CHUNK_SIZE;
+                    SchemaVersion.set(conn, SchemaVersion.TABLES, SchemaVersion.TABLES_MIGRATING, last);
+
+                    //Leave the database some room for the writer
+                    Thread.sleep(50);
+                }
+            }
+
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("DROP TABLE `" + legacyTable() + "`");
+            }
+
+            SchemaVersion.set(conn, SchemaVersion.TABLES, SchemaVersion.TABLES_CURRENT);
+
+            Util.info("Finished copying rows into `" + Config.DbHawkEyeTable + "`");
+
+        } catch (SQLException ex) {
+            Util.warning("Unable to copy rows from `" + legacyTable() + "`: " + ex);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+}
@@ -62,6 +62,21 @@ public class BlockChangeEntry extends DataEntry {
         this.to = to;
     }
 
+    /**
+     * Gets the sql data of a change between two block states, for listeners that log without building an entry
+     */
+    public static String toSqlData(BlockState from, BlockState to) {
+        return BlockUtil.getBlockString(from) + "-" + BlockUtil.getBlockString(to);
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
     @Override
     public String getStringData() {
         if (from.startsWith("0")) return BlockUtil.getBlockStringName(to);
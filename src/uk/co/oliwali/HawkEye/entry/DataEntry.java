@@ -12,7 +12,6 @@ import uk.co.oliwali.HawkEye.undoData.UndoChest;
 import uk.co.oliwali.HawkEye.undoData.UndoSign;
 
 import java.sql.Timestamp;
-import java.util.Calendar;
 
 /**
  * Represents a HawkEye database entry
@@ -56,7 +55,7 @@ public class DataEntry {
     }
 
     public DataEntry(String player, DataType type, Location loc) {
-        this(player, new Timestamp(Calendar.getInstance().getTimeInMillis()), type, loc.getWorld().getName(), loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+        this(player, new Timestamp(System.currentTimeMillis()), type, loc.getWorld().getName(), loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
     }
 
     /**
@@ -0,0 +1,108 @@
+package uk.co.oliwali.HawkEye.entry;
+
+import uk.co.oliwali.HawkEye.DataType;
+import uk.co.oliwali.HawkEye.entry.containerentries.ContainerExtract;
+import uk.co.oliwali.HawkEye.entry.containerentries.ContainerInsert;
+
+import java.lang.reflect.Constructor;
+import java.sql.Timestamp;
+
+/**
+ * Builds the {@link DataEntry} for a row from its column values.
+ * Every {@link DataType} holds one, so searches create their entries with a plain constructor call
+ * rather than through reflection
+ */
+public abstract class EntryFactory {
+
+    public abstract DataEntry create(String player, Timestamp timestamp, int dataId, DataType type, String data, String world, int x, int y, int z);
+
+    /**
+     * Gets the factory for an entry class, falling back to its constructor for classes not listed here
+     */
+    public static EntryFactory of(Class<?> entryClass) {
+        if (entryClass == DataEntry.class) return new EntryFactory() {
+            @Override
+            public DataEntry create(String player, Timestamp timestamp, int dataId, DataType type, String data, String world, int x, int y, int z) {
+                return new DataEntry(player, timestamp, dataId, type, data, world, x, y, z);
+            }
+        };
+        if (entryClass == BlockEntry.class) return new EntryFactory() {
+            @Override
+            public DataEntry create(String player, Timestamp timestamp, int dataId, DataType type, String data, String world, int x, int y, int z) {
+                return new BlockEntry(player, timestamp, dataId, type, data, world, x, y, z);
+            }
+        };
+        if (entryClass == BlockChangeEntry.class) return new EntryFactory() {
+            @Override
+            public DataEntry create(String player, Timestamp timestamp, int dataId, DataType type, String data, String world, int x, int y, int z) {
+                return new BlockChangeEntry(player, timestamp, dataId, type, data, world, x, y, z);
+            }
+        };
+        if (entryClass == SignEntry.class) return new EntryFactory() {
+            @Override
+            public DataEntry create(String player, Timestamp timestamp, int dataId, DataType type, String data, String world, int x, int y, int z) {
+                return new SignEntry(player, timestamp, dataId, type, data, world, x, y, z);
+            }
+        };
+        if (entryClass == SimpleRollbackEntry.class) return new EntryFactory() {
+            @Override
+            public DataEntry create(String player, Timestamp timestamp, int dataId, DataType type, String data, String world, int x, int y, int z) {
+                return new SimpleRollbackEntry(player, timestamp, dataId, type, data, world, x, y, z);
+            }
+        };
+        if (entryClass == HangingEntry.class) return new EntryFactory() {
+            @Override
+            public DataEntry create(String player, Timestamp timestamp, int dataId, DataType type, String data, String world, int x, int y, int z) {
+                return new HangingEntry(player, timestamp, dataId, type, data, world, x, y, z);
+            }
+        };
+        if (entryClass == ItemFrameModifyEntry.class) return new EntryFactory() {
+            @Override
+            public DataEntry create(String player, Timestamp timestamp, int dataId, DataType type, String data, String world, int x, int y, int z) {
+                return new ItemFrameModifyEntry(player, timestamp, dataId, type, data, world, x, y, z);
+            }
+        };
+        if (entryClass == EntityEntry.class) return new EntryFactory() {
+            @Override
+            public DataEntry create(String player, Timestamp timestamp, int dataId, DataType type, String data, String world, int x, int y, int z) {
+                return new EntityEntry(player, timestamp, dataId, type, data, world, x, y, z);
+            }
+        };
+        if (entryClass == ContainerInsert.class) return new EntryFactory() {
+            @Override
+            public DataEntry create(String player, Timestamp timestamp, int dataId, DataType type, String data, String world, int x, int y, int z) {
+                return new ContainerInsert(player, timestamp, dataId, type, data, world, x, y, z);
+            }
+        };
+        if (entryClass == ContainerExtract.class) return new EntryFactory() {
+            @Override
+            public DataEntry create(String player, Timestamp timestamp, int dataId, DataType type, String data, String world, int x, int y, int z) {
+                return new ContainerExtract(player, timestamp, dataId, type, data, world, x, y, z);
+            }
+        };
+
+        return reflective(entryClass);
+    }
+
+    private static EntryFactory reflective(Class<?> entryClass) {
+        final Constructor<?> constructor;
+
+        try {
+            constructor = entryClass.getConstructor(String.class, Timestamp.class, int.class, DataType.class, String.class, String.class, int.class, int.class, int.class);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(entryClass.getName() + " has no entry constructor", e);
+        }
+
+        return new EntryFactory() {
+            @Override
+            public DataEntry create(String player, Timestamp timestamp, int dataId, DataType type, String data, String world, int x, int y, int z) {
+                try {
+                    return (DataEntry) constructor.newInstance(player, timestamp, dataId, type, data, world, x, y, z);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Unable to create " + constructor.getDeclaringClass().getName(), e);
+                }
+            }
+        };
+    }
+
+}
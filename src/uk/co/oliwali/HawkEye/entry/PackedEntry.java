@@ -0,0 +1,157 @@
+package uk.co.oliwali.HawkEye.entry;
+
+import uk.co.oliwali.HawkEye.DataType;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact form of a {@link DataEntry} waiting to be written.
+ * Holds only what the writer binds: primitives for the time, type and block position, the player and world ids and the sql data as bytes.
+ * A name whose id isn't known yet is kept instead, until the writer adds it for the whole batch at once.
+ * {@link DataEntry} stays the view used by searches and rollbacks
+ */
+public class PackedEntry {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Short payloads such as block strings repeat constantly, so one shared copy of each is kept
+     */
+    private static final ConcurrentHashMap<String, byte[]> payloads = new ConcurrentHashMap<>();
+    private static final int MAX_POOLED_LENGTH = 24;
+    private static final int MAX_POOLED = 8192;
+
+    private final long time;
+    private int playerId;
+    private int worldId;
+    private String player;
+    private String world;
+    private final int x;
+    private final int y;
+    private final int z;
+    private final short type;
+    private final int dataId;
+    private final byte[] data;
+
+    /**
+     * @param playerId id of the player, or 0 if it isn't known yet and the name has to be kept
+     * @param worldId  id of the world, or 0 if it isn't known yet and the name has to be kept
+     */
+    public PackedEntry(long time, int playerId, String player, int worldId, String world, int x, int y, int z, DataType type, int dataId, byte[] data) {
+        this.time = time;
+        this.playerId = playerId;
+        this.worldId = worldId;
+        this.player = playerId == 0 ? player : null;
+        this.world = worldId == 0 ? world : null;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.type = (short) type.getId();
+        this.dataId = dataId;
+        this.data = data;
+    }
+
+    /**
+     * Copies the entry with a different payload
+     */
+    public PackedEntry withData(byte[] data) {
+        return new PackedEntry(time, playerId, player, worldId, world, x, y, z, getType(), dataId, data);
+    }
+
+    /**
+     * Turns sql data into payload bytes, sharing the array for short values
+     */
+    public static byte[] encode(String data) {
+        if (data == null) return null;
+
+        if (data.length() > MAX_POOLED_LENGTH)
+            return data.getBytes(UTF8);
+
+        byte[] bytes = payloads.get(data);
+
+        if (bytes == null) {
+            bytes = data.getBytes(UTF8);
+
+            if (payloads.size() < MAX_POOLED)
+                payloads.putIfAbsent(data, bytes);
+        }
+
+        return bytes;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Gets the player id, or 0 if only the name is known so far
+     */
+    public int getPlayerId() {
+        return playerId;
+    }
+
+    public int getWorldId() {
+        return worldId;
+    }
+
+    /**
+     * Gets the name of the player if its id isn't known yet, or null
+     */
+    public String getPlayerName() {
+        return player;
+    }
+
+    /**
+     * Gets the name of the world if its id isn't known yet, or null
+     */
+    public String getWorldName() {
+        return world;
+    }
+
+    public boolean isResolved() {
+        return playerId != 0 && worldId != 0;
+    }
+
+    /**
+     * Swaps the names kept for their ids, once the writer has looked them up
+     */
+    public void resolve(int playerId, int worldId) {
+        this.playerId = playerId;
+        this.worldId = worldId;
+        this.player = null;
+        this.world = null;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getZ() {
+        return z;
+    }
+
+    public DataType getType() {
+        return DataType.fromId(type);
+    }
+
+    public int getDataId() {
+        return dataId;
+    }
+
+    /**
+     * Raw payload bytes, shared between entries so they must not be modified
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public String getSqlData() {
+        return data == null ? null : new String(data, UTF8);
+    }
+
+}
@@ -13,9 +13,9 @@ import uk.co.oliwali.HawkEye.blocks.HawkBlockType;
 import uk.co.oliwali.HawkEye.blocks.SignBlock;
 import uk.co.oliwali.HawkEye.database.DataManager;
 import uk.co.oliwali.HawkEye.entry.BlockChangeEntry;
-import uk.co.oliwali.HawkEye.entry.BlockEntry;
 import uk.co.oliwali.HawkEye.entry.SignEntry;
 import uk.co.oliwali.HawkEye.entry.SimpleRollbackEntry;
+import uk.co.oliwali.HawkEye.util.BlockUtil;
 import uk.co.oliwali.HawkEye.util.Config;
 
 /**
@@ -42,7 +42,7 @@ public class MonitorBlockListener extends HawkEyeListener {
         if (hb instanceof SignBlock && DataType.SIGN_BREAK.isLogged())
             DataManager.addEntry(new SignEntry(player, DataType.SIGN_BREAK, block));
 
-        else DataManager.addEntry(new BlockEntry(player, DataType.BLOCK_BREAK, block));
+        else DataManager.addEntry(player.getName(), DataType.BLOCK_BREAK, block, BlockUtil.getBlockString(block));
     }
 
     @HawkEvent(dataType = DataType.BLOCK_PLACE)
@@ -52,7 +52,7 @@ public class MonitorBlockListener extends HawkEyeListener {
         if (b.getType() == Material.WALL_SIGN || b.getType() == Material.SIGN_POST || Config.BlockFilter.contains(b.getTypeId()))
             return;
 
-        DataManager.addEntry(new BlockChangeEntry(event.getPlayer(), (b.getType().equals(Material.FIRE)) ? DataType.FLINT_AND_STEEL : DataType.BLOCK_PLACE, b.getLocation(), event.getBlockReplacedState(), b.getState()));
+        DataManager.addEntry(event.getPlayer().getName(), (b.getType().equals(Material.FIRE)) ? DataType.FLINT_AND_STEEL : DataType.BLOCK_PLACE, b, BlockChangeEntry.toSqlData(event.getBlockReplacedState(), b.getState()));
     }
 
     @HawkEvent(dataType = DataType.SIGN_PLACE)
@@ -62,17 +62,17 @@ public class MonitorBlockListener extends HawkEyeListener {
 
     @HawkEvent(dataType = DataType.BLOCK_FORM)
     public void onBlockForm(BlockFormEvent event) {
-        DataManager.addEntry(new BlockChangeEntry(ENVIRONMENT, DataType.BLOCK_FORM, event.getBlock().getLocation(), event.getBlock().getState(), event.getNewState()));
+        DataManager.addEntry(ENVIRONMENT, DataType.BLOCK_FORM, event.getBlock(), BlockChangeEntry.toSqlData(event.getBlock().getState(), event.getNewState()));
     }
 
     @HawkEvent(dataType = DataType.BLOCK_FADE)
     public void onBlockFade(BlockFadeEvent event) {
-        DataManager.addEntry(new BlockChangeEntry(ENVIRONMENT, DataType.BLOCK_FADE, event.getBlock().getLocation(), event.getBlock().getState(), event.getNewState()));
+        DataManager.addEntry(ENVIRONMENT, DataType.BLOCK_FADE, event.getBlock(), BlockChangeEntry.toSqlData(event.getBlock().getState(), event.getNewState()));
     }
 
     @HawkEvent(dataType = DataType.BLOCK_BURN)
     public void onBlockBurn(BlockBurnEvent event) {
-        DataManager.addEntry(new BlockEntry(ENVIRONMENT, DataType.BLOCK_BURN, event.getBlock()));
+        DataManager.addEntry(ENVIRONMENT, DataType.BLOCK_BURN, event.getBlock(), BlockUtil.getBlockString(event.getBlock()));
     }
 
     @HawkEvent(dataType = DataType.LEAF_DECAY)
@@ -80,7 +80,7 @@ public class MonitorBlockListener extends HawkEyeListener {
         Block block = event.getBlock();
 
         if (block != null) {
-            DataManager.addEntry(new BlockEntry(ENVIRONMENT, DataType.LEAF_DECAY, event.getBlock()));
+            DataManager.addEntry(ENVIRONMENT, DataType.LEAF_DECAY, block, BlockUtil.getBlockString(block));
         }
     }
 
@@ -15,6 +15,7 @@ import uk.co.oliwali.HawkEye.DataType;
 import uk.co.oliwali.HawkEye.HawkEvent;
 import uk.co.oliwali.HawkEye.database.DataManager;
 import uk.co.oliwali.HawkEye.entry.*;
+import uk.co.oliwali.HawkEye.util.BlockUtil;
 import uk.co.oliwali.HawkEye.util.Config;
 import uk.co.oliwali.HawkEye.util.EntityUtil;
 import uk.co.oliwali.HawkEye.util.Util;
@@ -100,7 +101,7 @@ public class MonitorEntityListener extends HawkEyeListener {
         }
 
         for (Block b : event.blockList())
-            DataManager.addEntry(new BlockEntry(s, DataType.EXPLOSION, b));
+            DataManager.addEntry(s, DataType.EXPLOSION, b, BlockUtil.getBlockString(b));
     }
 
     @HawkEvent(dataType = DataType.ITEM_BREAK)
@@ -103,7 +103,7 @@ public class MonitorLiquidFlow extends HawkEyeListener {
 				data.setData((byte)0);
 				from.setData(data);
 			}
-			DataManager.addEntry(new BlockChangeEntry(player, DataType.PLAYER_LAVA_FLOW, loc, to, from));
+			DataManager.addEntry(player, DataType.PLAYER_LAVA_FLOW, loc, BlockChangeEntry.toSqlData(to, from));
 			addToCache(loc, player);
 		}
 
@@ -114,7 +114,7 @@ public class MonitorLiquidFlow extends HawkEyeListener {
 			if (fluidBlocks.contains(to.getTypeId())) {
 				data.setData((byte)(from.getRawData() + 1));
 				from.setData(data);
-				DataManager.addEntry(new BlockChangeEntry(player, DataType.PLAYER_WATER_FLOW, loc, to, from));
+				DataManager.addEntry(player, DataType.PLAYER_WATER_FLOW, loc, BlockChangeEntry.toSqlData(to, from));
 				addToCache(loc, player);
 			}
 			//If we are flowing over lava, cobble or obsidian will form
@@ -122,7 +122,7 @@ public class MonitorLiquidFlow extends HawkEyeListener {
 			if (lower.getTypeId() == 10 || lower.getTypeId() == 11) {
 				from.setTypeId(lower.getData().getData() == 0?49:4);
 				loc.setY(loc.getY() - 1);
-				DataManager.addEntry(new BlockChangeEntry(player, DataType.PLAYER_WATER_FLOW, loc, lower, from));
+				DataManager.addEntry(player, DataType.PLAYER_WATER_FLOW, loc, BlockChangeEntry.toSqlData(lower, from));
 				addToCache(loc, player);
 			}
 		}
@@ -157,7 +157,7 @@ public class MonitorLiquidFlow extends HawkEyeListener {
 				data.setData((byte)0);
 				from.setData(data);
 			}
-			DataManager.addEntry(new BlockChangeEntry(ENVIRONMENT, DataType.LAVA_FLOW, loc, to, from));
+			DataManager.addEntry(ENVIRONMENT, DataType.LAVA_FLOW, loc, BlockChangeEntry.toSqlData(to, from));
 
 		}
 
@@ -168,7 +168,7 @@ public class MonitorLiquidFlow extends HawkEyeListener {
 			if (fluidBlocks.contains(to.getTypeId())) {
 				data.setData((byte)(from.getRawData() + 1));
 				from.setData(data);
-				DataManager.addEntry(new BlockChangeEntry(ENVIRONMENT, DataType.WATER_FLOW, loc, to, from));
+				DataManager.addEntry(ENVIRONMENT, DataType.WATER_FLOW, loc, BlockChangeEntry.toSqlData(to, from));
 			}
 
 			//If we are flowing over lava, cobble or obsidian will form
@@ -176,7 +176,7 @@ public class MonitorLiquidFlow extends HawkEyeListener {
 			if (lower.getTypeId() == 10 || lower.getTypeId() == 11) {
 				from.setTypeId(lower.getData().getData() == 0?49:4);
 				loc.setY(loc.getY() - 1);
-				DataManager.addEntry(new BlockChangeEntry(ENVIRONMENT, DataType.WATER_FLOW, loc, lower, from));
+				DataManager.addEntry(ENVIRONMENT, DataType.WATER_FLOW, loc, BlockChangeEntry.toSqlData(lower, from));
 			}
 
 		}
@@ -2,11 +2,18 @@ package uk.co.oliwali.HawkEye.util;
 
 import org.bukkit.Material;
 import org.bukkit.configuration.Configuration;
+import uk.co.oliwali.HawkEye.DataType;
 import uk.co.oliwali.HawkEye.HawkEye;
+import uk.co.oliwali.HawkEye.database.Coalescer;
+import uk.co.oliwali.HawkEye.database.IngestQueue.OverflowPolicy;
+import uk.co.oliwali.HawkEye.database.NativeSegment;
+import uk.co.oliwali.HawkEye.database.PartitionManager;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Configuration manager for HawkEye.
@@ -20,6 +27,8 @@ public class Config {
 	public static List<Integer> BlockFilter = new ArrayList<Integer>();
 	public static List<String> CleanseActions = new ArrayList<String>();
 	public static int MaxLines = 0;
+	public static boolean PagedSearch;
+	public static int SearchFetchRows;
 	public static int MaxRadius;
 	public static int DefaultHereRadius;
 	public static int DefaultEditSpeed;
@@ -55,8 +64,53 @@ public class Config {
 	public static String DbHawkEyeTable;
 	public static String DbPlayerTable;
 	public static String DbWorldTable;
+	public static String DbDataTable;
+	public static String DbPayloadTable;
 	public static String DbHostname;
+	public static String Storage;
+	public static String StorageFile;
 	public static int PoolSize;
+	public static int WriterThreads;
+	public static int BatchMinRows;
+	public static int BatchMaxRows;
+	public static long BatchMaxBytes;
+	public static int BatchTargetLatency;
+	public static boolean JournalEnabled;
+	public static int JournalSegmentSize;
+	public static int JournalSyncInterval;
+	public static boolean LazyPlayerDictionary;
+	public static int DictionaryMaxPlayers;
+	public static int DictionaryWarmDays;
+	public static int DictionaryMaxPayloads;
+	public static int CoalesceWindow;
+	public static boolean Partitioned;
+	public static PartitionManager.Interval PartitionInterval;
+	public static int PartitionFuture;
+	public static boolean ArchiveEnabled;
+	public static String ArchiveAge;
+	public static String ArchivePeriod;
+	public static int ArchiveSegmentRows;
+	public static boolean NativeEnabled;
+	public static List<String> NativeWorlds;
+	public static int NativeSegmentRecords;
+	public static String NativeCompactPeriod;
+	public static int SearchThreads;
+	public static int SearchesPerPlayer;
+	public static int SearchTimeout;
+	public static int SearchCacheSize;
+	public static int SearchCacheMaxAge;
+	public static boolean MigrateIndexes;
+	public static boolean BinaryData;
+	public static boolean ChunkKeys;
+	public static boolean DataDictionary;
+	public static boolean SplitPayloads;
+	public static int InlinePayloadLength;
+	public static Map<DataType, Coalescer.Mode> CoalesceRules = new HashMap<DataType, Coalescer.Mode>();
+	public static int QueueCapacity;
+	public static OverflowPolicy QueueOverflowPolicy;
+	public static int QueueBlockTimeout;
+	public static int QueuePriorityThreshold;
+	public static List<DataType> QueueLowPriority = new ArrayList<DataType>();
 
 	private static Configuration config;
 
@@ -79,6 +133,8 @@ public class Config {
 		IgnoreWorlds = config.getStringList("ignore-worlds");
 		CleanseActions = Arrays.asList(config.getString("general.cleanse-actions").split(","));
 		MaxLines = config.getInt("general.max-lines");
+		PagedSearch = config.getBoolean("general.paged-search");
+		SearchFetchRows = Math.max(6, config.getInt("general.search-fetch-rows"));
 		MaxRadius = config.getInt("general.max-radius");
 		MaxLog = config.getInt("general.max-write-logs");
 		DefaultEditSpeed = config.getInt("general.default-edit-speed");
@@ -107,8 +163,66 @@ public class Config {
 		DbHawkEyeTable = config.getString("mysql.hawkeye-table");
 		DbPlayerTable = config.getString("mysql.player-table");
 		DbWorldTable = config.getString("mysql.world-table");
+		DbDataTable = config.getString("mysql.data-table");
+		DbPayloadTable = config.getString("mysql.payload-table");
 		DbHostname = config.getString("mysql.hostname");
 		PoolSize = config.getInt("mysql.max-connections");
+		WriterThreads = config.getInt("mysql.writer-threads");
+		BatchMinRows = config.getInt("mysql.batch-min-rows");
+		BatchMaxRows = config.getInt("mysql.batch-max-rows");
+		BatchMaxBytes = config.getLong("mysql.batch-max-bytes");
+		BatchTargetLatency = config.getInt("mysql.batch-target-latency");
+		JournalEnabled = config.getBoolean("journal.enabled");
+		JournalSegmentSize = config.getInt("journal.segment-size");
+		JournalSyncInterval = config.getInt("journal.sync-interval");
+		LazyPlayerDictionary = config.getString("dictionary.mode").equalsIgnoreCase("lazy");
+		DictionaryMaxPlayers = config.getInt("dictionary.max-players");
+		DictionaryWarmDays = config.getInt("dictionary.warm-days");
+		DictionaryMaxPayloads = config.getInt("dictionary.max-payloads");
+		CoalesceWindow = config.getInt("coalesce.window");
+		Partitioned = config.getBoolean("partitioning.enabled");
+		PartitionFuture = config.getInt("partitioning.future");
+		Storage = config.getString("storage.backend").toLowerCase();
+		StorageFile = config.getString("storage.file");
+		ArchiveEnabled = config.getBoolean("archive.enabled");
+		ArchiveAge = config.getString("archive.age");
+		ArchivePeriod = config.getString("archive.period");
+		ArchiveSegmentRows = Math.max(1000, config.getInt("archive.segment-rows"));
+		NativeEnabled = config.getBoolean("native-store.enabled");
+		NativeWorlds = config.getStringList("native-store.worlds");
+		NativeSegmentRecords = Math.max(NativeSegment.PER_PAGE, config.getInt("native-store.segment-records"));
+		NativeCompactPeriod = config.getString("native-store.compact-period");
+		SearchThreads = Math.max(1, config.getInt("search-executor.threads"));
+		SearchesPerPlayer = config.getInt("search-executor.per-player");
+		SearchTimeout = config.getInt("search-executor.timeout");
+		SearchCacheSize = config.getInt("search-cache.size");
+		SearchCacheMaxAge = config.getInt("search-cache.max-age");
+		MigrateIndexes = config.getBoolean("mysql.migrate-indexes");
+		BinaryData = config.getBoolean("mysql.binary-data");
+		ChunkKeys = config.getBoolean("mysql.chunk-keys");
+		DataDictionary = config.getBoolean("mysql.data-dictionary");
+		SplitPayloads = config.getBoolean("mysql.split-payloads");
+		InlinePayloadLength = config.getInt("mysql.inline-payload-length");
+		CoalesceRules = new HashMap<DataType, Coalescer.Mode>();
+		for (String st : config.getString("coalesce.rules").split(",")) {
+			String[] rule = st.trim().split(":");
+			DataType dt = DataType.fromName(rule[0].trim());
+			if (dt == null || rule.length < 2) continue;
+			try {
+				Coalescer.Mode mode = Coalescer.Mode.valueOf(rule[1].trim().toUpperCase());
+				CoalesceRules.put(dt, mode);
+			} catch (IllegalArgumentException ex) {
+				Util.warning("Unknown coalesce mode '" + rule[1].trim() + "' for " + rule[0].trim());
+			}
+		}
+		QueueCapacity = config.getInt("queue.capacity");
+		QueueBlockTimeout = config.getInt("queue.block-timeout");
+		QueuePriorityThreshold = config.getInt("queue.priority-threshold");
+		QueueLowPriority = new ArrayList<DataType>();
+		for (String st : config.getString("queue.low-priority").split(",")) {
+			DataType dt = DataType.fromName(st.trim());
+			if (dt != null) QueueLowPriority.add(dt);
+		}
 		logChest = config.getBoolean("containertransaction-filter.chest");
 		logDoubleChest = config.getBoolean("containertransaction-filter.doublechest");
 		logFurnace = config.getBoolean("containertransaction-filter.furnace");
@@ -120,6 +234,22 @@ public class Config {
 		} catch (Exception ex) {
 			DebugLevel = Util.DebugLevel.NONE;
 		}
+		try {
+			QueueOverflowPolicy = OverflowPolicy.valueOf(config.getString("queue.overflow-policy").toUpperCase());
+		} catch (Exception ex) {
+			QueueOverflowPolicy = OverflowPolicy.SPILL;
+		}
+
+		try {
+			PartitionInterval = PartitionManager.Interval.valueOf(config.getString("partitioning.interval").toUpperCase());
+		} catch (Exception ex) {
+			PartitionInterval = PartitionManager.Interval.DAY;
+		}
+
+		if (!Storage.equals("mysql") && !Storage.equals("sqlite")) {
+			Util.warning("Unknown storage backend " + Storage + ", using mysql");
+			Storage = "mysql";
+		}
 
 	}
 }
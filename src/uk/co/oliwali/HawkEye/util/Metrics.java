@@ -0,0 +1,240 @@
+package uk.co.oliwali.HawkEye.util;
+
+import uk.co.oliwali.HawkEye.database.DataManager;
+import uk.co.oliwali.HawkEye.database.IngestQueue;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms for the ingest, delete and search paths.
+ * Everything here is lock-free so it can be updated from any thread.
+ * Latencies are recorded in microseconds
+ */
+public class Metrics implements Runnable, MetricsMXBean {
+
+    public static final AtomicLong eventsQueued = new AtomicLong();
+    public static final AtomicLong eventsFiltered = new AtomicLong();
+    public static final AtomicLong rowsWritten = new AtomicLong();
+    public static final AtomicLong writeFailures = new AtomicLong();
+    public static final AtomicLong idMisses = new AtomicLong();
+    public static final AtomicLong rowsDeleted = new AtomicLong();
+    public static final AtomicLong searches = new AtomicLong();
+    public static final AtomicLong cacheHits = new AtomicLong();
+    public static final AtomicLong cacheMisses = new AtomicLong();
+    public static final AtomicLong cacheEvictions = new AtomicLong();
+    public static final AtomicLong cacheInvalidations = new AtomicLong();
+
+    public static final Histogram batchRows = new Histogram();
+    public static final Histogram commitLatency = new Histogram();
+    public static final Histogram resolveLatency = new Histogram();
+    public static final Histogram deleteLatency = new Histogram();
+    public static final Histogram searchLatency = new Histogram();
+
+    private static final String MBEAN_NAME = "uk.co.oliwali.HawkEye:type=Metrics";
+
+    private static volatile double eventRate = 0;
+    private static volatile double rowRate = 0;
+
+    private long lastSample = System.nanoTime();
+    private long lastEvents = 0;
+    private long lastRows = 0;
+
+    /**
+     * Microseconds since the given System.nanoTime()
+     */
+    public static long since(long start) {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+    }
+
+    /**
+     * Samples the counters to work out the current rates, run every few seconds
+     */
+    @Override
+    public void run() {
+        long now = System.nanoTime();
+        long events = eventsQueued.get();
+        long rows = rowsWritten.get();
+
+        double seconds = (now - lastSample) / 1e9;
+
+        if (seconds > 0) {
+            eventRate = (events - lastEvents) / seconds;
+            rowRate = (rows - lastRows) / seconds;
+        }
+
+        lastSample = now;
+        lastEvents = events;
+        lastRows = rows;
+    }
+
+    public static double getEventRate() {
+        return eventRate;
+    }
+
+    public static double getRowRate() {
+        return rowRate;
+    }
+
+    /**
+     * Fraction of cacheable searches answered from the search cache
+     */
+    public static double getCacheHitRatio() {
+        long hits = cacheHits.get();
+        long total = hits + cacheMisses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server so they show up in JConsole and friends
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+
+            if (!server.isRegistered(name))
+                server.registerMBean(this, name);
+        } catch (Exception ex) {
+            Util.warning("Unable to register metrics MBean: " + ex.getMessage());
+        }
+    }
+
+    public static void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+        } catch (Exception ex) {
+            Util.debug("Unable to unregister metrics MBean: " + ex.getMessage());
+        }
+    }
+
+    @Override
+    public long getEventsQueued() {
+        return eventsQueued.get();
+    }
+
+    @Override
+    public long getEventsFiltered() {
+        return eventsFiltered.get();
+    }
+
+    @Override
+    public long getEventsDropped() {
+        IngestQueue queue = DataManager.getQueue();
+        return queue == null ? 0 : queue.getDropped();
+    }
+
+    @Override
+    public double getEventsPerSecond() {
+        return eventRate;
+    }
+
+    @Override
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    @Override
+    public double getRowsPerSecond() {
+        return rowRate;
+    }
+
+    @Override
+    public long getWriteFailures() {
+        return writeFailures.get();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        IngestQueue queue = DataManager.getQueue();
+        return queue == null ? 0 : queue.size();
+    }
+
+    @Override
+    public long getIdResolutionMisses() {
+        return idMisses.get();
+    }
+
+    @Override
+    public long getBatchRowsP50() {
+        return batchRows.getPercentile(50);
+    }
+
+    @Override
+    public long getBatchRowsP99() {
+        return batchRows.getPercentile(99);
+    }
+
+    @Override
+    public long getCommitLatencyP50Micros() {
+        return commitLatency.getPercentile(50);
+    }
+
+    @Override
+    public long getCommitLatencyP99Micros() {
+        return commitLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getResolveLatencyP99Micros() {
+        return resolveLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getRowsDeleted() {
+        return rowsDeleted.get();
+    }
+
+    @Override
+    public long getDeleteLatencyP99Micros() {
+        return deleteLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getSearches() {
+        return searches.get();
+    }
+
+    @Override
+    public long getSearchLatencyP50Micros() {
+        return searchLatency.getPercentile(50);
+    }
+
+    @Override
+    public long getSearchLatencyP99Micros() {
+        return searchLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getSearchCacheHits() {
+        return cacheHits.get();
+    }
+
+    @Override
+    public long getSearchCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    @Override
+    public double getSearchCacheHitRatio() {
+        return getCacheHitRatio();
+    }
+
+    @Override
+    public long getSearchCacheEvictions() {
+        return cacheEvictions.get();
+    }
+
+    @Override
+    public long getSearchCacheInvalidations() {
+        return cacheInvalidations.get();
+    }
+
+}
@@ -0,0 +1,56 @@
+package uk.co.oliwali.HawkEye.util;
+
+/**
+ * JMX view of {@link Metrics}
+ */
+public interface MetricsMXBean {
+
+    long getEventsQueued();
+
+    long getEventsFiltered();
+
+    long getEventsDropped();
+
+    double getEventsPerSecond();
+
+    long getRowsWritten();
+
+    double getRowsPerSecond();
+
+    long getWriteFailures();
+
+    int getQueueDepth();
+
+    long getIdResolutionMisses();
+
+    long getBatchRowsP50();
+
+    long getBatchRowsP99();
+
+    long getCommitLatencyP50Micros();
+
+    long getCommitLatencyP99Micros();
+
+    long getResolveLatencyP99Micros();
+
+    long getRowsDeleted();
+
+    long getDeleteLatencyP99Micros();
+
+    long getSearches();
+
+    long getSearchLatencyP50Micros();
+
+    long getSearchLatencyP99Micros();
+
+    long getSearchCacheHits();
+
+    long getSearchCacheMisses();
+
+    double getSearchCacheHitRatio();
+
+    long getSearchCacheEvictions();
+
+    long getSearchCacheInvalidations();
+
+}
@@ -0,0 +1,105 @@
+package uk.co.oliwali.HawkEye.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, preallocated multi-producer/single-consumer ring buffer.
+ * Producers claim a slot with a single CAS on the tail, the consumer never contends with them.
+ * Every slot carries a sequence number so a producer can tell a free slot from one the consumer hasn't read yet
+ *
+ * @param <E> element type
+ */
+public class RingBuffer<E> {
+
+    private final Object[] items;
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity requested capacity, rounded up to the next power of two
+     */
+    public RingBuffer(int capacity) {
+        int size = 1;
+
+        while (size < capacity)
+            size <<= 1;
+
+        items = new Object[size];
+        sequences = new AtomicLongArray(size);
+        mask = size - 1;
+
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+    }
+
+    /**
+     * Attempts to add an element, safe to call from any thread
+     *
+     * @param item element to add
+     * @return false if the buffer is full
+     */
+    public boolean offer(E item) {
+        long pos = tail.get();
+
+        for (;;) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    items[index] = item;
+                    sequences.lazySet(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false; //Slot still holds an element the consumer hasn't taken, we're full
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest element. Must only ever be called from the single consumer thread
+     *
+     * @return the element, or null if the buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long pos = head.get();
+        int index = (int) (pos & mask);
+
+        if (sequences.get(index) != pos + 1)
+            return null;
+
+        E item = (E) items[index];
+        items[index] = null;
+
+        sequences.lazySet(index, pos + items.length);
+        head.lazySet(pos + 1);
+
+        return item;
+    }
+
+    /**
+     * Approximate number of elements in the buffer
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, items.length));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return items.length;
+    }
+
+}
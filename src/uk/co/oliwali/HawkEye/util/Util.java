@@ -106,6 +106,40 @@ public class Util {
         return true;
     }
 
+    /**
+     * Converts a period in the config format, such as 1w2d or 20m, to seconds
+     *
+     * @param str period to convert
+     * @return seconds, or 0 if the period is empty or invalid
+     */
+    public static long parseSeconds(String str) {
+        if (str == null) return 0;
+
+        long seconds = 0;
+        String nums = "";
+
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+
+            if (Character.isDigit(c)) {
+                nums += c;
+                continue;
+            }
+
+            if (nums.isEmpty()) return 0;
+
+            long num = Long.parseLong(nums);
+            if (c == 'w') seconds += 604800 * num;
+            else if (c == 'd') seconds += 86400 * num;
+            else if (c == 'h') seconds += 3600 * num;
+            else if (c == 'm') seconds += 60 * num;
+            else if (c == 's') seconds += num;
+            else return 0;
+            nums = "";
+        }
+        return seconds;
+    }
+
     /**
      * Java version of PHP's join(array, delimiter)
      * Takes any kind of collection (List, HashMap etc)